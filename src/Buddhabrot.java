@@ -0,0 +1,325 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+
+/**
+ * Renders the Buddhabrot, the density of the orbits of points which escape the Mandelbrot
+ * set. Random points c are iterated under z^2 + c, and every point the orbit of an escaping
+ * c passes through is counted on a grid covering the view. Each batch of points takes a
+ * grid from a pool kept for the render and gives it back when it is done, so no two
+ * batches count into the same grid at once and no locking is needed. There are never
+ * more grids than batches running at once, and the grids are added together whenever the
+ * image is shown.
+ * <p>
+ * Points are picked more often near the boundary of the set, where the long orbits which
+ * make up most of the image come from. Each orbit is weighted by how much less often its
+ * point would have been picked uniformly, so the image is the same as uniform sampling,
+ * just less noisy for the same number of samples.
+ *
+ * @author Daniel
+ *
+ */
+public class Buddhabrot {
+
+	/**
+	 * The number of cells across and down the map used to pick points.
+	 */
+	private static final int CELLS = 256;
+	/**
+	 * The area points are picked from, a square centred on the origin. Every point
+	 * outside it escapes straight away.
+	 */
+	private static final double SPAN = 4.0;
+	/**
+	 * How many times less often points are picked from cells deep inside the set than
+	 * from cells outside it. They are still picked now and then, as the map only samples
+	 * cells and a thin part of the outside can pass through a cell without being seen.
+	 */
+	private static final int SPARSE = 16;
+	/**
+	 * How many times more often points are picked from cells on the boundary of the set
+	 * than from cells outside it.
+	 */
+	private static final int BOOST = 16;
+	/**
+	 * The number of points iterated by each tile handed to the render scheduler.
+	 */
+	private static final int BATCH = 20000;
+
+	/**
+	 * Shows the image as it builds up.
+	 *
+	 * @author Daniel
+	 *
+	 */
+	public interface Progress {
+		/**
+		 * Called every time more samples have been added.
+		 *
+		 * @param image The image so far.
+		 * @param samples The number of points iterated so far.
+		 */
+		void update(BufferedImage image, long samples);
+	}
+
+	/**
+	 * The size of the image in pixels.
+	 */
+	private int width, height;
+	/**
+	 * The bounds of the plane shown by the image.
+	 */
+	private double xLower, yUpper;
+	/**
+	 * The numerical value of each pixel across and down.
+	 */
+	private double pixelX, pixelY;
+	/**
+	 * The maximum number of iterations.
+	 */
+	private int max;
+	/**
+	 * The weight of each cell of the map, how often points are picked from it.
+	 */
+	private int[] weights;
+	/**
+	 * The running total of the weights, for picking a cell.
+	 */
+	private long[] cumulative;
+	/**
+	 * Every grid created, each one waiting for a batch to take it while no batch is using it.
+	 */
+	private Queue<float[]> grids;
+
+	/**
+	 * Creates a Buddhabrot of the given area of the plane.
+	 *
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @param xLower The lower bound of the real axis.
+	 * @param xUpper The upper bound of the real axis.
+	 * @param yLower The lower bound of the imaginary axis.
+	 * @param yUpper The upper bound of the imaginary axis.
+	 * @param max The maximum number of iterations.
+	 */
+	public Buddhabrot(int width, int height, double xLower, double xUpper, double yLower, double yUpper, int max){
+		this.width = width;
+		this.height = height;
+		this.xLower = xLower;
+		this.yUpper = yUpper;
+		this.max = max;
+		pixelX = (xUpper - xLower)/width;
+		pixelY = (yUpper - yLower)/height;
+		grids = new ConcurrentLinkedQueue<float[]>();
+		map();
+	}
+
+	/**
+	 * Works out how often to pick points from each cell of the area. Cells whose centre
+	 * is in the set and whose neighbours are too nearly never escape, so are picked
+	 * {@link #SPARSE} times less often than cells outside the set. Cells with a neighbour
+	 * on the other side of the boundary are picked {@link #BOOST} times more often.
+	 */
+	private void map(){
+		int[] inside = new int[CELLS*CELLS];
+		float[] escape = new float[1];
+		double cell = SPAN/CELLS;
+		for(int y = 0; y < CELLS; y++){
+			for(int x = 0; x < CELLS; x++){
+				int iterations = Kernel.mandelbrot(0, 2, null, false, -SPAN/2 + (x + 0.5)*cell, SPAN/2 - (y + 0.5)*cell, max, escape, 0);
+				inside[y*CELLS + x] = iterations == max ? 1 : 0;
+			}
+		}
+		weights = new int[CELLS*CELLS];
+		cumulative = new long[CELLS*CELLS];
+		long total = 0;
+		for(int y = 0; y < CELLS; y++){
+			for(int x = 0; x < CELLS; x++){
+				int count = 0;
+				int neighbours = 0;
+				for(int dy = -1; dy <= 1; dy++){
+					for(int dx = -1; dx <= 1; dx++){
+						if(x + dx >= 0 && x + dx < CELLS && y + dy >= 0 && y + dy < CELLS){
+							count += inside[(y + dy)*CELLS + x + dx];
+							neighbours++;
+						}
+					}
+				}
+				int index = y*CELLS + x;
+				weights[index] = count == neighbours ? 1 : count > 0 ? SPARSE*BOOST : SPARSE;
+				total += weights[index];
+				cumulative[index] = total;
+			}
+		}
+	}
+
+	/**
+	 * Iterates the given number of random points, handing them to the render scheduler
+	 * as background work in batches. The progress is told about the image after every
+	 * round of batches. The same seed always picks the same points, but the image can
+	 * differ by rounding between renders, as which batches are counted into which grid
+	 * depends on how the threads were scheduled.
+	 *
+	 * @param samples The number of points to iterate.
+	 * @param seed The seed of the random points.
+	 * @param palette The palette to colour the density with.
+	 * @param progress Shown the image as it builds up, or null.
+	 * @return The finished image.
+	 */
+	public BufferedImage render(long samples, long seed, Palette palette, Progress progress){
+		long batches = (samples + BATCH - 1)/BATCH;
+		int round = 4*Runtime.getRuntime().availableProcessors();
+		long done = 0;
+		for(long first = 0; first < batches; first += round){
+			List<Runnable> tiles = new ArrayList<Runnable>();
+			for(long batch = first; batch < Math.min(batches, first + round); batch++){
+				final Random random = new Random(seed*31 + batch);
+				tiles.add(new Runnable(){
+					@Override
+					public void run() {
+						sample(random, BATCH);
+					}
+				});
+			}
+			RenderScheduler.get().run(RenderScheduler.EXPORT, tiles, true);
+			if(Thread.currentThread().isInterrupted()){
+				break;
+			}
+			done += (long) tiles.size()*BATCH;
+			if(progress != null){
+				progress.update(paint(palette), done);
+			}
+		}
+		return paint(palette);
+	}
+
+	/**
+	 * Picks random points and adds the orbits of those which escape to a grid taken from
+	 * the pool, or a new one if every grid is in use, giving it back once done.
+	 *
+	 * @param random The random numbers to pick points with.
+	 * @param samples The number of points to pick.
+	 */
+	private void sample(Random random, int samples){
+		float[] grid = grids.poll();
+		if(grid == null){
+			grid = new float[width*height];
+		}
+		try {
+			count(grid, random, samples);
+		} finally {
+			grids.offer(grid);
+		}
+	}
+
+	/**
+	 * Picks random points and adds the orbits of those which escape to the given grid.
+	 *
+	 * @param grid The grid, used by no other batch.
+	 * @param random The random numbers to pick points with.
+	 * @param samples The number of points to pick.
+	 */
+	private void count(float[] grid, Random random, int samples){
+		double[] orbitR = new double[max];
+		double[] orbitI = new double[max];
+		long total = cumulative[cumulative.length - 1];
+		double cell = SPAN/CELLS;
+		//the average weight of a cell, so a cell picked as often as uniform sampling counts once
+		float mean = (float) ((double) total/(CELLS*CELLS));
+		for(int s = 0; s < samples; s++){
+			int index = pick((long) (random.nextDouble()*total));
+			double cr = -SPAN/2 + (index % CELLS + random.nextDouble())*cell;
+			double ci = SPAN/2 - (index / CELLS + random.nextDouble())*cell;
+			if(inBulb(cr, ci)){
+				continue;
+			}
+			double zr = cr;
+			double zi = ci;
+			int iterations = 0;
+			while(zr*zr + zi*zi < 4 && iterations < max){
+				orbitR[iterations] = zr;
+				orbitI[iterations] = zi;
+				double temp = (zr*zr - zi*zi) + cr;
+				zi = (zr*zi + zr*zi) + ci;
+				zr = temp;
+				iterations++;
+			}
+			if(iterations == max){
+				continue;
+			}
+			float weight = mean/weights[index];
+			for(int i = 0; i < iterations; i++){
+				int x = (int) Math.floor((orbitR[i] - xLower)/pixelX);
+				int y = (int) Math.floor((yUpper - orbitI[i])/pixelY);
+				if(x >= 0 && x < width && y >= 0 && y < height){
+					grid[y*width + x] += weight;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Finds the cell a random position along the running total of the weights falls in.
+	 *
+	 * @param position A position from 0 up to the total weight.
+	 * @return The index of the cell.
+	 */
+	private int pick(long position){
+		int low = 0;
+		int high = cumulative.length - 1;
+		while(low < high){
+			int middle = (low + high) >>> 1;
+			if(cumulative[middle] > position){
+				high = middle;
+			}else{
+				low = middle + 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Checks whether a point is in the main cardioid or the period 2 bulb, which never
+	 * escape, without iterating it.
+	 *
+	 * @param cr The real part of the point.
+	 * @param ci The imaginary part of the point.
+	 * @return True if the point is in either.
+	 */
+	private static boolean inBulb(double cr, double ci){
+		double q = (cr - 0.25)*(cr - 0.25) + ci*ci;
+		return q*(q + (cr - 0.25)) <= 0.25*ci*ci || (cr + 1)*(cr + 1) + ci*ci <= 0.0625;
+	}
+
+	/**
+	 * Adds every grid together and colours the density, using the square
+	 * root so the faint orbits still show next to the bright ones.
+	 *
+	 * @param palette The palette to colour with.
+	 * @return The image.
+	 */
+	private BufferedImage paint(Palette palette){
+		float[] density = new float[width*height];
+		//only called between rounds, when every grid is back in the pool
+		for(float[] grid : grids){
+			for(int i = 0; i < density.length; i++){
+				density[i] += grid[i];
+			}
+		}
+		float brightest = 0;
+		for(int i = 0; i < density.length; i++){
+			brightest = Math.max(brightest, density[i]);
+		}
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		for(int i = 0; i < pixels.length; i++){
+			pixels[i] = density[i] == 0 ? 0 : palette.at(Math.sqrt(density[i]/brightest));
+		}
+		return image;
+	}
+}
@@ -0,0 +1,136 @@
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+
+/**
+ * Keeps the buffers of images which have been replaced so the next image of the same
+ * size can reuse them, instead of allocating a new image and iteration buffers every
+ * time the view changes. Only a couple of buffers of each kind are kept, the oldest are
+ * left to the garbage collector. A buffer can only be given back once nothing else is
+ * using it, and a buffer taken from the pool still holds its old contents.
+ *
+ * @author Daniel
+ *
+ */
+public class BufferPool {
+
+	/**
+	 * The most buffers of each kind kept.
+	 */
+	private static final int KEEP = 2;
+
+	/**
+	 * The iteration buffers given back.
+	 */
+	private List<int[]> ints = new ArrayList<int[]>();
+	/**
+	 * The escape value buffers given back.
+	 */
+	private List<float[]> floats = new ArrayList<float[]>();
+	/**
+	 * The images given back.
+	 */
+	private List<BufferedImage> images = new ArrayList<BufferedImage>();
+
+	/**
+	 * Returns an iteration buffer of the given length, reusing one if there is one.
+	 *
+	 * @param length The length of the buffer.
+	 * @return The buffer.
+	 */
+	public synchronized int[] ints(int length){
+		for(Iterator<int[]> i = ints.iterator(); i.hasNext();){
+			int[] buffer = i.next();
+			if(buffer.length == length){
+				i.remove();
+				return buffer;
+			}
+		}
+		return new int[length];
+	}
+
+	/**
+	 * Returns an escape value buffer of the given length, reusing one if there is one.
+	 *
+	 * @param length The length of the buffer.
+	 * @return The buffer.
+	 */
+	public synchronized float[] floats(int length){
+		for(Iterator<float[]> i = floats.iterator(); i.hasNext();){
+			float[] buffer = i.next();
+			if(buffer.length == length){
+				i.remove();
+				return buffer;
+			}
+		}
+		return new float[length];
+	}
+
+	/**
+	 * Returns an RGB image of the given size, reusing one if there is one.
+	 *
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @return The image.
+	 */
+	public synchronized BufferedImage image(int width, int height){
+		for(Iterator<BufferedImage> i = images.iterator(); i.hasNext();){
+			BufferedImage image = i.next();
+			if(image.getWidth() == width && image.getHeight() == height){
+				i.remove();
+				return image;
+			}
+		}
+		return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+	}
+
+	/**
+	 * Gives back an iteration buffer which is no longer used.
+	 *
+	 * @param buffer The buffer, or null.
+	 */
+	public synchronized void release(int[] buffer){
+		keep(ints, buffer);
+	}
+
+	/**
+	 * Gives back an escape value buffer which is no longer used.
+	 *
+	 * @param buffer The buffer, or null.
+	 */
+	public synchronized void release(float[] buffer){
+		keep(floats, buffer);
+	}
+
+	/**
+	 * Gives back an image which is no longer used.
+	 *
+	 * @param image The image, or null.
+	 */
+	public synchronized void release(BufferedImage image){
+		keep(images, image);
+	}
+
+	/**
+	 * Adds a buffer to a list, dropping the oldest buffer if the list is full.
+	 *
+	 * @param list The buffers of one kind.
+	 * @param buffer The buffer to add, or null.
+	 */
+	private static <T> void keep(List<T> list, T buffer){
+		if(buffer == null){
+			return;
+		}
+		for(T kept : list){
+			if(kept == buffer){
+				return;
+			}
+		}
+		list.add(buffer);
+		if(list.size() > KEEP){
+			list.remove(0);
+		}
+	}
+}
@@ -93,6 +93,32 @@ public class Complex {
 		return Double.toString(real) + " + " + Double.toString(imaginary) + "i";
 	}
 	
+	/**
+	 * Checks whether the given object is a complex number with exactly the same
+	 * real and imaginary parts.
+	 * 
+	 * @param o The object to compare with.
+	 * @return True if the numbers are equal.
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	public boolean equals(Object o){
+		if(!(o instanceof Complex)){
+			return false;
+		}
+		Complex other = (Complex) o;
+		return Double.compare(real, other.real) == 0 && Double.compare(imaginary, other.imaginary) == 0;
+	}
+	
+	/**
+	 * Creates a hash code from the real and imaginary parts, consistent with equals.
+	 * 
+	 * @return The hash code.
+	 * @see java.lang.Object#hashCode()
+	 */
+	public int hashCode(){
+		return 31*Double.valueOf(real).hashCode() + Double.valueOf(imaginary).hashCode();
+	}
+	
 	/**
 	 * Squares the current complex number but using the absolute values for the real
 	 * and imaginary parts of the number.
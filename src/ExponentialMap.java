@@ -0,0 +1,256 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * An exponential (log-polar) map of a fractal around a zoom target. Each row of the
+ * strip is a ring around the target, with every row a fixed fraction smaller than the
+ * one above, so one tall strip covers many powers of ten of magnification with square
+ * samples. Every frame of a zoom into the target can then be put together from the
+ * strip without iterating anything again. A deep zoom needs a strip far too large for
+ * the heap, so it is kept in an {@link OffHeapImage}.
+ *
+ * @author Daniel
+ *
+ */
+public class ExponentialMap {
+
+	/**
+	 * An int representation of the fractal type being mapped.
+	 */
+	private int fractalType;
+	/**
+	 * The power used by a Multibrot set of type {@link Kernel#MULTIBROT}.
+	 */
+	private double power;
+	/**
+	 * The formula used by a fractal of type {@link Kernel#CUSTOM}, or null for any other type.
+	 */
+	private Formula formula;
+	/**
+	 * The maximum number of iterations to go up to.
+	 */
+	private int max;
+	/**
+	 * The real part of the zoom target.
+	 */
+	private double centreReal;
+	/**
+	 * The imaginary part of the zoom target.
+	 */
+	private double centreImaginary;
+	/**
+	 * The radius of the top row of the strip.
+	 */
+	private double outerRadius;
+	/**
+	 * The number of samples around each ring.
+	 */
+	private int width;
+	/**
+	 * The number of rings in the strip.
+	 */
+	private int height;
+	/**
+	 * The change in the log of the radius from one ring to the next, the same as the
+	 * angle between samples so that samples are square.
+	 */
+	private double ringStep;
+	/**
+	 * The number of iterations and escape value of each sample, a row for each ring.
+	 */
+	private OffHeapImage strip;
+
+	/**
+	 * Creates the map of a fractal around a target, between two radii.
+	 *
+	 * @param fractalType An int representation of the fractal type.
+	 * @param power The power used by a Multibrot set of type {@link Kernel#MULTIBROT}.
+	 * @param formula The formula used by a fractal of type {@link Kernel#CUSTOM}, or null for any other type.
+	 * @param max The maximum number of iterations.
+	 * @param centreReal The real part of the zoom target.
+	 * @param centreImaginary The imaginary part of the zoom target.
+	 * @param outerRadius The largest distance from the target to map.
+	 * @param innerRadius The smallest distance from the target to map.
+	 * @param width The number of samples around each ring.
+	 */
+	public ExponentialMap(int fractalType, double power, Formula formula, int max, double centreReal, double centreImaginary, double outerRadius, double innerRadius, int width){
+		this.fractalType = fractalType;
+		this.power = power;
+		this.formula = formula;
+		this.max = max;
+		this.centreReal = centreReal;
+		this.centreImaginary = centreImaginary;
+		this.outerRadius = outerRadius;
+		this.width = width;
+		ringStep = 2*Math.PI/width;
+		height = (int) Math.ceil(Math.log(outerRadius/innerRadius)/ringStep) + 1;
+	}
+
+	/**
+	 * Returns the number of rings in the strip.
+	 *
+	 * @return The height of the strip.
+	 */
+	public int getHeight(){
+		return height;
+	}
+
+	/**
+	 * Iterates every sample of the strip, handing each ring to the render scheduler as
+	 * a tile of background export work. Each ring is iterated into a small array on the
+	 * heap and then copied into the strip.
+	 *
+	 * @param directory The directory to keep the strip in as files, or null to keep it in direct memory.
+	 * @throws IOException If a file couldn't be created.
+	 */
+	public void render(File directory) throws IOException{
+		strip = new OffHeapImage(width, height, directory);
+		List<Runnable> tiles = new ArrayList<Runnable>();
+		for(int ring = 0; ring < height; ring++){
+			final int y = ring;
+			tiles.add(new Runnable(){
+				/*
+				 * Iterates every sample around the ring.
+				 */
+				@Override
+				public void run() {
+					int[] ringIterations = new int[width];
+					float[] ringEscape = new float[width];
+					double radius = outerRadius*Math.exp(-y*ringStep);
+					//the samples of a ring are as far apart around it as the rings are
+					boolean fast = Kernel.fastPower(radius*ringStep, radius*ringStep);
+					for(int x = 0; x < width; x++){
+						double angle = x*ringStep;
+						ringIterations[x] = Kernel.mandelbrot(fractalType, power, formula, fast, centreReal + radius*Math.cos(angle),
+								centreImaginary + radius*Math.sin(angle), max, ringEscape, x);
+					}
+					strip.putRow(y, ringIterations, ringEscape);
+				}
+			});
+		}
+		RenderScheduler.get().run(RenderScheduler.EXPORT, tiles, true);
+	}
+
+	/**
+	 * Deletes the files the strip was kept in, if there are any. No more frames can be
+	 * put together afterwards.
+	 */
+	public void close(){
+		if(strip != null){
+			strip.close();
+			strip = null;
+		}
+	}
+
+	/**
+	 * Puts together every frame of a zoom into the target from the strip, and writes
+	 * them to the given directory as numbered png images. The zoom goes at a constant
+	 * speed, so each frame is the same fraction smaller than the last. The distance and
+	 * angle of each pixel from the centre only depend on the frame size, so they are
+	 * worked out once and each frame is just a lookup into the strip. The frames are
+	 * written by a {@link PngEncoder}.
+	 *
+	 * @param startRadius Half the width of the first frame.
+	 * @param endRadius Half the width of the last frame.
+	 * @param frames The number of frames.
+	 * @param frameWidth The width of each frame in pixels.
+	 * @param frameHeight The height of each frame in pixels.
+	 * @param palette The palette to colour the frames with.
+	 * @param smooth Whether to colour smoothly or in bands.
+	 * @param directory The directory to write the frames into.
+	 * @param progress Told how many frames have been written, or null.
+	 * @throws IOException If a frame couldn't be written.
+	 */
+	public void writeFrames(double startRadius, double endRadius, int frames, final int frameWidth, int frameHeight,
+			Palette palette, boolean smooth, File directory, PngEncoder.Progress progress) throws IOException{
+		int pixels = frameWidth*frameHeight;
+		double[] logDistance = new double[pixels];
+		int[] column = new int[pixels];
+		for(int y = 0; y < frameHeight; y++){
+			for(int x = 0; x < frameWidth; x++){
+				double dx = x - frameWidth/2.0 + 0.5;
+				double dy = frameHeight/2.0 - y - 0.5;
+				double angle = Math.atan2(dy, dx);
+				if(angle < 0){
+					angle += 2*Math.PI;
+				}
+				logDistance[y*frameWidth + x] = 0.5*Math.log(dx*dx + dy*dy);
+				column[y*frameWidth + x] = (int) Math.round(angle/ringStep) % width;
+			}
+		}
+
+		directory.mkdirs();
+		int[] frameIterations = new int[pixels];
+		float[] frameEscape = new float[pixels];
+		final int[] framePixels = new int[pixels];
+		for(int f = 0; f < frames; f++){
+			double radius = startRadius*Math.pow(endRadius/startRadius, frames == 1 ? 0 : (double) f/(frames - 1));
+			//the ring a pixel one pixel away from the centre falls on
+			double offset = Math.log(outerRadius/(2*radius/frameWidth))/ringStep;
+			for(int i = 0; i < pixels; i++){
+				int ring = (int) Math.round(offset - logDistance[i]/ringStep);
+				ring = Math.max(0, Math.min(height - 1, ring));
+				frameIterations[i] = strip.iterationsAt(column[i], ring);
+				frameEscape[i] = strip.escapeAt(column[i], ring);
+			}
+			palette.paint(frameIterations, frameEscape, max, Kernel.degree(fractalType, power, formula), smooth, null, framePixels);
+			OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(directory, String.format("frame%05d.png", f))));
+			try {
+				PngEncoder.write(frameWidth, frameHeight, new PngEncoder.Rows(){
+					@Override
+					public void row(int y, int[] row) {
+						System.arraycopy(framePixels, y*frameWidth, row, 0, frameWidth);
+					}
+				}, out);
+			} finally {
+				out.close();
+			}
+			if(progress != null){
+				progress.update(f + 1, frames);
+			}
+		}
+	}
+
+	/**
+	 * Maps the zoom into a target and writes every frame, choosing the strip so that
+	 * every pixel of every frame has a sample no bigger than itself. The strip is kept in
+	 * files mapped into memory in the temporary directory, and deleted afterwards.
+	 *
+	 * @param fractalType An int representation of the fractal type.
+	 * @param power The power used by a Multibrot set of type {@link Kernel#MULTIBROT}.
+	 * @param formula The formula used by a fractal of type {@link Kernel#CUSTOM}, or null for any other type.
+	 * @param max The maximum number of iterations.
+	 * @param target The point to zoom into.
+	 * @param startRadius Half the width of the first frame.
+	 * @param endRadius Half the width of the last frame.
+	 * @param frames The number of frames.
+	 * @param frameWidth The width of each frame in pixels.
+	 * @param frameHeight The height of each frame in pixels.
+	 * @param palette The palette to colour the frames with.
+	 * @param smooth Whether to colour smoothly or in bands.
+	 * @param directory The directory to write the frames into.
+	 * @param progress Told how many frames have been written, or null.
+	 * @throws IOException If the strip couldn't be created or a frame couldn't be written.
+	 */
+	public static void zoomVideo(int fractalType, double power, Formula formula, int max, Complex target, double startRadius, double endRadius, int frames,
+			int frameWidth, int frameHeight, Palette palette, boolean smooth, File directory, PngEncoder.Progress progress) throws IOException{
+		double halfDiagonal = 0.5*Math.sqrt(frameWidth*frameWidth + frameHeight*frameHeight);
+		//enough samples around the outside ring of the first frame to match its pixels
+		int width = (int) Math.ceil(2*Math.PI*halfDiagonal);
+		double outerRadius = startRadius*halfDiagonal/(frameWidth/2.0);
+		double innerRadius = endRadius/frameWidth;
+		ExponentialMap map = new ExponentialMap(fractalType, power, formula, max, target.getReal(), target.getImaginary(), outerRadius, innerRadius, width);
+		try {
+			map.render(new File(System.getProperty("java.io.tmpdir")));
+			map.writeFrames(startRadius, endRadius, frames, frameWidth, frameHeight, palette, smooth, directory, progress);
+		} finally {
+			map.close();
+		}
+	}
+}
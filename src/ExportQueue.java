@@ -0,0 +1,257 @@
+import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+
+import javax.imageio.ImageIO;
+
+
+/**
+ * The images waiting to be saved, written one after another on a thread of their own so
+ * the program can carry on while they are saved, however many are queued. Png images are
+ * written by a {@link PngEncoder}, which deflates them in parallel on the render scheduler
+ * as export work, so the main view still comes first. How far through the queue is can be
+ * read at any time, and a listener is told whenever it changes.
+ *
+ * @author Daniel
+ *
+ */
+public class ExportQueue {
+
+	/**
+	 * Writes one export to a file.
+	 *
+	 * @author Daniel
+	 *
+	 */
+	public interface Export {
+		/**
+		 * Writes the export.
+		 *
+		 * @param file The file to write.
+		 * @param progress Told how many rows have been written, where the export can tell.
+		 * @throws IOException If the file couldn't be written.
+		 */
+		void write(File file, PngEncoder.Progress progress) throws IOException;
+	}
+
+	/**
+	 * Told about changes to the queue, on whichever thread made the change.
+	 *
+	 * @author Daniel
+	 *
+	 */
+	public interface Listener {
+		/**
+		 * Called whenever an export is queued, started or finished, or gets further.
+		 */
+		void changed();
+
+		/**
+		 * Called when an export couldn't be written.
+		 *
+		 * @param file The file which couldn't be written.
+		 * @param e The reason.
+		 */
+		void failed(File file, Exception e);
+	}
+
+	/**
+	 * An export and the file it is written to.
+	 *
+	 * @author Daniel
+	 *
+	 */
+	private static class Job {
+		/**
+		 * The file to write.
+		 */
+		final File file;
+		/**
+		 * Writes the file.
+		 */
+		final Export export;
+
+		/**
+		 * Creates a job.
+		 *
+		 * @param file The file to write.
+		 * @param export Writes the file.
+		 */
+		Job(File file, Export export){
+			this.file = file;
+			this.export = export;
+		}
+	}
+
+	/**
+	 * The exports waiting to be started.
+	 */
+	private ArrayDeque<Job> waiting;
+	/**
+	 * The export being written, or null if there isn't one.
+	 */
+	private Job current;
+	/**
+	 * How far through the current export is, as a percentage.
+	 */
+	private int percent;
+	/**
+	 * Told about changes to the queue.
+	 */
+	private Listener listener;
+
+	/**
+	 * Creates an empty queue and starts the thread which writes the exports.
+	 *
+	 * @param listener Told about changes to the queue.
+	 */
+	public ExportQueue(Listener listener){
+		this.listener = listener;
+		waiting = new ArrayDeque<Job>();
+		Thread writer = new Thread(new Runnable(){
+			/*
+			 * Writes the next export waiting, over and over.
+			 */
+			@Override
+			public void run() {
+				while(true){
+					try {
+						write(take());
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		}, "Export");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Creates an export of an image already in memory, as a png or any other format
+	 * ImageIO can write.
+	 *
+	 * @param image The image.
+	 * @param format The informal name of the format, such as "png" or "jpg".
+	 * @return The export.
+	 */
+	public static Export image(final BufferedImage image, final String format){
+		return new Export(){
+			@Override
+			public void write(File file, PngEncoder.Progress progress) throws IOException {
+				if(!format.equals("png")){
+					if(!ImageIO.write(image, format, file)){
+						throw new IOException("Can't write " + format + " images");
+					}
+					return;
+				}
+				final int width = image.getWidth();
+				OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+				try {
+					PngEncoder.write(width, image.getHeight(), new PngEncoder.Rows(){
+						@Override
+						public void row(int y, int[] pixels) {
+							image.getRGB(0, y, width, 1, pixels, 0, width);
+						}
+					}, out, progress);
+				} finally {
+					out.close();
+				}
+			}
+		};
+	}
+
+	/**
+	 * Queues an export to be written once those already queued are finished.
+	 *
+	 * @param file The file to write.
+	 * @param export Writes the file.
+	 */
+	public void add(File file, Export export){
+		synchronized(this){
+			waiting.add(new Job(file, export));
+			notifyAll();
+		}
+		listener.changed();
+	}
+
+	/**
+	 * Checks whether an export is being written or waiting.
+	 *
+	 * @return True if the queue is busy.
+	 */
+	public synchronized boolean isBusy(){
+		return current != null || !waiting.isEmpty();
+	}
+
+	/**
+	 * Returns how far through the current export is.
+	 *
+	 * @return The percentage written.
+	 */
+	public synchronized int getPercent(){
+		return percent;
+	}
+
+	/**
+	 * Describes the export being written and how many more are waiting.
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public synchronized String toString(){
+		if(current == null){
+			return waiting.isEmpty() ? "" : "Starting export";
+		}
+		String status = "Saving " + current.file.getName() + " " + percent + "%";
+		return waiting.isEmpty() ? status : status + " (" + waiting.size() + " more queued)";
+	}
+
+	/**
+	 * Takes the next export waiting as the current one, waiting until there is one.
+	 *
+	 * @return The export.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	private synchronized Job take() throws InterruptedException{
+		while(waiting.isEmpty()){
+			wait();
+		}
+		current = waiting.poll();
+		percent = 0;
+		return current;
+	}
+
+	/**
+	 * Writes an export, telling the listener as it gets further and if it fails.
+	 *
+	 * @param job The export.
+	 */
+	private void write(Job job){
+		listener.changed();
+		try {
+			job.export.write(job.file, new PngEncoder.Progress(){
+				@Override
+				public void update(int rows, int height) {
+					synchronized(ExportQueue.this){
+						percent = (int) (100L*rows/height);
+					}
+					listener.changed();
+				}
+			});
+		} catch (IOException | RuntimeException e) {
+			//a partly written file is no use to anyone
+			job.file.delete();
+			listener.failed(job.file, e);
+		} finally {
+			synchronized(this){
+				current = null;
+			}
+			listener.changed();
+		}
+	}
+}
@@ -0,0 +1,134 @@
+/**
+ * Fast approximations of the maths functions used while iterating and colouring,
+ * trading a little accuracy for a lot of speed over the versions in {@link Math}.
+ *
+ * @author Daniel
+ *
+ */
+public class FastMath {
+
+	/**
+	 * The natural log of 2.
+	 */
+	private static final double LN2 = 0.6931471805599453;
+	/**
+	 * A whole turn in radians.
+	 */
+	private static final double TWO_PI = 2*Math.PI;
+	/**
+	 * The number of turns in a radian.
+	 */
+	private static final double TURNS = 1/TWO_PI;
+
+	/**
+	 * Approximates the base 2 log of a positive number. The exponent is taken straight
+	 * from the bits of the double and a polynomial is used for the mantissa, which is
+	 * accurate to around 1e-4, plenty for picking a colour.
+	 *
+	 * @param x The positive number.
+	 * @return The approximate base 2 log.
+	 */
+	public static double log2(double x){
+		long bits = Double.doubleToRawLongBits(x);
+		int exponent = (int) ((bits >>> 52) & 0x7FF) - 1023;
+		//the mantissa as a number between 1 and 2
+		double m = Double.longBitsToDouble((bits & 0xFFFFFFFFFFFFFL) | 0x3FF0000000000000L);
+		return exponent - 1.7417939 + (2.8212026 + (-1.4699568 + (0.44717955 - 0.056570851*m)*m)*m)*m;
+	}
+
+	/**
+	 * Approximates the natural log of a positive number to around 1e-6, splitting off
+	 * the exponent and using a short series for the mantissa.
+	 *
+	 * @param x The positive number.
+	 * @return The approximate natural log.
+	 */
+	public static double log(double x){
+		long bits = Double.doubleToRawLongBits(x);
+		int exponent = (int) ((bits >>> 52) & 0x7FF) - 1023;
+		double m = Double.longBitsToDouble((bits & 0xFFFFFFFFFFFFFL) | 0x3FF0000000000000L);
+		//ln(m) = 2(s + s^3/3 + s^5/5 + ...) where s = (m-1)/(m+1) is at most 1/3
+		double s = (m - 1)/(m + 1);
+		double s2 = s*s;
+		return exponent*LN2 + 2*s*(1 + s2*(1/3.0 + s2*(1/5.0 + s2*(1/7.0 + s2*(1/9.0)))));
+	}
+
+	/**
+	 * Approximates e to the power of x to around 1e-7 relative error, putting the whole
+	 * part of x/ln2 straight into the exponent bits and using a polynomial for the rest.
+	 *
+	 * @param x The power.
+	 * @return The approximate value of e^x.
+	 */
+	public static double exp(double x){
+		if(x > 709){
+			return Double.POSITIVE_INFINITY;
+		}
+		if(x < -708){
+			return 0;
+		}
+		double power = x/LN2;
+		double whole = Math.floor(power);
+		//e^(f ln2) for f between 0 and 1
+		double f = (power - whole)*LN2;
+		double fraction = 1 + f*(1 + f*(1/2.0 + f*(1/6.0 + f*(1/24.0 + f*(1/120.0 + f*(1/720.0 + f*(1/5040.0)))))));
+		return fraction*Double.longBitsToDouble(((long) whole + 1023) << 52);
+	}
+
+	/**
+	 * Approximates the angle of the point (x, y) from the positive x axis, between -pi and
+	 * pi, to around 1e-5 radians using a polynomial for the arctangent.
+	 *
+	 * @param y The y coordinate.
+	 * @param x The x coordinate.
+	 * @return The approximate angle.
+	 */
+	public static double atan2(double y, double x){
+		double absX = Math.abs(x);
+		double absY = Math.abs(y);
+		if(absX == 0 && absY == 0){
+			return 0;
+		}
+		//the arctangent of the smaller over the larger is always between 0 and pi/4
+		boolean steep = absY > absX;
+		double t = steep ? absX/absY : absY/absX;
+		double t2 = t*t;
+		double angle = t*(0.9998660 + t2*(-0.3302995 + t2*(0.1801410 + t2*(-0.0851330 + t2*0.0208351))));
+		if(steep){
+			angle = Math.PI/2 - angle;
+		}
+		if(x < 0){
+			angle = Math.PI - angle;
+		}
+		return y < 0 ? -angle : angle;
+	}
+
+	/**
+	 * Approximates the sine of an angle to around 1e-8. Whole turns are taken off the
+	 * angle, leaving it between -pi and pi, and a series long enough for the whole of
+	 * that range is used, so there are no branches.
+	 *
+	 * @param x The angle in radians.
+	 * @return The approximate sine.
+	 */
+	public static double sin(double x){
+		x -= TWO_PI*Math.rint(x*TURNS);
+		double x2 = x*x;
+		return x*(1 + x2*(-1/6.0 + x2*(1/120.0 + x2*(-1/5040.0 + x2*(1/362880.0 + x2*(-1/39916800.0
+				+ x2*(1/6227020800.0 + x2*(-1/1307674368000.0 + x2*(1/355687428096000.0)))))))));
+	}
+
+	/**
+	 * Approximates the cosine of an angle to around 1e-8, in the same way as
+	 * {@link #sin(double)}.
+	 *
+	 * @param x The angle in radians.
+	 * @return The approximate cosine.
+	 */
+	public static double cos(double x){
+		x -= TWO_PI*Math.rint(x*TURNS);
+		double x2 = x*x;
+		return 1 + x2*(-1/2.0 + x2*(1/24.0 + x2*(-1/720.0 + x2*(1/40320.0 + x2*(-1/3628800.0 + x2*(1/479001600.0
+				+ x2*(-1/87178291200.0 + x2*(1/20922789888000.0 + x2*(-1/6402373705728000.0)))))))));
+	}
+}
@@ -0,0 +1,112 @@
+/**
+ * A formula entered by the user, such as z^3 - z + c, compiled into a class of its own
+ * while the program runs. The formula is parsed and simplified by a {@link FormulaParser},
+ * and the simplified formula is written out as the bytecode of a subclass by a
+ * {@link FormulaCompiler}, with the whole escape loop in one method working on primitive
+ * doubles. The JIT then treats it just like the loops written by hand in {@link Kernel}.
+ * <p>
+ * Like the built in formulas, a Mandelbrot style image starts each orbit at c rather than 0.
+ *
+ * @author Daniel
+ *
+ */
+public abstract class Formula {
+
+	/**
+	 * The formula as the user entered it.
+	 */
+	private String text;
+	/**
+	 * The power of z in the formula, used for smooth colouring.
+	 */
+	private double degree;
+	/**
+	 * Holds whether conjugating z and c conjugates the result.
+	 */
+	private boolean symmetric;
+
+	/**
+	 * Creates the formula. Only called by the compiled subclasses.
+	 */
+	protected Formula(){
+	}
+
+	/**
+	 * Parses, simplifies and compiles a formula of z and c.
+	 *
+	 * @param text The formula.
+	 * @return The compiled formula.
+	 * @throws IllegalArgumentException If the formula can't be understood.
+	 */
+	public static Formula compile(String text){
+		FormulaParser.Node node = FormulaParser.parse(text);
+		Formula formula = FormulaCompiler.compile(node);
+		formula.text = text.trim();
+		formula.degree = Math.max(2, node.degree());
+		formula.symmetric = node.isSymmetric();
+		return formula;
+	}
+
+	/**
+	 * Iterates z to the formula from the given starting point until it diverges, storing
+	 * the square of the modulus it escaped with for smooth colouring.
+	 *
+	 * @param zr The real part of the starting point.
+	 * @param zi The imaginary part of the starting point.
+	 * @param cr The real part of c.
+	 * @param ci The imaginary part of c.
+	 * @param max The maximum number of iterations to go up to.
+	 * @param escape The buffer to store the square of the modulus in.
+	 * @param index The index of the pixel being iterated.
+	 * @return the number of iterations before the number diverges.
+	 */
+	public abstract int iterate(double zr, double zi, double cr, double ci, int max, float[] escape, int index);
+
+	/**
+	 * Iterates z to the formula in the same way as
+	 * {@link #iterate(double, double, double, double, int, float[], int)}, also keeping the
+	 * smallest distance from the orbit to an orbit trap.
+	 *
+	 * @param zr The real part of the starting point.
+	 * @param zi The imaginary part of the starting point.
+	 * @param cr The real part of c.
+	 * @param ci The imaginary part of c.
+	 * @param max The maximum number of iterations to go up to.
+	 * @param escape The buffer to store the square of the modulus in.
+	 * @param trap The buffer to store the square of the smallest distance to the trap in.
+	 * @param shape The shape of the trap, as given to {@link Kernel#trap(int, double, double)}.
+	 * @param index The index of the pixel being iterated.
+	 * @return the number of iterations before the number diverges.
+	 */
+	public abstract int iterateTrap(double zr, double zi, double cr, double ci, int max, float[] escape, float[] trap, int shape, int index);
+
+	/**
+	 * Returns the highest power of z in the formula, at least 2.
+	 *
+	 * @return The degree of the formula.
+	 */
+	public double degree(){
+		return degree;
+	}
+
+	/**
+	 * Checks whether the formula gives the conjugate of its result for the conjugates of z
+	 * and c, which is true when all its numbers are real and it doesn't fold z with abs.
+	 * The Mandelbrot image of such a formula is symmetric about the real axis.
+	 *
+	 * @return True if the formula is symmetric.
+	 */
+	public boolean isSymmetric(){
+		return symmetric;
+	}
+
+	/**
+	 * Returns the formula as the user entered it.
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString(){
+		return text;
+	}
+}
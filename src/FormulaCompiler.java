@@ -0,0 +1,787 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Writes a formula out as the bytecode of a subclass of {@link Formula} and loads it.
+ * The subclass has one method holding the whole escape loop, and a second one which
+ * also keeps the distance to an orbit trap, with z kept in two local
+ * doubles and every step of the formula worked out into more local doubles, so nothing
+ * is created or looked up while iterating. Parts of the formula which appear more than
+ * once are only worked out once each iteration, and numbers are written straight into
+ * the code.
+ * <p>
+ * The class is written in the version 49 class file format, which doesn't need the stack
+ * map frames later versions do, so only the constant pool and the code have to be built.
+ *
+ * @author Daniel
+ *
+ */
+public class FormulaCompiler {
+
+	/**
+	 * The opcodes used.
+	 */
+	private static final int ICONST_0 = 0x03, DCONST_0 = 0x0E, DCONST_1 = 0x0F, LDC2_W = 0x14, ILOAD = 0x15,
+			DLOAD = 0x18, ALOAD = 0x19, ALOAD_0 = 0x2A, ISTORE = 0x36, DSTORE = 0x39, FASTORE = 0x51,
+			DADD = 0x63, DSUB = 0x67, DMUL = 0x6B, DDIV = 0x6F, DNEG = 0x77, IINC = 0x84, D2F = 0x90,
+			DCMPG = 0x98, IFGE = 0x9C, IF_ICMPGE = 0xA2, GOTO = 0xA7, IRETURN = 0xAC, RETURN = 0xB1,
+			INVOKESTATIC = 0xB8, INVOKESPECIAL = 0xB7, WIDE = 0xC4;
+	/**
+	 * The local variables of the arguments both methods start with.
+	 */
+	private static final int ZR = 1, ZI = 3, CR = 5, CI = 7, MAX = 9, ESCAPE = 10;
+	/**
+	 * The local variables of the iterate method after the shared arguments.
+	 */
+	private static final int INDEX = 11, ITERATIONS = 12, FIRST_TEMP = 13;
+	/**
+	 * The local variables of the iterateTrap method after the shared arguments, including
+	 * the smallest distance to the trap so far.
+	 */
+	private static final int TRAP = 11, SHAPE = 12, TRAP_INDEX = 13, TRAP_ITERATIONS = 14, NEAREST = 15,
+			TRAP_FIRST_TEMP = 17;
+	/**
+	 * The number of formulas compiled, to give each class its own name.
+	 */
+	private static int count;
+
+	/**
+	 * The value of one part of the formula, either held in two local doubles or a number.
+	 *
+	 * @author Daniel
+	 *
+	 */
+	private static class Value {
+		/**
+		 * The local variables holding the real and imaginary parts, if it isn't a number.
+		 */
+		int real, imaginary;
+		/**
+		 * Holds whether the value is a number.
+		 */
+		boolean constant;
+		/**
+		 * The real and imaginary parts of a number.
+		 */
+		double constantReal, constantImaginary;
+	}
+
+	/**
+	 * The entries of the constant pool, already written out.
+	 */
+	private ByteArrayOutputStream pool;
+	/**
+	 * The number of the next constant pool entry.
+	 */
+	private int poolSize;
+	/**
+	 * The entries already in the constant pool, so each is only added once.
+	 */
+	private Map<String, Integer> entries;
+	/**
+	 * The code of the method being written.
+	 */
+	private ByteArrayOutputStream code;
+	/**
+	 * The next free local variable.
+	 */
+	private int locals;
+	/**
+	 * The parts of the formula already worked out this iteration.
+	 */
+	private Map<String, Value> computed;
+
+	/**
+	 * Creates a compiler with an empty constant pool.
+	 */
+	private FormulaCompiler(){
+		pool = new ByteArrayOutputStream();
+		poolSize = 1;
+		entries = new HashMap<String, Integer>();
+	}
+
+	/**
+	 * Compiles a formula into a class and creates an instance of it.
+	 *
+	 * @param formula The simplified tree of the formula.
+	 * @return The compiled formula.
+	 * @throws IllegalArgumentException If the formula is too long to compile.
+	 */
+	public static Formula compile(FormulaParser.Node formula){
+		String name;
+		synchronized(FormulaCompiler.class){
+			name = "CompiledFormula" + (++count);
+		}
+		byte[] bytes = new FormulaCompiler().write(name, formula);
+		try {
+			Class<?> compiled = new Loader().define(name, bytes);
+			return (Formula) compiled.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError e) {
+			throw new IllegalArgumentException("Couldn't compile the formula: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Writes the class file of a formula.
+	 *
+	 * @param name The name of the class.
+	 * @param formula The tree of the formula.
+	 * @return The class file.
+	 */
+	private byte[] write(String name, FormulaParser.Node formula){
+		int thisClass = classEntry(name);
+		int superClass = classEntry("Formula");
+		int constructor = methodEntry(superClass, "<init>", "()V");
+		int codeName = utf8("Code");
+		int initName = utf8("<init>");
+		int initType = utf8("()V");
+		int iterateName = utf8("iterate");
+		int iterateType = utf8("(DDDDI[FI)I");
+		int trapName = utf8("iterateTrap");
+		int trapType = utf8("(DDDDI[F[FII)I");
+
+		//the constructor only calls the constructor of Formula
+		code = new ByteArrayOutputStream();
+		code.write(ALOAD_0);
+		code.write(INVOKESPECIAL);
+		writeShort(constructor);
+		code.write(RETURN);
+		byte[] constructorCode = code.toByteArray();
+
+		byte[] iterateCode = iterate(formula, false);
+		int iterateLocals = locals;
+		byte[] trapCode = iterate(formula, true);
+		int trapLocals = locals;
+
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(0xCAFEBABE);
+			out.writeShort(0);
+			out.writeShort(49);
+			out.writeShort(poolSize);
+			pool.writeTo(out);
+			out.writeShort(0x0001 | 0x0010 | 0x0020); //public final super
+			out.writeShort(thisClass);
+			out.writeShort(superClass);
+			out.writeShort(0); //interfaces
+			out.writeShort(0); //fields
+			out.writeShort(3); //methods
+			writeMethod(out, initName, initType, codeName, 1, 1, constructorCode);
+			writeMethod(out, iterateName, iterateType, codeName, 8, iterateLocals, iterateCode);
+			writeMethod(out, trapName, trapType, codeName, 8, trapLocals, trapCode);
+			out.writeShort(0); //attributes
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			//can't happen writing to memory
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Writes a public method with its code.
+	 *
+	 * @param out The class file.
+	 * @param name The constant pool entry of the name.
+	 * @param type The constant pool entry of the descriptor.
+	 * @param codeName The constant pool entry of "Code".
+	 * @param stack The most values on the operand stack at once.
+	 * @param locals The number of local variables.
+	 * @param code The bytecode.
+	 * @throws IOException Never, as the class file is in memory.
+	 */
+	private void writeMethod(DataOutputStream out, int name, int type, int codeName, int stack, int locals, byte[] code) throws IOException{
+		out.writeShort(0x0001); //public
+		out.writeShort(name);
+		out.writeShort(type);
+		out.writeShort(1); //attributes
+		out.writeShort(codeName);
+		out.writeInt(12 + code.length);
+		out.writeShort(stack);
+		out.writeShort(locals);
+		out.writeInt(code.length);
+		out.write(code);
+		out.writeShort(0); //exception table
+		out.writeShort(0); //attributes
+	}
+
+	/**
+	 * Writes the code of the iterate or iterateTrap method, the same loop as the built in
+	 * formulas with the formula in the middle. The trap version keeps the smallest distance
+	 * to the trap in a local double, worked out by {@link Kernel#trap(int, double, double)}
+	 * for the starting point and every new z.
+	 *
+	 * @param formula The tree of the formula.
+	 * @param trapped Whether to write the iterateTrap method.
+	 * @return The bytecode.
+	 */
+	private byte[] iterate(FormulaParser.Node formula, boolean trapped){
+		int index = trapped ? TRAP_INDEX : INDEX;
+		int iterations = trapped ? TRAP_ITERATIONS : ITERATIONS;
+		code = new ByteArrayOutputStream();
+		locals = trapped ? TRAP_FIRST_TEMP : FIRST_TEMP;
+		computed = new HashMap<String, Value>();
+		int trap = methodEntry(classEntry("Kernel"), "trap", "(IDD)D");
+		int min = methodEntry(classEntry("java/lang/Math"), "min", "(DD)D");
+		code.write(ICONST_0);
+		local(ISTORE, iterations);
+		if(trapped){
+			//nearest = Kernel.trap(shape, zr, zi);
+			local(ILOAD, SHAPE);
+			local(DLOAD, ZR);
+			local(DLOAD, ZI);
+			code.write(INVOKESTATIC);
+			writeShort(trap);
+			local(DSTORE, NEAREST);
+		}
+
+		//while(zr*zr + zi*zi < 4 && iterations < max)
+		int loop = code.size();
+		modulusSquared();
+		constant(4);
+		code.write(DCMPG);
+		int escaped = code.size();
+		code.write(IFGE);
+		writeShort(0);
+		local(ILOAD, iterations);
+		local(ILOAD, MAX);
+		int finished = code.size();
+		code.write(IF_ICMPGE);
+		writeShort(0);
+
+		//works out the next z from the old one before replacing it
+		computed.clear();
+		Value next = value(formula);
+		loadReal(next);
+		loadImaginary(next);
+		local(DSTORE, ZI);
+		local(DSTORE, ZR);
+		if(trapped){
+			//nearest = Math.min(nearest, Kernel.trap(shape, zr, zi));
+			local(DLOAD, NEAREST);
+			local(ILOAD, SHAPE);
+			local(DLOAD, ZR);
+			local(DLOAD, ZI);
+			code.write(INVOKESTATIC);
+			writeShort(trap);
+			code.write(INVOKESTATIC);
+			writeShort(min);
+			local(DSTORE, NEAREST);
+		}
+		code.write(IINC);
+		code.write(iterations);
+		code.write(1);
+		int back = code.size();
+		code.write(GOTO);
+		writeShort(loop - back);
+
+		//escape[index] = (float) (zr*zr + zi*zi); return iterations;
+		int end = code.size();
+		local(ALOAD, ESCAPE);
+		local(ILOAD, index);
+		modulusSquared();
+		code.write(D2F);
+		code.write(FASTORE);
+		if(trapped){
+			//trap[index] = (float) nearest;
+			local(ALOAD, TRAP);
+			local(ILOAD, index);
+			local(DLOAD, NEAREST);
+			code.write(D2F);
+			code.write(FASTORE);
+		}
+		local(ILOAD, iterations);
+		code.write(IRETURN);
+
+		if(code.size() > Short.MAX_VALUE){
+			throw new IllegalArgumentException("The formula is too long");
+		}
+		byte[] bytes = code.toByteArray();
+		patch(bytes, escaped, end);
+		patch(bytes, finished, end);
+		return bytes;
+	}
+
+	/**
+	 * Writes the code working out one part of the formula, unless it has already been
+	 * worked out this iteration.
+	 *
+	 * @param node The part of the formula.
+	 * @return Where its value is.
+	 */
+	private Value value(FormulaParser.Node node){
+		switch(node.kind){
+		case FormulaParser.CONSTANT:
+			Value number = new Value();
+			number.constant = true;
+			number.constantReal = node.real;
+			number.constantImaginary = node.imaginary;
+			return number;
+		case FormulaParser.Z:
+			return variable(ZR, ZI);
+		case FormulaParser.C:
+			return variable(CR, CI);
+		}
+		String key = node.toString();
+		Value known = computed.get(key);
+		if(known != null){
+			return known;
+		}
+		Value a = value(node.left);
+		Value b = node.right == null ? null : value(node.right);
+		Value result;
+		switch(node.kind){
+		case FormulaParser.ADD:
+			result = store();
+			loadReal(a);
+			loadReal(b);
+			code.write(DADD);
+			local(DSTORE, result.real);
+			loadImaginary(a);
+			loadImaginary(b);
+			code.write(DADD);
+			local(DSTORE, result.imaginary);
+			break;
+		case FormulaParser.SUBTRACT:
+			result = store();
+			loadReal(a);
+			loadReal(b);
+			code.write(DSUB);
+			local(DSTORE, result.real);
+			loadImaginary(a);
+			loadImaginary(b);
+			code.write(DSUB);
+			local(DSTORE, result.imaginary);
+			break;
+		case FormulaParser.MULTIPLY:
+			result = multiply(a, b);
+			break;
+		case FormulaParser.DIVIDE:
+			result = divide(a, b);
+			break;
+		case FormulaParser.NEGATE:
+			result = store();
+			loadReal(a);
+			code.write(DNEG);
+			local(DSTORE, result.real);
+			loadImaginary(a);
+			code.write(DNEG);
+			local(DSTORE, result.imaginary);
+			break;
+		case FormulaParser.CONJUGATE:
+			result = new Value();
+			result.real = a.real;
+			result.imaginary = locals;
+			locals += 2;
+			loadImaginary(a);
+			code.write(DNEG);
+			local(DSTORE, result.imaginary);
+			break;
+		case FormulaParser.ABS:
+			int abs = methodEntry(classEntry("java/lang/Math"), "abs", "(D)D");
+			result = store();
+			loadReal(a);
+			code.write(INVOKESTATIC);
+			writeShort(abs);
+			local(DSTORE, result.real);
+			loadImaginary(a);
+			code.write(INVOKESTATIC);
+			writeShort(abs);
+			local(DSTORE, result.imaginary);
+			break;
+		default:
+			result = power(a, node.power);
+			break;
+		}
+		computed.put(key, result);
+		return result;
+	}
+
+	/**
+	 * Writes the code multiplying two values. A number is always on the left, and if it is
+	 * real or imaginary only two multiplications are needed rather than four.
+	 *
+	 * @param a The left value.
+	 * @param b The right value.
+	 * @return The product.
+	 */
+	private Value multiply(Value a, Value b){
+		Value result = store();
+		if(a.constant && a.constantImaginary == 0){
+			constant(a.constantReal);
+			loadReal(b);
+			code.write(DMUL);
+			local(DSTORE, result.real);
+			constant(a.constantReal);
+			loadImaginary(b);
+			code.write(DMUL);
+			local(DSTORE, result.imaginary);
+		}else if(a.constant && a.constantReal == 0){
+			//(0 + yi)(u + vi) = -yv + yui
+			constant(-a.constantImaginary);
+			loadImaginary(b);
+			code.write(DMUL);
+			local(DSTORE, result.real);
+			constant(a.constantImaginary);
+			loadReal(b);
+			code.write(DMUL);
+			local(DSTORE, result.imaginary);
+		}else{
+			loadReal(a);
+			loadReal(b);
+			code.write(DMUL);
+			loadImaginary(a);
+			loadImaginary(b);
+			code.write(DMUL);
+			code.write(DSUB);
+			local(DSTORE, result.real);
+			loadReal(a);
+			loadImaginary(b);
+			code.write(DMUL);
+			loadImaginary(a);
+			loadReal(b);
+			code.write(DMUL);
+			code.write(DADD);
+			local(DSTORE, result.imaginary);
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the code dividing one value by another.
+	 *
+	 * @param a The value divided.
+	 * @param b The value divided by.
+	 * @return The quotient.
+	 */
+	private Value divide(Value a, Value b){
+		int size = locals;
+		locals += 2;
+		loadReal(b);
+		loadReal(b);
+		code.write(DMUL);
+		loadImaginary(b);
+		loadImaginary(b);
+		code.write(DMUL);
+		code.write(DADD);
+		local(DSTORE, size);
+		Value result = store();
+		loadReal(a);
+		loadReal(b);
+		code.write(DMUL);
+		loadImaginary(a);
+		loadImaginary(b);
+		code.write(DMUL);
+		code.write(DADD);
+		local(DLOAD, size);
+		code.write(DDIV);
+		local(DSTORE, result.real);
+		loadImaginary(a);
+		loadReal(b);
+		code.write(DMUL);
+		loadReal(a);
+		loadImaginary(b);
+		code.write(DMUL);
+		code.write(DSUB);
+		local(DLOAD, size);
+		code.write(DDIV);
+		local(DSTORE, result.imaginary);
+		return result;
+	}
+
+	/**
+	 * Writes the code raising a value to a whole number power by repeated squaring, in the
+	 * same order as {@link Kernel} so z^d + c gives exactly the same images as the built in
+	 * Multibrot sets.
+	 *
+	 * @param base The value.
+	 * @param power The power, at least 2.
+	 * @return The value raised to the power.
+	 */
+	private Value power(Value base, int power){
+		Value result = null;
+		for(int n = power; n > 0; n >>= 1){
+			if((n & 1) != 0){
+				result = result == null ? base : multiply(result, base);
+			}
+			if(n > 1){
+				base = square(base);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Writes the code squaring a value, (x + yi)^2 = x^2 - y^2 + 2xyi.
+	 *
+	 * @param a The value.
+	 * @return The square.
+	 */
+	private Value square(Value a){
+		Value result = store();
+		loadReal(a);
+		loadReal(a);
+		code.write(DMUL);
+		loadImaginary(a);
+		loadImaginary(a);
+		code.write(DMUL);
+		code.write(DSUB);
+		local(DSTORE, result.real);
+		loadReal(a);
+		loadImaginary(a);
+		code.write(DMUL);
+		loadReal(a);
+		loadImaginary(a);
+		code.write(DMUL);
+		code.write(DADD);
+		local(DSTORE, result.imaginary);
+		return result;
+	}
+
+	/**
+	 * Creates a value held in the given local variables.
+	 *
+	 * @param real The local variable of the real part.
+	 * @param imaginary The local variable of the imaginary part.
+	 * @return The value.
+	 */
+	private Value variable(int real, int imaginary){
+		Value value = new Value();
+		value.real = real;
+		value.imaginary = imaginary;
+		return value;
+	}
+
+	/**
+	 * Takes two new pairs of local variables for a value worked out by the formula.
+	 *
+	 * @return The value.
+	 */
+	private Value store(){
+		Value value = variable(locals, locals + 2);
+		locals += 4;
+		return value;
+	}
+
+	/**
+	 * Writes the code putting the real part of a value on the stack.
+	 *
+	 * @param value The value.
+	 */
+	private void loadReal(Value value){
+		if(value.constant){
+			constant(value.constantReal);
+		}else{
+			local(DLOAD, value.real);
+		}
+	}
+
+	/**
+	 * Writes the code putting the imaginary part of a value on the stack.
+	 *
+	 * @param value The value.
+	 */
+	private void loadImaginary(Value value){
+		if(value.constant){
+			constant(value.constantImaginary);
+		}else{
+			local(DLOAD, value.imaginary);
+		}
+	}
+
+	/**
+	 * Writes the code putting zr*zr + zi*zi on the stack.
+	 */
+	private void modulusSquared(){
+		local(DLOAD, ZR);
+		local(DLOAD, ZR);
+		code.write(DMUL);
+		local(DLOAD, ZI);
+		local(DLOAD, ZI);
+		code.write(DMUL);
+		code.write(DADD);
+	}
+
+	/**
+	 * Writes the code putting a number on the stack.
+	 *
+	 * @param number The number.
+	 */
+	private void constant(double number){
+		if(Double.doubleToRawLongBits(number) == 0){
+			code.write(DCONST_0);
+		}else if(number == 1){
+			code.write(DCONST_1);
+		}else{
+			code.write(LDC2_W);
+			writeShort(doubleEntry(number));
+		}
+	}
+
+	/**
+	 * Writes an instruction on a local variable, widened if the variable needs it.
+	 *
+	 * @param opcode The instruction.
+	 * @param local The local variable.
+	 */
+	private void local(int opcode, int local){
+		if(local > 255){
+			code.write(WIDE);
+			code.write(opcode);
+			writeShort(local);
+		}else{
+			code.write(opcode);
+			code.write(local);
+		}
+	}
+
+	/**
+	 * Writes two bytes of code.
+	 *
+	 * @param value The two bytes.
+	 */
+	private void writeShort(int value){
+		code.write(value >> 8);
+		code.write(value);
+	}
+
+	/**
+	 * Fills in the offset of a forward jump once its target is known.
+	 *
+	 * @param bytes The code.
+	 * @param jump The position of the jump.
+	 * @param target The position it jumps to.
+	 */
+	private static void patch(byte[] bytes, int jump, int target){
+		int offset = target - jump;
+		bytes[jump + 1] = (byte) (offset >> 8);
+		bytes[jump + 2] = (byte) offset;
+	}
+
+	/**
+	 * Adds a piece of text to the constant pool.
+	 *
+	 * @param text The text.
+	 * @return The number of the entry.
+	 */
+	private int utf8(String text){
+		Integer known = entries.get("utf8 " + text);
+		if(known != null){
+			return known;
+		}
+		DataOutputStream out = new DataOutputStream(pool);
+		try {
+			out.writeByte(1);
+			out.writeUTF(text);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+		entries.put("utf8 " + text, poolSize);
+		return poolSize++;
+	}
+
+	/**
+	 * Adds a class to the constant pool.
+	 *
+	 * @param name The internal name of the class.
+	 * @return The number of the entry.
+	 */
+	private int classEntry(String name){
+		Integer known = entries.get("class " + name);
+		if(known != null){
+			return known;
+		}
+		int text = utf8(name);
+		pool.write(7);
+		pool.write(text >> 8);
+		pool.write(text);
+		entries.put("class " + name, poolSize);
+		return poolSize++;
+	}
+
+	/**
+	 * Adds a method of a class to the constant pool.
+	 *
+	 * @param owner The constant pool entry of the class.
+	 * @param name The name of the method.
+	 * @param type The descriptor of the method.
+	 * @return The number of the entry.
+	 */
+	private int methodEntry(int owner, String name, String type){
+		String key = "method " + owner + " " + name + type;
+		Integer known = entries.get(key);
+		if(known != null){
+			return known;
+		}
+		int nameEntry = utf8(name);
+		int typeEntry = utf8(type);
+		pool.write(12);
+		pool.write(nameEntry >> 8);
+		pool.write(nameEntry);
+		pool.write(typeEntry >> 8);
+		pool.write(typeEntry);
+		int nameAndType = poolSize++;
+		pool.write(10);
+		pool.write(owner >> 8);
+		pool.write(owner);
+		pool.write(nameAndType >> 8);
+		pool.write(nameAndType);
+		entries.put(key, poolSize);
+		return poolSize++;
+	}
+
+	/**
+	 * Adds a double to the constant pool, which takes up two entries.
+	 *
+	 * @param number The number.
+	 * @return The number of the entry.
+	 */
+	private int doubleEntry(double number){
+		long bits = Double.doubleToRawLongBits(number);
+		Integer known = entries.get("double " + bits);
+		if(known != null){
+			return known;
+		}
+		pool.write(6);
+		for(int shift = 56; shift >= 0; shift -= 8){
+			pool.write((int) (bits >> shift));
+		}
+		entries.put("double " + bits, poolSize);
+		int entry = poolSize;
+		poolSize += 2;
+		return entry;
+	}
+
+	/**
+	 * Loads the classes of compiled formulas, each with its own loader so it can be
+	 * unloaded once the formula isn't used any more.
+	 *
+	 * @author Daniel
+	 *
+	 */
+	private static class Loader extends ClassLoader {
+		/**
+		 * Creates a loader which finds {@link Formula} through the loader of this program.
+		 */
+		Loader(){
+			super(FormulaCompiler.class.getClassLoader());
+		}
+
+		/**
+		 * Defines a compiled class.
+		 *
+		 * @param name The name of the class.
+		 * @param bytes The class file.
+		 * @return The class.
+		 */
+		Class<?> define(String name, byte[] bytes){
+			return defineClass(name, bytes, 0, bytes.length);
+		}
+	}
+}
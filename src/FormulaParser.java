@@ -0,0 +1,544 @@
+import java.util.Locale;
+
+
+/**
+ * Turns the text of a formula into a tree of complex operations, simplifying it as it
+ * goes. The formula can use z, c, the imaginary unit i, numbers, + - * / and ^ with a
+ * whole number power, brackets, and the functions conj and abs, where abs takes the size
+ * of the real and imaginary parts separately, giving |x| + |y|i. The burning ship squares
+ * (|x|, -|y|), so it is written conj(abs(z))^2 + c. A number or bracket written straight
+ * after another, as in 2z or 0.5i, is multiplied by it.
+ * <p>
+ * Parts of the formula which are only numbers are worked out once here, and operations
+ * which do nothing, such as adding 0 or raising to the power 1, are taken out.
+ *
+ * @author Daniel
+ *
+ */
+public class FormulaParser {
+
+	/**
+	 * The highest power allowed, so a typing mistake can't make a huge formula.
+	 */
+	private static final int MAX_POWER = 64;
+
+	/**
+	 * The kinds of node in the tree.
+	 */
+	static final int CONSTANT = 0, Z = 1, C = 2, ADD = 3, SUBTRACT = 4, MULTIPLY = 5, DIVIDE = 6,
+			NEGATE = 7, CONJUGATE = 8, ABS = 9, POWER = 10;
+
+	/**
+	 * One operation of a formula, or a number, z or c.
+	 *
+	 * @author Daniel
+	 *
+	 */
+	static class Node {
+		/**
+		 * The kind of node.
+		 */
+		final int kind;
+		/**
+		 * The operands, or null if the node doesn't have them.
+		 */
+		final Node left, right;
+		/**
+		 * The value of a constant.
+		 */
+		final double real, imaginary;
+		/**
+		 * The power of a power node.
+		 */
+		final int power;
+
+		/**
+		 * Creates an operation.
+		 *
+		 * @param kind The kind of node.
+		 * @param left The first operand.
+		 * @param right The second operand, or null.
+		 * @param power The power of a power node.
+		 */
+		Node(int kind, Node left, Node right, int power){
+			this.kind = kind;
+			this.left = left;
+			this.right = right;
+			this.power = power;
+			real = 0;
+			imaginary = 0;
+		}
+
+		/**
+		 * Creates a constant, or z or c if the kind is given.
+		 *
+		 * @param kind The kind of node.
+		 * @param real The real part of a constant.
+		 * @param imaginary The imaginary part of a constant.
+		 */
+		Node(int kind, double real, double imaginary){
+			this.kind = kind;
+			this.real = real;
+			this.imaginary = imaginary;
+			left = null;
+			right = null;
+			power = 0;
+		}
+
+		/**
+		 * Checks whether the node is the given constant.
+		 *
+		 * @param real The real part.
+		 * @param imaginary The imaginary part.
+		 * @return True if the node is that constant.
+		 */
+		boolean is(double real, double imaginary){
+			return kind == CONSTANT && this.real == real && this.imaginary == imaginary;
+		}
+
+		/**
+		 * Returns the power of z in the part of the formula below the node.
+		 *
+		 * @return The degree.
+		 */
+		int degree(){
+			switch(kind){
+			case Z:
+				return 1;
+			case ADD:
+			case SUBTRACT:
+				return Math.max(left.degree(), right.degree());
+			case MULTIPLY:
+				return left.degree() + right.degree();
+			case DIVIDE:
+				return Math.max(0, left.degree() - right.degree());
+			case NEGATE:
+			case CONJUGATE:
+			case ABS:
+				return left.degree();
+			case POWER:
+				return left.degree()*power;
+			default:
+				return 0;
+			}
+		}
+
+		/**
+		 * Checks whether the part of the formula below the node gives the conjugate of its
+		 * result for the conjugates of z and c.
+		 *
+		 * @return True if it is symmetric.
+		 */
+		boolean isSymmetric(){
+			if(kind == CONSTANT){
+				return imaginary == 0;
+			}
+			if(kind == ABS){
+				return false;
+			}
+			return (left == null || left.isSymmetric()) && (right == null || right.isSymmetric());
+		}
+
+		/**
+		 * Writes the node out in full, so two nodes with the same text work out the same value.
+		 *
+		 * @see java.lang.Object#toString()
+		 */
+		@Override
+		public String toString(){
+			switch(kind){
+			case CONSTANT:
+				return "(" + real + "," + imaginary + ")";
+			case Z:
+				return "z";
+			case C:
+				return "c";
+			case ADD:
+				return "(" + left + "+" + right + ")";
+			case SUBTRACT:
+				return "(" + left + "-" + right + ")";
+			case MULTIPLY:
+				return "(" + left + "*" + right + ")";
+			case DIVIDE:
+				return "(" + left + "/" + right + ")";
+			case NEGATE:
+				return "-" + left;
+			case CONJUGATE:
+				return "conj" + left;
+			case ABS:
+				return "abs" + left;
+			default:
+				return "(" + left + "^" + power + ")";
+			}
+		}
+	}
+
+	/**
+	 * The formula being parsed, in lower case.
+	 */
+	private String text;
+	/**
+	 * The position of the next character to read.
+	 */
+	private int position;
+
+	/**
+	 * Creates a parser for a formula.
+	 *
+	 * @param text The formula.
+	 */
+	private FormulaParser(String text){
+		this.text = text.toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Parses and simplifies a formula.
+	 *
+	 * @param text The formula.
+	 * @return The tree of the formula.
+	 * @throws IllegalArgumentException If the formula can't be understood.
+	 */
+	public static Node parse(String text){
+		FormulaParser parser = new FormulaParser(text);
+		Node formula = parser.sum();
+		parser.skipSpaces();
+		if(parser.position < parser.text.length()){
+			throw parser.error("Unexpected '" + parser.text.charAt(parser.position) + "'");
+		}
+		return formula;
+	}
+
+	/**
+	 * Parses terms added to or taken from each other.
+	 *
+	 * @return The tree of the sum.
+	 */
+	private Node sum(){
+		Node sum = term();
+		while(true){
+			if(take('+')){
+				sum = simplify(new Node(ADD, sum, term(), 0));
+			}else if(take('-')){
+				sum = simplify(new Node(SUBTRACT, sum, term(), 0));
+			}else{
+				return sum;
+			}
+		}
+	}
+
+	/**
+	 * Parses factors multiplied or divided by each other, including factors written
+	 * straight after each other.
+	 *
+	 * @return The tree of the term.
+	 */
+	private Node term(){
+		Node term = unary();
+		while(true){
+			if(take('*')){
+				term = simplify(new Node(MULTIPLY, term, unary(), 0));
+			}else if(take('/')){
+				term = simplify(new Node(DIVIDE, term, unary(), 0));
+			}else if(startsFactor()){
+				term = simplify(new Node(MULTIPLY, term, power(), 0));
+			}else{
+				return term;
+			}
+		}
+	}
+
+	/**
+	 * Parses a factor which may be negated.
+	 *
+	 * @return The tree of the factor.
+	 */
+	private Node unary(){
+		if(take('-')){
+			return simplify(new Node(NEGATE, unary(), null, 0));
+		}
+		take('+');
+		return power();
+	}
+
+	/**
+	 * Parses a factor which may be raised to a whole number power. A negative power
+	 * divides 1 by the positive power.
+	 *
+	 * @return The tree of the factor.
+	 */
+	private Node power(){
+		Node base = primary();
+		if(!take('^')){
+			return base;
+		}
+		int start = position;
+		Node exponent = unary();
+		if(exponent.kind != CONSTANT || exponent.imaginary != 0 || exponent.real != Math.rint(exponent.real)
+				|| Math.abs(exponent.real) > MAX_POWER){
+			position = start;
+			throw error("Powers must be whole numbers up to " + MAX_POWER);
+		}
+		int power = (int) exponent.real;
+		Node raised = simplify(new Node(POWER, base, null, Math.abs(power)));
+		return power < 0 ? simplify(new Node(DIVIDE, new Node(CONSTANT, 1, 0), raised, 0)) : raised;
+	}
+
+	/**
+	 * Parses a number, z, c, i, a function or a bracketed sum.
+	 *
+	 * @return The tree of the factor.
+	 */
+	private Node primary(){
+		skipSpaces();
+		if(position == text.length()){
+			throw error("Unexpected end of formula");
+		}
+		char next = text.charAt(position);
+		if(Character.isDigit(next) || next == '.'){
+			return number();
+		}
+		if(take('(')){
+			Node inside = sum();
+			if(!take(')')){
+				throw error("Missing ')'");
+			}
+			return inside;
+		}
+		int start = position;
+		while(position < text.length() && Character.isLetter(text.charAt(position))){
+			position++;
+		}
+		String name = text.substring(start, position);
+		switch(name){
+		case "z":
+			return new Node(Z, 0, 0);
+		case "c":
+			return new Node(C, 0, 0);
+		case "i":
+			return new Node(CONSTANT, 0, 1);
+		case "conj":
+		case "abs":
+			if(!take('(')){
+				throw error("Missing '(' after " + name);
+			}
+			Node argument = sum();
+			if(!take(')')){
+				throw error("Missing ')'");
+			}
+			return simplify(new Node(name.equals("conj") ? CONJUGATE : ABS, argument, null, 0));
+		default:
+			position = start;
+			throw error(name.isEmpty() ? "Unexpected '" + next + "'" : "Unknown name '" + name + "'");
+		}
+	}
+
+	/**
+	 * Parses a real number, with an optional exponent.
+	 *
+	 * @return The constant.
+	 */
+	private Node number(){
+		int start = position;
+		while(position < text.length() && (Character.isDigit(text.charAt(position)) || text.charAt(position) == '.')){
+			position++;
+		}
+		if(position < text.length() && text.charAt(position) == 'e' && position + 1 < text.length()
+				&& (Character.isDigit(text.charAt(position + 1)) || text.charAt(position + 1) == '-' || text.charAt(position + 1) == '+')){
+			position += 2;
+			while(position < text.length() && Character.isDigit(text.charAt(position))){
+				position++;
+			}
+		}
+		try {
+			return new Node(CONSTANT, Double.parseDouble(text.substring(start, position)), 0);
+		} catch (NumberFormatException e) {
+			position = start;
+			throw error("Bad number");
+		}
+	}
+
+	/**
+	 * Checks whether the next character starts a factor which is multiplied by the one
+	 * before it without a *.
+	 *
+	 * @return True if a factor follows.
+	 */
+	private boolean startsFactor(){
+		skipSpaces();
+		if(position == text.length()){
+			return false;
+		}
+		char next = text.charAt(position);
+		return Character.isLetterOrDigit(next) || next == '.' || next == '(';
+	}
+
+	/**
+	 * Moves past the given character if it is next, ignoring spaces.
+	 *
+	 * @param expected The character.
+	 * @return True if it was next.
+	 */
+	private boolean take(char expected){
+		skipSpaces();
+		if(position < text.length() && text.charAt(position) == expected){
+			position++;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Moves past any spaces.
+	 */
+	private void skipSpaces(){
+		while(position < text.length() && Character.isWhitespace(text.charAt(position))){
+			position++;
+		}
+	}
+
+	/**
+	 * Creates the error for a formula which can't be understood, saying where.
+	 *
+	 * @param message What is wrong.
+	 * @return The error.
+	 */
+	private IllegalArgumentException error(String message){
+		return new IllegalArgumentException(message + " at position " + (position + 1));
+	}
+
+	/**
+	 * Works out a node whose operands are all numbers, and takes out operations which do
+	 * nothing.
+	 *
+	 * @param node The node, whose operands are already simplified.
+	 * @return The simplified node.
+	 */
+	private static Node simplify(Node node){
+		Node left = node.left;
+		Node right = node.right;
+		if(left != null && left.kind == CONSTANT && (right == null || right.kind == CONSTANT)){
+			return evaluate(node);
+		}
+		switch(node.kind){
+		case ADD:
+			if(left.is(0, 0)){
+				return right;
+			}
+			if(right.is(0, 0)){
+				return left;
+			}
+			if(right.kind == NEGATE){
+				return new Node(SUBTRACT, left, right.left, 0);
+			}
+			break;
+		case SUBTRACT:
+			if(right.is(0, 0)){
+				return left;
+			}
+			if(left.is(0, 0)){
+				return simplify(new Node(NEGATE, right, null, 0));
+			}
+			if(right.kind == NEGATE){
+				return new Node(ADD, left, right.left, 0);
+			}
+			break;
+		case MULTIPLY:
+			if(left.is(1, 0)){
+				return right;
+			}
+			if(right.is(1, 0)){
+				return left;
+			}
+			if(left.is(-1, 0)){
+				return simplify(new Node(NEGATE, right, null, 0));
+			}
+			if(right.is(-1, 0)){
+				return simplify(new Node(NEGATE, left, null, 0));
+			}
+			if(left.is(0, 0) || right.is(0, 0)){
+				return new Node(CONSTANT, 0, 0);
+			}
+			if(left.kind != CONSTANT && right.kind == CONSTANT){
+				//keeps constants on the left, so the compiler only has to look there
+				return new Node(MULTIPLY, right, left, 0);
+			}
+			break;
+		case DIVIDE:
+			if(right.is(1, 0)){
+				return left;
+			}
+			if(right.kind == CONSTANT && !right.is(0, 0)){
+				//dividing by a number is the same as multiplying by its reciprocal
+				double size = right.real*right.real + right.imaginary*right.imaginary;
+				return simplify(new Node(MULTIPLY, new Node(CONSTANT, right.real/size, -right.imaginary/size), left, 0));
+			}
+			break;
+		case NEGATE:
+			if(left.kind == NEGATE){
+				return left.left;
+			}
+			break;
+		case CONJUGATE:
+			if(left.kind == CONJUGATE){
+				return left.left;
+			}
+			break;
+		case ABS:
+			if(left.kind == ABS){
+				return left;
+			}
+			break;
+		case POWER:
+			if(node.power == 0){
+				return new Node(CONSTANT, 1, 0);
+			}
+			if(node.power == 1){
+				return left;
+			}
+			if(left.kind == POWER){
+				return simplify(new Node(POWER, left.left, null, left.power*node.power));
+			}
+			break;
+		}
+		return node;
+	}
+
+	/**
+	 * Works out a node whose operands are all numbers.
+	 *
+	 * @param node The node.
+	 * @return The constant it comes to.
+	 */
+	private static Node evaluate(Node node){
+		double ar = node.left.real;
+		double ai = node.left.imaginary;
+		double br = node.right == null ? 0 : node.right.real;
+		double bi = node.right == null ? 0 : node.right.imaginary;
+		switch(node.kind){
+		case ADD:
+			return new Node(CONSTANT, ar + br, ai + bi);
+		case SUBTRACT:
+			return new Node(CONSTANT, ar - br, ai - bi);
+		case MULTIPLY:
+			return new Node(CONSTANT, ar*br - ai*bi, ar*bi + ai*br);
+		case DIVIDE:
+			double size = br*br + bi*bi;
+			return new Node(CONSTANT, (ar*br + ai*bi)/size, (ai*br - ar*bi)/size);
+		case NEGATE:
+			return new Node(CONSTANT, -ar, -ai);
+		case CONJUGATE:
+			return new Node(CONSTANT, ar, -ai);
+		case ABS:
+			return new Node(CONSTANT, Math.abs(ar), Math.abs(ai));
+		default:
+			double rr = 1;
+			double ri = 0;
+			for(int n = 0; n < node.power; n++){
+				double temp = rr*ar - ri*ai;
+				ri = rr*ai + ri*ar;
+				rr = temp;
+			}
+			return new Node(CONSTANT, rr, ri);
+		}
+	}
+}
@@ -1,9 +1,11 @@
 import java.awt.BorderLayout;
+import java.awt.Component;
 import java.awt.Dimension;
 import java.awt.Font;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.GridLayout;
+import java.awt.Image;
 import java.awt.Toolkit;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
@@ -14,17 +16,31 @@ import java.awt.event.KeyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseMotionAdapter;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
+import java.beans.PropertyChangeEvent;
+import java.beans.PropertyChangeListener;
+import java.io.BufferedReader;
 import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.text.DecimalFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
 
-import javax.imageio.ImageIO;
 import javax.swing.ButtonGroup;
+import javax.swing.DefaultListCellRenderer;
 import javax.swing.DefaultListModel;
 import javax.swing.JButton;
 import javax.swing.JCheckBoxMenuItem;
+import javax.swing.JFileChooser;
 import javax.swing.JFormattedTextField;
+import javax.swing.ImageIcon;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JList;
@@ -33,11 +49,13 @@ import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.JProgressBar;
 import javax.swing.JRadioButtonMenuItem;
 import javax.swing.JScrollPane;
 import javax.swing.JTextField;
 import javax.swing.ListSelectionModel;
 import javax.swing.SwingConstants;
+import javax.swing.SwingUtilities;
 import javax.swing.SwingWorker;
 import javax.swing.event.ListSelectionEvent;
 import javax.swing.event.ListSelectionListener;
@@ -53,6 +71,18 @@ import javax.swing.event.ListSelectionListener;
 @SuppressWarnings("serial")
 public class FractalFrame extends JFrame {
 	
+	/**
+	 * The directory the favourites and other saved settings are kept in.
+	 */
+	static final File SETTINGS = new File(System.getProperty("user.home"), ".fractal");
+	/**
+	 * The file the image being shown is saved to on closing, to be shown straight away next time.
+	 */
+	private static final File VIEW = new File(SETTINGS, "view.bin");
+	/**
+	 * The most pixels a Julia atlas can have, so asking for a huge grid can't run out of memory.
+	 */
+	private static final long ATLAS_PIXELS = 1 << 23;
 	/**
 	 * The JPanel holding the list of user added favourites.
 	 */
@@ -73,10 +103,58 @@ public class FractalFrame extends JFrame {
 	 * Button which resets everything on screen back to default.
 	 */
 	private JButton reset;
+	/**
+	 * The images waiting to be saved.
+	 */
+	private ExportQueue exports;
+	/**
+	 * Shows how far through the images being saved are, only while there are any.
+	 */
+	private JProgressBar exportProgress;
+	/**
+	 * The folder images were last saved in.
+	 */
+	private File exportDirectory;
 	/**
 	 * Holds whether the julia set will autoupdate or not.
 	 */
 	private boolean autoUpdate;
+	/**
+	 * Holds whether the fractal and julia sets are coloured smoothly.
+	 */
+	private boolean smoothColouring;
+	/**
+	 * Holds whether the colours are spread evenly over the distribution of iterations.
+	 */
+	private boolean equalisedColouring;
+	/**
+	 * The palette used to colour the fractal and julia sets.
+	 */
+	private Palette palette;
+	/**
+	 * Holds whether the edges of the fractal and julia sets are anti-aliased.
+	 */
+	private boolean antiAliasing;
+	/**
+	 * Holds whether shallow views of the fractal and julia sets are iterated in single precision.
+	 */
+	private boolean fastShallow;
+	/**
+	 * Holds whether the interior of the fractal and julia sets is found early from the derivative.
+	 */
+	private boolean interiorChecking;
+	/**
+	 * The shape of the orbit trap the fractal and julia sets are coloured by, or -1 for none.
+	 */
+	private int trapShape;
+	/**
+	 * How the fractal and julia sets are shaded by the orbit trap.
+	 */
+	private int trapShading;
+	/**
+	 * The last Buddhabrot rendered, or null if there hasn't been one.
+	 */
+	private volatile BufferedImage buddhabrot;
 	/**
 	 * The Panel containing the list of julia sets added to favourites.
 	 */
@@ -107,6 +185,15 @@ public class FractalFrame extends JFrame {
 	public FractalFrame(String title){
 		super(title);
 		autoUpdate = false;
+		smoothColouring = false;
+		equalisedColouring = false;
+		palette = Palette.fire();
+		antiAliasing = false;
+		fastShallow = false;
+		interiorChecking = false;
+		trapShape = -1;
+		trapShading = Palette.TRAP;
+		exportDirectory = new File(System.getProperty("user.dir"));
 		fractalFrame = this;
 		dimensions = Toolkit.getDefaultToolkit().getScreenSize();
 	}
@@ -126,16 +213,34 @@ public class FractalFrame extends JFrame {
 		this.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		this.setResizable(false);
 		
+		panel = new FractalPanel();
+		//shows the view from when the program was last closed straight away, before the menu shows its type
+		panel.loadView(VIEW);
+		
 		//creates the menu at the top
 		MyMenu menu = new MyMenu();
 		menu.init();
 		this.setJMenuBar(menu);
 		final JPanel main = new JPanel(new BorderLayout());
 		this.setContentPane(main);
-		
-		panel = new FractalPanel();
 		main.add(panel, BorderLayout.CENTER);
 		
+		this.addWindowListener(new WindowAdapter(){
+			/*
+			 * Saves the image being shown so it can be shown straight away next time.
+			 */
+			@Override
+			public void windowClosing(WindowEvent e){
+				SETTINGS.mkdirs();
+				try {
+					panel.saveView(VIEW);
+				} catch (IOException ex) {
+					//the default view is just rendered next time instead
+					VIEW.delete();
+				}
+			}
+		});
+		
 		//sets up the favourites side panel
 		favourites = new JPanel(new BorderLayout());
 		main.add(favourites, BorderLayout.EAST);
@@ -174,6 +279,7 @@ public class FractalFrame extends JFrame {
 					juliaSet.setTitle("Julia Set for " + selectedPoint.toString());
 					if(julia == null){
 						julia = new JuliaPanel(selectedPoint, panel.getFractalType());
+						copyOptions(julia);
 						juliaSet.setContentPane(julia);
 					}else{
 						julia.setC(selectedPoint);
@@ -196,7 +302,7 @@ public class FractalFrame extends JFrame {
 		 */
 		labelSection = new JPanel(new GridLayout(2, 1));
 		JPanel upperLabelSection = new JPanel(new GridBagLayout());
-		JPanel lowerLabelSection = new JPanel(new GridLayout(1, 2));
+		JPanel lowerLabelSection = new JPanel(new GridLayout(1, 3));
 		labelSection.add(upperLabelSection);
 		labelSection.add(lowerLabelSection);
 		GridBagConstraints c = new GridBagConstraints();
@@ -252,6 +358,7 @@ public class FractalFrame extends JFrame {
 				juliaSet.setTitle("Julia Set for " + selectedPoint.toString());
 				if(julia == null){
 					julia = new JuliaPanel(selectedPoint, panel.getFractalType());
+					copyOptions(julia);
 					juliaSet.setContentPane(julia);
 				}else{
 					julia.setC(selectedPoint);
@@ -337,17 +444,130 @@ public class FractalFrame extends JFrame {
 		
 		lowerLabelSection.add(change);
 		lowerLabelSection.add(reset);
+		exportProgress = new JProgressBar(0, 100);
+		exportProgress.setStringPainted(true);
+		exportProgress.setVisible(false);
+		lowerLabelSection.add(exportProgress);
+		exports = new ExportQueue(new ExportQueue.Listener(){
+			/*
+			 * Shows the progress of the images being saved, hiding it once they are all saved.
+			 */
+			@Override
+			public void changed() {
+				SwingUtilities.invokeLater(new Runnable(){
+					@Override
+					public void run() {
+						exportProgress.setVisible(exports.isBusy());
+						exportProgress.setValue(exports.getPercent());
+						exportProgress.setString(exports.toString());
+					}
+				});
+			}
+
+			/*
+			 * Shows a pop-up error message naming the image which couldn't be saved.
+			 */
+			@Override
+			public void failed(final File file, Exception e) {
+				SwingUtilities.invokeLater(new Runnable(){
+					@Override
+					public void run() {
+						JOptionPane.showMessageDialog(fractalFrame, "Error creating image " + file.getName() + "!");
+					}
+				});
+			}
+		});
 		
 		
 		//sets the upper and lower limits of what is seen on screen
-		realAxisLower.setValue(-2);
-		realAxisUpper.setValue(2);
-		imaginaryAxisLower.setValue(-1.6);
-		imaginaryAxisUpper.setValue(1.6);
-		iterations.setText("100");		
+		Complex centre = panel.getCentre();
+		realAxisLower.setValue(centre.getReal() - panel.getRealAxis()/2);
+		realAxisUpper.setValue(centre.getReal() + panel.getRealAxis()/2);
+		imaginaryAxisLower.setValue(centre.getImaginary() - panel.getImaginaryAxis()/2);
+		imaginaryAxisUpper.setValue(centre.getImaginary() + panel.getImaginaryAxis()/2);
+		iterations.setText(String.valueOf(panel.getMax()));		
+		panel.addPropertyChangeListener("max", new PropertyChangeListener(){
+			/*
+			 * Shows the maximum number of iterations picked for the view.
+			 */
+			@Override
+			public void propertyChange(PropertyChangeEvent evt) {
+				iterations.setText(String.valueOf(evt.getNewValue()));
+			}
+		});
 		this.setVisible(true);
 	}
 	
+	/**
+	 * Sets the given julia panel to use the colouring and anti-aliasing options
+	 * currently selected, and the power of the Multibrot set being shown.
+	 * 
+	 * @param julia The julia panel to update.
+	 */
+	private void copyOptions(JuliaPanel julia){
+		julia.setSmooth(smoothColouring);
+		julia.setEqualised(equalisedColouring);
+		julia.setPalette(palette);
+		julia.setAntiAlias(antiAliasing);
+		julia.setFastShallow(fastShallow);
+		julia.setInteriorCheck(interiorChecking);
+		julia.setTrapShape(trapShape);
+		julia.setTrapShading(trapShading);
+		julia.setPower(panel.getPower());
+		julia.setFormula(panel.getFormula());
+	}
+	
+	/**
+	 * Asks the user where to save an image, starting in the folder the last one was saved in.
+	 * The extension of the suggested name is added if the name chosen doesn't end with it,
+	 * and replacing a file which already exists has to be confirmed.
+	 * 
+	 * @param name The file name suggested, with the extension of the format.
+	 * @return The file chosen, or null if the user cancelled.
+	 */
+	private File chooseFile(String name){
+		JFileChooser chooser = new JFileChooser(exportDirectory);
+		chooser.setSelectedFile(new File(exportDirectory, name));
+		if(chooser.showSaveDialog(fractalFrame) != JFileChooser.APPROVE_OPTION){
+			return null;
+		}
+		File file = chooser.getSelectedFile();
+		String extension = name.substring(name.lastIndexOf('.'));
+		if(!file.getName().toLowerCase(Locale.ROOT).endsWith(extension)){
+			file = new File(file.getPath() + extension);
+		}
+		if(file.exists() && JOptionPane.showConfirmDialog(fractalFrame, file.getName() + " already exists. Replace it?", "Save",
+				JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION){
+			return null;
+		}
+		exportDirectory = file.getParentFile();
+		return file;
+	}
+	
+	/**
+	 * Asks the user for a folder to save a set of images in, starting in the folder the last
+	 * one was saved in. Saving into a folder which already has files in it has to be confirmed.
+	 * 
+	 * @param name The folder name suggested.
+	 * @return The folder chosen, or null if the user cancelled.
+	 */
+	private File chooseDirectory(String name){
+		JFileChooser chooser = new JFileChooser(exportDirectory);
+		chooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+		chooser.setSelectedFile(new File(exportDirectory, name));
+		if(chooser.showSaveDialog(fractalFrame) != JFileChooser.APPROVE_OPTION){
+			return null;
+		}
+		File directory = chooser.getSelectedFile();
+		String[] existing = directory.list();
+		if(existing != null && existing.length > 0 && JOptionPane.showConfirmDialog(fractalFrame, directory.getName()
+				+ " already has files in it. Save into it anyway?", "Save", JOptionPane.YES_NO_OPTION) != JOptionPane.YES_OPTION){
+			return null;
+		}
+		exportDirectory = directory.getParentFile();
+		return directory;
+	}
+	
 	/**
 	 * Limits the characters which can be entered to only digits, minus sign and a decimal point.
 	 * 
@@ -401,17 +621,26 @@ public class FractalFrame extends JFrame {
 		 */
 		private JList<Complex> list;
 	    private DefaultListModel<Complex> favourite;
+	    /**
+	     * The cache of thumbnails shown next to each favourite.
+	     */
+	    private Thumbnails thumbnails;
+	    /**
+	     * The file the favourites are saved in.
+	     */
+	    private File file;
 		
 		/**
-		 * Creates the panel and adds a list to hold all the favourites.
-		 * Also creates a listener to allow favourites to be viewed.
-		 * 
-		 * @param julia The JFrame where favourites are to be displayed when
-		 * 		  selected.
+		 * Creates the panel and adds a list to hold all the favourites, loading
+		 * any favourites saved last time. Also creates a listener to allow
+		 * favourites to be viewed.
 		 */
 		public Favourites(){
 			super(new BorderLayout());
 			favourite = new DefaultListModel<Complex>();
+			thumbnails = new Thumbnails(new File(SETTINGS, "thumbnails"));
+			file = new File(SETTINGS, "favourites.txt");
+			load();
 			
 			//Create the list and put it in a scroll pane.
 	        list = new JList<Complex>(favourite);
@@ -419,6 +648,7 @@ public class FractalFrame extends JFrame {
 	        list.setSelectedIndex(0);
 	        list.addListSelectionListener(this);
 	        list.setVisibleRowCount(5);
+	        list.setCellRenderer(new ThumbnailRenderer());
 	        JScrollPane listScrollPane = new JScrollPane(list);
 	        
 	        add(listScrollPane, BorderLayout.CENTER);
@@ -426,7 +656,8 @@ public class FractalFrame extends JFrame {
 	        list.addMouseListener(new MouseAdapter(){
 
 				/* 
-				 * Shows the julia set when a favourite complex number is clicked.
+				 * Shows the julia set when a favourite complex number is clicked, showing
+				 * its thumbnail straight away while the full julia set is rendered.
 				 */
 				@Override
 				public void mouseClicked(MouseEvent arg0) {
@@ -436,10 +667,13 @@ public class FractalFrame extends JFrame {
 						juliaSet.setTitle("Julia Set for " + constant.toString());
 						if(julia == null){
 							julia = new JuliaPanel(constant, panel.getFractalType());
+							copyOptions(julia);
+							julia.setPreview(thumbnail(constant));
 							juliaSet.setContentPane(julia);
 							
 						}else{
 							julia.setC(constant);
+							julia.setPreview(thumbnail(constant));
 							julia.repaint();
 						}
 						if(dimensions.getWidth()>=1366){
@@ -465,6 +699,79 @@ public class FractalFrame extends JFrame {
 		public void addFavourite(Complex c){
 			if(!exists(c)){
 				favourite.addElement(c);
+				save();
+			}
+		}
+		
+		/**
+		 * Returns the thumbnail of the julia set for a favourite using the current
+		 * fractal type, queueing it to be rendered if it isn't cached yet.
+		 * 
+		 * @param c The favourite complex number.
+		 * @return The thumbnail, or null if it isn't ready yet.
+		 */
+		private BufferedImage thumbnail(Complex c){
+			return thumbnails.get(c, panel == null ? 0 : panel.getFractalType(), panel == null ? 3 : panel.getPower(),
+					panel == null ? null : panel.getFormula(), new Runnable(){
+				/*
+				 * Redraws the list once the thumbnail has been rendered.
+				 */
+				@Override
+				public void run() {
+					list.repaint();
+				}
+			});
+		}
+		
+		/**
+		 * Loads the favourites saved last time, one complex number per line as the
+		 * real part then the imaginary part. Lines which can't be read are skipped.
+		 */
+		private void load(){
+			if(!file.exists()){
+				return;
+			}
+			try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+				String line;
+				while((line = reader.readLine()) != null){
+					String[] parts = line.trim().split("\\s+");
+					if(parts.length == 2){
+						try {
+							addLoaded(new Complex(Double.parseDouble(parts[0]), Double.parseDouble(parts[1])));
+						} catch (NumberFormatException e) {
+							//skips the line
+						}
+					}
+				}
+			} catch (IOException e) {
+				//starts with an empty list
+			}
+		}
+		
+		/**
+		 * Adds a loaded favourite without saving the list again.
+		 * 
+		 * @param c The complex number loaded.
+		 */
+		private void addLoaded(Complex c){
+			if(!exists(c)){
+				favourite.addElement(c);
+			}
+		}
+		
+		/**
+		 * Saves every favourite to the favourites file so they can be loaded next time.
+		 */
+		private void save(){
+			SETTINGS.mkdirs();
+			try (PrintWriter writer = new PrintWriter(new FileWriter(file))) {
+				for(int i = 0; i < favourite.size(); i++){
+					Complex c = favourite.get(i);
+					writer.println(Double.toString(c.getReal()) + " " + Double.toString(c.getImaginary()));
+				}
+			} catch (IOException e) {
+				//Shows a pop-up error message
+				JOptionPane.showMessageDialog(fractalFrame,"Error saving favourites!");
 			}
 		}
 		
@@ -481,7 +788,41 @@ public class FractalFrame extends JFrame {
 		@Override
 		public void valueChanged(ListSelectionEvent arg0) {}
 		
-		
+		/**
+		 * Shows each favourite in the list with a small thumbnail of its julia set.
+		 * 
+		 * @author Daniel
+		 *
+		 */
+		class ThumbnailRenderer extends DefaultListCellRenderer {
+			
+			/**
+			 * The icons made from each thumbnail, so they are only scaled once.
+			 */
+			private Map<BufferedImage, ImageIcon> icons = new WeakHashMap<BufferedImage, ImageIcon>();
+			
+			/**
+			 * Shows the complex number as text with its thumbnail, if ready, as the icon.
+			 * 
+			 * @see javax.swing.DefaultListCellRenderer#getListCellRendererComponent(javax.swing.JList, java.lang.Object, int, boolean, boolean)
+			 */
+			@Override
+			public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected, boolean cellHasFocus) {
+				super.getListCellRendererComponent(list, value, index, isSelected, cellHasFocus);
+				BufferedImage image = thumbnail((Complex) value);
+				if(image != null){
+					ImageIcon icon = icons.get(image);
+					if(icon == null){
+						icon = new ImageIcon(image.getScaledInstance(Thumbnails.SIZE/2, Thumbnails.SIZE/2, Image.SCALE_SMOOTH));
+						icons.put(image, icon);
+					}
+					setIcon(icon);
+				}else{
+					setIcon(null);
+				}
+				return this;
+			}
+		}
 	}
 	/**
 	 * Contains all the items and their associated listeners for the menu bar.
@@ -516,6 +857,34 @@ public class FractalFrame extends JFrame {
 		 * A checkbox to select whether zooming in is animated or not.
 		 */
 		JCheckBoxMenuItem zoomAni;
+		/**
+		 * A checkbox to select whether the sets are coloured smoothly or in bands.
+		 */
+		JCheckBoxMenuItem smoothColour;
+		/**
+		 * A checkbox to select whether the colours are equalised over the iterations.
+		 */
+		JCheckBoxMenuItem histogramColour;
+		/**
+		 * A submenu containing the palettes to colour with.
+		 */
+		JMenu palettes;
+		/**
+		 * A checkbox to select whether the edges of the sets are anti-aliased.
+		 */
+		JCheckBoxMenuItem antiAlias;
+		/**
+		 * A checkbox to select whether shallow views are iterated in single precision.
+		 */
+		JCheckBoxMenuItem singlePrecision;
+		/**
+		 * A checkbox to select whether the interior of the sets is found early from the derivative.
+		 */
+		JCheckBoxMenuItem interiorCheck;
+		/**
+		 * A checkbox to select whether the maximum number of iterations is picked for each view.
+		 */
+		JCheckBoxMenuItem autoIterations;
 		/**
 		 * Radiobutton to select mandelbrot set to be drawn.
 		 */
@@ -548,6 +917,14 @@ public class FractalFrame extends JFrame {
 		 * Radiobutton to select multibrot set with a power of 6 to be drawn.
 		 */
 		JRadioButtonMenuItem multi6;
+		/**
+		 * Radiobutton to select multibrot set with a power chosen by the user to be drawn.
+		 */
+		JRadioButtonMenuItem multiAny;
+		/**
+		 * Radiobutton to select a formula entered by the user to be drawn.
+		 */
+		JRadioButtonMenuItem customFormula;
 		/**
 		 * Radiobutton to select to use one thread only.
 		 */
@@ -557,6 +934,16 @@ public class FractalFrame extends JFrame {
 		 */
 		JRadioButtonMenuItem multiThread;
 		
+		/**
+		 * Selects the radio button of the type being drawn again, when another type was picked
+		 * but couldn't be used. The set being drawn is already of that type, so its listener
+		 * doesn't reset anything.
+		 */
+		private void selectShownType(){
+			JRadioButtonMenuItem[] types = {mandelbrot, burningShip, triCorn, multi3, multi4, multi5, multi6, multiAny, customFormula};
+			types[panel.getFractalType()].setSelected(true);
+		}
+		
 		/**
 		 * Initialises the menu bar. Creates all the subsections and adds all the
 		 * listeners to the correct parts.
@@ -705,13 +1092,257 @@ public class FractalFrame extends JFrame {
 				
 			});
 			
+			//option to colour the sets smoothly rather than in bands
+			smoothColour = new JCheckBoxMenuItem("Smooth Colouring?");
+			smoothColour.setMnemonic(KeyEvent.VK_S);
+			menu.add(smoothColour);
+			
+			smoothColour.addItemListener(new ItemListener(){
+
+				/* 
+				 * If selected colours the fractal and julia set smoothly, otherwise in bands.
+				 */
+				@Override
+				public void itemStateChanged(ItemEvent e) {
+					smoothColouring = smoothColour.isSelected();
+					panel.setSmooth(smoothColouring);
+					if(julia !=null){
+						julia.setSmooth(smoothColouring);
+					}
+				}
+				
+			});
+			
+			//option to spread the colours evenly over the distribution of iterations
+			histogramColour = new JCheckBoxMenuItem("Histogram Colouring?");
+			histogramColour.setMnemonic(KeyEvent.VK_H);
+			menu.add(histogramColour);
+			
+			histogramColour.addItemListener(new ItemListener(){
+
+				/* 
+				 * If selected colours the fractal and julia set by the distribution of iterations.
+				 */
+				@Override
+				public void itemStateChanged(ItemEvent e) {
+					equalisedColouring = histogramColour.isSelected();
+					panel.setEqualised(equalisedColouring);
+					if(julia !=null){
+						julia.setEqualised(equalisedColouring);
+					}
+				}
+				
+			});
+			
+			//submenu to choose the palette the sets are coloured with
+			palettes = new JMenu("Palette");
+			palettes.setMnemonic(KeyEvent.VK_P);
+			menu.add(palettes);
+			ButtonGroup paletteGroup = new ButtonGroup();
+			String[] paletteNames = {"Fire", "Ocean", "Greyscale"};
+			final Palette[] paletteChoices = {Palette.fire(), Palette.ocean(), Palette.greyscale()};
+			for(int i = 0; i < paletteNames.length; i++){
+				final JRadioButtonMenuItem item = new JRadioButtonMenuItem(paletteNames[i]);
+				final Palette choice = paletteChoices[i];
+				item.setSelected(i == 0);
+				paletteGroup.add(item);
+				palettes.add(item);
+				item.addItemListener(new ItemListener(){
+
+					/* 
+					 * If selected recolours the fractal and julia set with this palette.
+					 */
+					@Override
+					public void itemStateChanged(ItemEvent e) {
+						if(item.isSelected()){
+							palette = choice;
+							panel.setPalette(palette);
+							if(julia !=null){
+								julia.setPalette(palette);
+							}
+						}
+					}
+					
+				});
+			}
+
+			//submenu to choose the orbit trap the sets are coloured by
+			JMenu traps = new JMenu("Orbit Trap");
+			menu.add(traps);
+			ButtonGroup trapGroup = new ButtonGroup();
+			String[] trapNames = {"None", "Point", "Line", "Cross"};
+			final int[] trapChoices = {-1, Kernel.TRAP_POINT, Kernel.TRAP_LINE, Kernel.TRAP_CROSS};
+			for(int i = 0; i < trapNames.length; i++){
+				final JRadioButtonMenuItem item = new JRadioButtonMenuItem(trapNames[i]);
+				final int choice = trapChoices[i];
+				item.setSelected(i == 0);
+				trapGroup.add(item);
+				traps.add(item);
+				item.addItemListener(new ItemListener(){
+
+					/* 
+					 * If selected iterates the fractal and julia set again keeping the distance
+					 * of every orbit to this trap.
+					 */
+					@Override
+					public void itemStateChanged(ItemEvent e) {
+						if(item.isSelected()){
+							trapShape = choice;
+							panel.setTrapShape(trapShape);
+							if(julia !=null){
+								julia.setTrapShape(trapShape);
+							}
+						}
+					}
+					
+				});
+			}
+			
+			//submenu to choose how the orbit trap shades the sets
+			JMenu shadings = new JMenu("Trap Shading");
+			menu.add(shadings);
+			ButtonGroup shadingGroup = new ButtonGroup();
+			String[] shadingNames = {"Trap Only", "Inside Only", "Shaded"};
+			final int[] shadingChoices = {Palette.TRAP, Palette.TRAP_INSIDE, Palette.TRAP_SHADED};
+			for(int i = 0; i < shadingNames.length; i++){
+				final JRadioButtonMenuItem item = new JRadioButtonMenuItem(shadingNames[i]);
+				final int choice = shadingChoices[i];
+				item.setSelected(i == 0);
+				shadingGroup.add(item);
+				shadings.add(item);
+				item.addItemListener(new ItemListener(){
+
+					/* 
+					 * If selected recolours the fractal and julia set with this shading.
+					 */
+					@Override
+					public void itemStateChanged(ItemEvent e) {
+						if(item.isSelected()){
+							trapShading = choice;
+							panel.setTrapShading(trapShading);
+							if(julia !=null){
+								julia.setTrapShading(trapShading);
+							}
+						}
+					}
+					
+				});
+			}
+
+			//option to anti-alias the edges of the sets
+			antiAlias = new JCheckBoxMenuItem("Anti-Aliasing?");
+			antiAlias.setMnemonic(KeyEvent.VK_A);
+			menu.add(antiAlias);
+			
+			antiAlias.addItemListener(new ItemListener(){
+
+				/* 
+				 * If selected supersamples the edges of the fractal and julia set.
+				 */
+				@Override
+				public void itemStateChanged(ItemEvent e) {
+					antiAliasing = antiAlias.isSelected();
+					panel.setAntiAlias(antiAliasing);
+					if(julia !=null){
+						julia.setAntiAlias(antiAliasing);
+					}
+				}
+				
+			});
+			
+			//option to iterate shallow views in single precision
+			singlePrecision = new JCheckBoxMenuItem("Single Precision When Shallow?");
+			menu.add(singlePrecision);
+			
+			singlePrecision.addItemListener(new ItemListener(){
+
+				/* 
+				 * If selected iterates views of the fractal and julia set in single precision
+				 * until they are zoomed too deep for it.
+				 */
+				@Override
+				public void itemStateChanged(ItemEvent e) {
+					fastShallow = singlePrecision.isSelected();
+					panel.setFastShallow(fastShallow);
+					if(julia !=null){
+						julia.setFastShallow(fastShallow);
+					}
+				}
+				
+			});
+			
+			//option to stop iterating the interior of the sets early
+			interiorCheck = new JCheckBoxMenuItem("Interior Checking?");
+			menu.add(interiorCheck);
+			
+			interiorCheck.addItemListener(new ItemListener(){
+
+				/* 
+				 * If selected follows the derivative of every orbit to find the interior of the
+				 * fractal and julia set early, and shows how much work it saved.
+				 */
+				@Override
+				public void itemStateChanged(ItemEvent e) {
+					interiorChecking = interiorCheck.isSelected();
+					panel.setInteriorCheck(interiorChecking);
+					if(julia !=null){
+						julia.setInteriorCheck(interiorChecking);
+					}
+				}
+				
+			});
+			
+			//option to pick the maximum number of iterations automatically
+			autoIterations = new JCheckBoxMenuItem("Auto Iterations?");
+			menu.add(autoIterations);
+			
+			autoIterations.addItemListener(new ItemListener(){
+
+				/* 
+				 * If selected picks the maximum number of iterations for every view from how
+				 * quickly the pixels stop escaping, showing it in the iterations field.
+				 */
+				@Override
+				public void itemStateChanged(ItemEvent e) {
+					panel.setAutoIterations(autoIterations.isSelected());
+				}
+				
+			});
+			
+			//option to keep iterating the black pixels once an image is shown
+			JMenuItem deepening = new JMenuItem("Background Deepening...");
+			menu.add(deepening);
+			
+			deepening.addActionListener(new ActionListener(){
+
+				/*
+				 * Asks the user for the most iterations the black pixels are deepened to in the
+				 * background after each image is shown, with 0 to turn deepening off.
+				 */
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					String current = Integer.toString(panel.getDeepening() == 0 ? 10000 : panel.getDeepening());
+					try {
+						int ceiling = Integer.valueOf(JOptionPane.showInputDialog(fractalFrame, "Deepen black pixels up to (0 for off):", current));
+						panel.setDeepening(Math.max(0, ceiling));
+					} catch (NumberFormatException | NullPointerException ex) {
+						//keeps the current setting if nothing valid was entered
+					}
+				}
+				
+			});
+			
 			//options to change the type of set being drawn
 			menu.addSeparator();
+			//the type of the view restored at startup is selected before the listeners are added, so the view isn't reset
+			int shownType = panel.getFractalType();
 			ButtonGroup fractalType = new ButtonGroup();
 			mandelbrot = new JRadioButtonMenuItem("Mandelbrot Set");
-			mandelbrot.setSelected(true);
+			mandelbrot.setSelected(shownType == 0);
 			burningShip = new JRadioButtonMenuItem("Burning Ship Set");
+			burningShip.setSelected(shownType == 1);
 			triCorn = new JRadioButtonMenuItem("TriCorn Set");
+			triCorn.setSelected(shownType == 2);
 			fractalType.add(mandelbrot);
 			fractalType.add(burningShip);
 			fractalType.add(triCorn);
@@ -727,7 +1358,7 @@ public class FractalFrame extends JFrame {
 				 */
 				@Override
 				public void itemStateChanged(ItemEvent arg0) {
-					if(mandelbrot.isSelected()){
+					if(mandelbrot.isSelected() && panel.getFractalType() != 0){
 						reset.doClick();
 						panel.setFractalType(0);
 						if(julia !=null){
@@ -748,7 +1379,7 @@ public class FractalFrame extends JFrame {
 				 */
 				@Override
 				public void itemStateChanged(ItemEvent e) {
-					if(burningShip.isSelected()){
+					if(burningShip.isSelected() && panel.getFractalType() != 1){
 						reset.doClick();
 						panel.setFractalType(1);
 						if(julia !=null){
@@ -771,7 +1402,7 @@ public class FractalFrame extends JFrame {
 				 */
 				@Override
 				public void itemStateChanged(ItemEvent e) {
-					if(triCorn.isSelected()){
+					if(triCorn.isSelected() && panel.getFractalType() != 2){
 						reset.doClick();
 						panel.setFractalType(2);
 						if(julia !=null){
@@ -790,6 +1421,7 @@ public class FractalFrame extends JFrame {
 			menu.add(subMenu);
 			
 			multi3 = new JRadioButtonMenuItem("d=3");
+			multi3.setSelected(shownType == 3);
 			subMenu.add(multi3);
 			fractalType.add(multi3);
 			
@@ -801,7 +1433,7 @@ public class FractalFrame extends JFrame {
 				 */
 				@Override
 				public void itemStateChanged(ItemEvent e) {
-					if(multi3.isSelected()){
+					if(multi3.isSelected() && panel.getFractalType() != 3){
 						reset.doClick();
 						panel.setFractalType(3);
 						if(julia !=null){
@@ -816,6 +1448,7 @@ public class FractalFrame extends JFrame {
 			});
 			
 			multi4 = new JRadioButtonMenuItem("d=4");
+			multi4.setSelected(shownType == 4);
 			subMenu.add(multi4);
 			fractalType.add(multi4);
 			
@@ -827,7 +1460,7 @@ public class FractalFrame extends JFrame {
 				 */
 				@Override
 				public void itemStateChanged(ItemEvent e) {
-					if(multi4.isSelected()){
+					if(multi4.isSelected() && panel.getFractalType() != 4){
 						reset.doClick();
 						panel.setFractalType(4);
 						if(julia !=null){
@@ -843,6 +1476,7 @@ public class FractalFrame extends JFrame {
 			});
 			
 			multi5 = new JRadioButtonMenuItem("d=5");
+			multi5.setSelected(shownType == 5);
 			subMenu.add(multi5);
 			fractalType.add(multi5);
 			
@@ -854,7 +1488,7 @@ public class FractalFrame extends JFrame {
 				 */
 				@Override
 				public void itemStateChanged(ItemEvent e) {
-					if(multi5.isSelected()){
+					if(multi5.isSelected() && panel.getFractalType() != 5){
 						reset.doClick();
 						panel.setFractalType(5);
 						if(julia !=null){
@@ -870,6 +1504,7 @@ public class FractalFrame extends JFrame {
 			});
 			
 			multi6 = new JRadioButtonMenuItem("d=6");
+			multi6.setSelected(shownType == 6);
 			subMenu.add(multi6);
 			fractalType.add(multi6);
 			
@@ -881,7 +1516,7 @@ public class FractalFrame extends JFrame {
 				 */
 				@Override
 				public void itemStateChanged(ItemEvent e) {
-					if(multi6.isSelected()){
+					if(multi6.isSelected() && panel.getFractalType() != 6){
 						reset.doClick();
 						panel.setFractalType(6);
 						if(julia !=null){
@@ -895,6 +1530,85 @@ public class FractalFrame extends JFrame {
 				
 			});
 			
+			multiAny = new JRadioButtonMenuItem("Any d...");
+			multiAny.setSelected(shownType == Kernel.MULTIBROT);
+			subMenu.add(multiAny);
+			fractalType.add(multiAny);
+			
+			multiAny.addActionListener(new ActionListener(){
+
+				/*
+				 * Asks the user for the power, which can be any number greater than 1, and changes
+				 * the set being drawn to the multibrot set with that power and the julia set to
+				 * use the same formula. Goes back to the type already drawn if the power isn't valid.
+				 */
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					String input = JOptionPane.showInputDialog(fractalFrame, "Power (d > 1):", Double.toString(panel.getPower()));
+					double power;
+					try {
+						power = Double.valueOf(input);
+					} catch (NumberFormatException | NullPointerException ex) {
+						power = Double.NaN;
+					}
+					if(!(power > 1) || Double.isInfinite(power)){
+						if(input != null){
+							JOptionPane.showMessageDialog(fractalFrame,"The power must be a number greater than 1");
+						}
+						selectShownType();
+						return;
+					}
+					reset.doClick();
+					panel.setPower(power);
+					panel.setFractalType(Kernel.MULTIBROT);
+					if(julia !=null){
+						julia.setPower(power);
+						julia.setFractalType(Kernel.MULTIBROT);
+						julia.repaint();
+					}
+					panel.repaint();
+				}
+				
+			});
+			
+			customFormula = new JRadioButtonMenuItem("Custom Formula...");
+			customFormula.setSelected(shownType == Kernel.CUSTOM);
+			menu.add(customFormula);
+			fractalType.add(customFormula);
+			
+			customFormula.addActionListener(new ActionListener(){
+
+				/*
+				 * Asks the user for a formula of z and c, such as z^3 - z + c, and compiles it
+				 * for both the set being drawn and the julia set. Goes back to the type already
+				 * drawn if the formula can't be understood, saying why.
+				 */
+				@Override
+				public void actionPerformed(ActionEvent e) {
+					String input = JOptionPane.showInputDialog(fractalFrame, "Formula of z and c:", panel.getFormula().toString());
+					Formula formula;
+					try {
+						formula = Formula.compile(input);
+					} catch (IllegalArgumentException | NullPointerException ex) {
+						if(input != null){
+							JOptionPane.showMessageDialog(fractalFrame, ex.getMessage());
+						}
+						selectShownType();
+						return;
+					}
+					reset.doClick();
+					panel.setFormula(formula);
+					panel.setFractalType(Kernel.CUSTOM);
+					if(julia !=null){
+						julia.setFormula(formula);
+						julia.setFractalType(Kernel.CUSTOM);
+						julia.repaint();
+					}
+					panel.repaint();
+				}
+				
+			});
+			
 			menu.addSeparator();
 			
 			/*
@@ -918,32 +1632,48 @@ public class FractalFrame extends JFrame {
 			saveJulia.add(saveJuliaPNG);
 			saveJulia.add(saveJuliaJPG);
 			
+			JMenuItem saveZoom = new JMenuItem("Save Zoom Video");
+			menu.add(saveZoom);
+			
+			JMenuItem savePoster = new JMenuItem("Save Poster");
+			menu.add(savePoster);
+			
+			JMenuItem renderBuddhabrot = new JMenuItem("Render Buddhabrot");
+			JMenu saveBuddhabrot = new JMenu("Save Buddhabrot");
+			JMenuItem saveBuddhabrotPNG = new JMenuItem("PNG");
+			JMenuItem saveBuddhabrotJPG = new JMenuItem("JPG");
+			saveBuddhabrot.add(saveBuddhabrotPNG);
+			saveBuddhabrot.add(saveBuddhabrotJPG);
+			menu.add(renderBuddhabrot);
+			menu.add(saveBuddhabrot);
+			JMenuItem juliaAtlas = new JMenuItem("Julia Atlas");
+			menu.add(juliaAtlas);
+			
 			saveFractalPNG.addActionListener(new ActionListener(){
 
 				@SuppressWarnings("rawtypes")
 				@Override
 				public void actionPerformed(ActionEvent arg0) {
-					/**
-					 * Saves the current buffered fractal image as a png image file.
+					/*
+					 * Queues the current fractal image to be saved as a png image file chosen
+					 * by the user, once a copy has been anti-aliased in the background.
 					 */
+					final File file = chooseFile("fractal.png");
+					if(file == null){
+						return;
+					}
 					new SwingWorker(){
 
 						@Override
 						protected Object doInBackground() throws Exception {
-							BufferedImage fractal = panel.getFractal();
+							BufferedImage fractal = panel.getAntiAliasedFractal();
 							if(fractal !=null){
-								try {
-								    File file = new File("fractal.png");
-								    ImageIO.write(fractal, "png", file);
-								} catch (IOException e) {
-									//Shows a pop-up error message
-									JOptionPane.showMessageDialog(fractalFrame,"Error creating image!");
-								}
+								exports.add(file, ExportQueue.image(fractal, "png"));
 							}
 							return null;
 						}
 						
-					}.execute();					
+					}.execute();
 				}
 			});	
 			
@@ -952,23 +1682,21 @@ public class FractalFrame extends JFrame {
 				@SuppressWarnings("rawtypes")
 				@Override
 				public void actionPerformed(ActionEvent arg0) {
-					
 					/*
-					 * Saves the current fractal buffered image as a jpg image file.
+					 * Queues the current fractal image to be saved as a jpg image file chosen
+					 * by the user, once a copy has been anti-aliased in the background.
 					 */
+					final File file = chooseFile("fractal.jpg");
+					if(file == null){
+						return;
+					}
 					new SwingWorker(){
 
 						@Override
 						protected Object doInBackground() throws Exception {
-							BufferedImage fractal = panel.getFractal();
+							BufferedImage fractal = panel.getAntiAliasedFractal();
 							if(fractal !=null){
-								try {
-								    File file = new File("fractal.jpg");
-								    ImageIO.write(fractal, "jpg", file);
-								} catch (IOException e) {
-									//Shows a pop-up error message
-									JOptionPane.showMessageDialog(fractalFrame,"Error creating image!");
-								}
+								exports.add(file, ExportQueue.image(fractal, "jpg"));
 							}
 							return null;
 						}
@@ -983,21 +1711,20 @@ public class FractalFrame extends JFrame {
 				@Override
 				public void actionPerformed(ActionEvent arg0) {
 					/*
-					 * Saves the current buffered julia set image as a png image file.
+					 * Queues the current julia set image to be saved as a png image file chosen
+					 * by the user, once a copy has been anti-aliased in the background.
 					 */
+					final File file = julia == null ? null : chooseFile("julia.png");
+					if(file == null){
+						return;
+					}
 					new SwingWorker(){
 
 						@Override
 						protected Object doInBackground() throws Exception {
-							if(julia != null){
-								BufferedImage juliaSet = julia.getJulia();
-								try {
-								    File file = new File("julia.png");
-								    ImageIO.write(juliaSet, "png", file);
-								} catch (IOException e) {
-									//Shows a pop-up error message
-									JOptionPane.showMessageDialog(fractalFrame,"Error creating image!");
-								}
+							BufferedImage juliaSet = julia.getAntiAliasedJulia();
+							if(juliaSet != null){
+								exports.add(file, ExportQueue.image(juliaSet, "png"));
 							}
 							return null;
 						}
@@ -1012,21 +1739,20 @@ public class FractalFrame extends JFrame {
 				@Override
 				public void actionPerformed(ActionEvent arg0) {
 					/*
-					 * Saves the current julia set buffered image as a jpg image file.
+					 * Queues the current julia set image to be saved as a jpg image file chosen
+					 * by the user, once a copy has been anti-aliased in the background.
 					 */
+					final File file = julia == null ? null : chooseFile("julia.jpg");
+					if(file == null){
+						return;
+					}
 					new SwingWorker(){
 
 						@Override
 						protected Object doInBackground() throws Exception {
-							if(julia != null){
-								BufferedImage juliaSet = julia.getJulia();
-							try {
-								    File file = new File("julia.jpg");
-								    ImageIO.write(juliaSet, "jpg", file);
-								} catch (IOException e) {
-									//Shows a pop-up error message
-									JOptionPane.showMessageDialog(fractalFrame,"Error creating image!");
-								}
+							BufferedImage juliaSet = julia.getAntiAliasedJulia();
+							if(juliaSet != null){
+								exports.add(file, ExportQueue.image(juliaSet, "jpg"));
 							}
 							return null;
 						}
@@ -1035,6 +1761,289 @@ public class FractalFrame extends JFrame {
 				}
 			});	
 			
+			saveZoom.addActionListener(new ActionListener(){
+
+				@Override
+				public void actionPerformed(ActionEvent arg0) {
+					/*
+					 * Queues the frames of a zoom into the centre of the screen to be saved as png
+					 * images in a folder chosen by the user. The whole zoom is worked out from one
+					 * exponential map.
+					 */
+					final double depth;
+					final int frames;
+					try {
+						depth = Double.valueOf(JOptionPane.showInputDialog(fractalFrame, "Zoom depth (powers of ten):", "10"));
+						frames = Integer.valueOf(JOptionPane.showInputDialog(fractalFrame, "Number of frames:", "300"));
+					} catch (NumberFormatException | NullPointerException e) {
+						return;
+					}
+					if(frames <= 0){
+						return;
+					}
+					File directory = chooseDirectory("zoom");
+					if(directory == null){
+						return;
+					}
+					final double startRadius = panel.getRealAxis()/2;
+					final Complex centre = panel.getCentre();
+					final int width = panel.getWidth();
+					final int height = panel.getHeight();
+					final int type = panel.getFractalType();
+					final double power = panel.getPower();
+					final Formula formula = panel.getFormula();
+					final int max = panel.getMax();
+					final Palette colours = palette;
+					final boolean smooth = smoothColouring;
+					exports.add(directory, new ExportQueue.Export(){
+
+						@Override
+						public void write(File directory, PngEncoder.Progress progress) throws IOException {
+							ExponentialMap.zoomVideo(type, power, formula, max, centre, startRadius, startRadius/Math.pow(10, depth), frames,
+									width, height, colours, smooth, directory, progress);
+						}
+						
+					});
+				}
+			});
+			
+			savePoster.addActionListener(new ActionListener(){
+
+				@Override
+				public void actionPerformed(ActionEvent arg0) {
+					/*
+					 * Queues the area on screen to be saved as a png image file of any width,
+					 * too large to fit on the heap. The image is kept in files mapped into memory.
+					 */
+					final int width;
+					try {
+						width = Integer.valueOf(JOptionPane.showInputDialog(fractalFrame, "Poster width (pixels):", "20000"));
+					} catch (NumberFormatException | NullPointerException e) {
+						return;
+					}
+					if(width <= 0){
+						return;
+					}
+					File file = chooseFile("poster.png");
+					if(file == null){
+						return;
+					}
+					final int height = (int) Math.max(1, Math.round((double) width*panel.getHeight()/panel.getWidth()));
+					final Complex centre = panel.getCentre();
+					final double realAxis = panel.getRealAxis();
+					final double imaginaryAxis = panel.getImaginaryAxis();
+					final int type = panel.getFractalType();
+					final double power = panel.getPower();
+					final Formula formula = panel.getFormula();
+					final int max = panel.getMax();
+					final Palette colours = palette;
+					final boolean smooth = smoothColouring;
+					exports.add(file, new ExportQueue.Export(){
+
+						@Override
+						public void write(File file, PngEncoder.Progress progress) throws IOException {
+							OffHeapImage poster = new OffHeapImage(width, height, new File(System.getProperty("java.io.tmpdir")));
+							try {
+								poster.render(type, power, formula, max, null, centre.getReal() - realAxis/2, centre.getReal() + realAxis/2,
+										centre.getImaginary() - imaginaryAxis/2, centre.getImaginary() + imaginaryAxis/2);
+								poster.colour(colours, smooth);
+								poster.writePng(file, progress);
+							} finally {
+								poster.close();
+							}
+						}
+						
+					});
+				}
+			});
+			
+			renderBuddhabrot.addActionListener(new ActionListener(){
+
+				@SuppressWarnings("rawtypes")
+				@Override
+				public void actionPerformed(ActionEvent arg0) {
+					/*
+					 * Renders the Buddhabrot of the area on screen in its own window, which
+					 * is updated as more samples are added.
+					 */
+					final long samples;
+					final int max;
+					try {
+						samples = (long) (Double.valueOf(JOptionPane.showInputDialog(fractalFrame, "Samples (millions):", "10"))*1000000);
+						max = Integer.valueOf(JOptionPane.showInputDialog(fractalFrame, "Maximum iterations:", "1000"));
+					} catch (NumberFormatException | NullPointerException e) {
+						return;
+					}
+					if(samples <= 0 || max <= 0){
+						return;
+					}
+					final Complex centre = panel.getCentre();
+					final double realAxis = panel.getRealAxis();
+					final double imaginaryAxis = panel.getImaginaryAxis();
+					final int width = panel.getWidth();
+					final int height = panel.getHeight();
+					final JLabel image = new JLabel();
+					final JFrame window = new JFrame("Buddhabrot");
+					window.add(image);
+					window.setSize(width, height);
+					window.setLocationRelativeTo(fractalFrame);
+					window.setVisible(true);
+					new SwingWorker(){
+
+						@Override
+						protected Object doInBackground() throws Exception {
+							Buddhabrot render = new Buddhabrot(width, height, centre.getReal() - realAxis/2, centre.getReal() + realAxis/2,
+									centre.getImaginary() - imaginaryAxis/2, centre.getImaginary() + imaginaryAxis/2, max);
+							buddhabrot = render.render(samples, 1, palette, new Buddhabrot.Progress(){
+								@Override
+								public void update(final BufferedImage progress, final long done) {
+									SwingUtilities.invokeLater(new Runnable(){
+										@Override
+										public void run() {
+											image.setIcon(new ImageIcon(progress));
+											window.setTitle("Buddhabrot - " + done/1000000.0 + " million samples");
+										}
+									});
+								}
+							});
+							return null;
+						}
+						
+					}.execute();
+				}
+			});
+			
+			juliaAtlas.addActionListener(new ActionListener(){
+
+				@SuppressWarnings("rawtypes")
+				@Override
+				public void actionPerformed(ActionEvent arg0) {
+					/*
+					 * Shows a grid of Julia sets for constants across the area on screen in
+					 * its own window. Clicking a cell opens its Julia set, showing the cell
+					 * straight away while the full julia set is rendered.
+					 */
+					final int columns;
+					final int rows;
+					try {
+						columns = Integer.valueOf(JOptionPane.showInputDialog(fractalFrame, "Columns:", "8"));
+						rows = Integer.valueOf(JOptionPane.showInputDialog(fractalFrame, "Rows:", "6"));
+					} catch (NumberFormatException | NullPointerException e) {
+						return;
+					}
+					if(columns <= 0 || rows <= 0){
+						return;
+					}
+					final int cellWidth = Math.max(16, panel.getWidth()/columns);
+					final int cellHeight = cellWidth*4/5;
+					if((long) columns*cellWidth*rows*cellHeight > ATLAS_PIXELS){
+						JOptionPane.showMessageDialog(fractalFrame, "That many cells would make the atlas too large");
+						return;
+					}
+					Complex centre = panel.getCentre();
+					double realAxis = panel.getRealAxis();
+					double imaginaryAxis = panel.getImaginaryAxis();
+					final JuliaAtlas atlas = new JuliaAtlas(columns, rows, cellWidth, cellHeight, centre.getReal() - realAxis/2, centre.getReal() + realAxis/2,
+							centre.getImaginary() - imaginaryAxis/2, centre.getImaginary() + imaginaryAxis/2, panel.getFractalType(), panel.getPower(), panel.getFormula(), panel.getMax());
+					final JLabel image = new JLabel();
+					image.setHorizontalAlignment(JLabel.LEFT);
+					image.setVerticalAlignment(JLabel.TOP);
+					final JFrame window = new JFrame("Julia Atlas - rendering");
+					window.add(image);
+					window.setSize(atlas.getWidth() + 20, atlas.getHeight() + 40);
+					window.setLocationRelativeTo(fractalFrame);
+					window.setVisible(true);
+					new SwingWorker(){
+
+						@Override
+						protected Object doInBackground() throws Exception {
+							atlas.render();
+							return atlas.paint(palette, smoothColouring);
+						}
+
+						@Override
+						protected void done() {
+							final BufferedImage mosaic;
+							try {
+								mosaic = (BufferedImage) get();
+							} catch (InterruptedException | ExecutionException e) {
+								window.setTitle("Julia Atlas - failed");
+								JOptionPane.showMessageDialog(window, "Error rendering the Julia atlas!");
+								return;
+							}
+							image.setIcon(new ImageIcon(mosaic));
+							window.setTitle("Julia Atlas");
+							image.addMouseListener(new MouseAdapter(){
+								@Override
+								public void mouseClicked(MouseEvent e) {
+									if(e.getX() >= atlas.getWidth() || e.getY() >= atlas.getHeight()){
+										return;
+									}
+									Complex constant = atlas.constant(e.getX(), e.getY());
+									BufferedImage cell = mosaic.getSubimage(e.getX()/cellWidth*cellWidth, e.getY()/cellHeight*cellHeight, cellWidth, cellHeight);
+									juliaSet.setTitle("Julia Set for " + constant.toString());
+									if(julia == null){
+										julia = new JuliaPanel(constant, panel.getFractalType());
+										copyOptions(julia);
+										julia.setPreview(cell);
+										juliaSet.setContentPane(julia);
+									}else{
+										julia.setC(constant);
+										julia.setPreview(cell);
+										julia.repaint();
+									}
+									if(dimensions.getWidth()>=1366){
+										juliaSet.setBounds(fractalFrame.getX()+fractalFrame.getWidth()+10, fractalFrame.getY(), 500, 500);
+									}else{
+										juliaSet.setSize(500, 500);
+									}
+									juliaSet.setVisible(true);
+								}
+							});
+						}
+						
+					}.execute();
+				}
+			});
+			
+			saveBuddhabrotPNG.addActionListener(new ActionListener(){
+
+				@Override
+				public void actionPerformed(ActionEvent arg0) {
+					/*
+					 * Queues the last Buddhabrot rendered to be saved as a png image file
+					 * chosen by the user.
+					 */
+					BufferedImage image = buddhabrot;
+					if(image == null){
+						return;
+					}
+					File file = chooseFile("buddhabrot.png");
+					if(file != null){
+						exports.add(file, ExportQueue.image(image, "png"));
+					}
+				}
+			});
+			
+			saveBuddhabrotJPG.addActionListener(new ActionListener(){
+
+				@Override
+				public void actionPerformed(ActionEvent arg0) {
+					/*
+					 * Queues the last Buddhabrot rendered to be saved as a jpg image file
+					 * chosen by the user.
+					 */
+					BufferedImage image = buddhabrot;
+					if(image == null){
+						return;
+					}
+					File file = chooseFile("buddhabrot.jpg");
+					if(file != null){
+						exports.add(file, ExportQueue.image(image, "jpg"));
+					}
+				}
+			});
+			
 		}
 		
 		
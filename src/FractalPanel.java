@@ -1,15 +1,29 @@
 import java.awt.Color;
+import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.Toolkit;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
 
 import javax.swing.JPanel;
 import javax.swing.SwingUtilities;
-import javax.swing.SwingWorker;
 
 
 
@@ -23,6 +37,18 @@ import javax.swing.SwingWorker;
  */
 @SuppressWarnings("serial")
 public class FractalPanel extends JPanel {
+	/**
+	 * How many times smaller the zoom preview is than the panel, across and down.
+	 */
+	private static final int PREVIEW_SCALE = 4;
+	/**
+	 * The number of columns in each tile handed to the render scheduler.
+	 */
+	private static final int TILE = 16;
+	/**
+	 * The first number of a saved view, changed whenever the layout of the file changes.
+	 */
+	private static final int VIEW_VERSION = 3;
 	/**
 	 * The numerical value of each pixel across.
 	 */
@@ -76,38 +102,130 @@ public class FractalPanel extends JPanel {
 	 */
 	private Color zoom = new Color(0.0f, 0.0f, 1.0f, 0.5f);
 	/**
-	 * One of five threads which paints a given area of a given buffered image.
+	 * An int representation of the fractalType currently being shown.
 	 */
-	private FractalWorker section1;
+	private int fractalType;
 	/**
-	 * One of five threads which paints a given area of a given buffered image.
+	 * The power z is raised to when the fractal type is a Multibrot set with a chosen power.
 	 */
-	private FractalWorker section2;
+	private double power;
 	/**
-	 * One of five threads which paints a given area of a given buffered image.
+	 * The formula used when the fractal type is {@link Kernel#CUSTOM}.
 	 */
-	private FractalWorker section3;
+	private Formula formula;
 	/**
-	 * One of five threads which paints a given area of a given buffered image.
+	 * An int representation of the number of threads being used on the buffered
+	 * image. A 0 means single thread, while 1 means multi threads.
 	 */
-	private FractalWorker section4;
+	private int threadType;
 	/**
-	 * One of five threads which paints a given area of a given buffered image.
+	 * Holds whether zooming in on the fractal is animated or not.
 	 */
-	private FractalWorker section5;
+	private boolean zoomAnimate;
 	/**
-	 * An int representation of the fractalType currently being shown.
+	 * The number of iterations for each pixel of the fractal, going across the image first.
 	 */
-	private int fractalType;
+	private int[] iterations;
 	/**
-	 * An int representation of the number of threads being used on the buffered
-	 * image. A 0 means single thread, while 1 means multi threads.
+	 * The square of the modulus of each pixel once it escaped, used for smooth colouring.
 	 */
-	private int threadType;
+	private float[] escape;
 	/**
-	 * Holds whether zooming in on the fractal is animated or not.
+	 * The square of the smallest distance from the orbit of each pixel to the orbit trap,
+	 * or null if there isn't a trap.
 	 */
-	private boolean zoomAnimate;
+	private float[] trap;
+	/**
+	 * The palette used to colour the fractal.
+	 */
+	private Palette palette;
+	/**
+	 * Holds whether the fractal is coloured smoothly or in bands.
+	 */
+	private boolean smooth;
+	/**
+	 * Holds whether the colours are spread evenly over the distribution of iterations.
+	 */
+	private boolean equalised;
+	/**
+	 * The histogram of the iterations of the current image, built when first needed.
+	 */
+	private Histogram histogram;
+	/**
+	 * Holds whether the edges of the fractal are anti-aliased.
+	 */
+	private boolean antiAlias;
+	/**
+	 * Holds whether shallow views are iterated in single precision.
+	 */
+	private boolean fastShallow;
+	/**
+	 * Holds whether the derivative of each orbit is followed to find the interior early.
+	 */
+	private boolean interiorCheck;
+	/**
+	 * The work saved by finding the interior early on the current image, or null.
+	 */
+	private InteriorCount interiorCount;
+	/**
+	 * Holds whether the maximum number of iterations is picked for each view from how
+	 * quickly a sample of it stops escaping.
+	 */
+	private boolean autoIterations;
+	/**
+	 * The most iterations the black pixels of a finished image are deepened to in the
+	 * background, or 0 if they aren't.
+	 */
+	private int deepening;
+	/**
+	 * The shape of the orbit trap, as given to {@link Kernel#trap(int, double, double)},
+	 * or -1 if there isn't one.
+	 */
+	private int trapShape = -1;
+	/**
+	 * How the fractal is shaded by the orbit trap, one of the shadings of {@link Palette}.
+	 */
+	private int trapShading = Palette.TRAP;
+	/**
+	 * The extra samples taken along the edges of the current image, if anti-aliased.
+	 */
+	private Supersampler supersampler;
+	/**
+	 * Holds whether the next paint only needs to recolour the current iterations.
+	 */
+	private boolean recolourOnly;
+	/**
+	 * Holds whether the view has changed since the last image was started, so it needs generating again.
+	 */
+	private boolean stale;
+	/**
+	 * The number of the latest image started. Older images stop as soon as they see it change.
+	 */
+	private volatile int generation;
+	/**
+	 * The width of the latest image started.
+	 */
+	private int renderWidth;
+	/**
+	 * The height of the latest image started.
+	 */
+	private int renderHeight;
+	/**
+	 * The image being shown, kept so a resized image can reuse the part that is still on screen.
+	 */
+	private FractalRender shown;
+	/**
+	 * The buffers of replaced images, reused by the next image of the same size.
+	 */
+	private BufferPool pool;
+	/**
+	 * Renders a low resolution preview of the area under the zoom box while it's dragged.
+	 */
+	private ZoomPreview zoomPreview;
+	/**
+	 * A preview of the area just zoomed into, shown until the full image is generated.
+	 */
+	private BufferedImage preview;
 
 
 	/**
@@ -119,14 +237,20 @@ public class FractalPanel extends JPanel {
 		max = 100;
 		realAxis = 4.0;
 		imaginaryAxis = 3.2;
+		pool = new BufferPool();
 		middleYVal = 0.0;
 		middleXVal = 0.0;
 		FractalMouseListener zoomer = new FractalMouseListener();
 		this.addMouseListener(zoomer);
 		this.addMouseMotionListener(zoomer);
 		fractalType = 0;
+		power = 3;
+		formula = Formula.compile("z^2 + c");
 		threadType = 0;
 		zoomAnimate = true;
+		palette = Palette.fire();
+		smooth = false;
+		zoomPreview = new ZoomPreview();
 	}
 
 	/**
@@ -135,6 +259,44 @@ public class FractalPanel extends JPanel {
 	 */
 	public void setFractalType(int fractalType){
 		this.fractalType = fractalType;
+		stale = true;
+	}
+	
+	/**
+	 * Sets the power used when the fractal type is {@link Kernel#MULTIBROT}.
+	 * @param power The power, greater than 1.
+	 */
+	public void setPower(double power){
+		this.power = power;
+		stale = true;
+	}
+	
+	/**
+	 * Returns the power used when the fractal type is {@link Kernel#MULTIBROT}.
+	 * 
+	 * @return The power.
+	 */
+	public double getPower(){
+		return power;
+	}
+	
+	/**
+	 * Sets the formula used when the fractal type is {@link Kernel#CUSTOM}. Images already
+	 * being rendered keep the formula they were started with.
+	 * @param formula The compiled formula.
+	 */
+	public void setFormula(Formula formula){
+		this.formula = formula;
+		stale = true;
+	}
+	
+	/**
+	 * Returns the formula used when the fractal type is {@link Kernel#CUSTOM}.
+	 * 
+	 * @return The compiled formula.
+	 */
+	public Formula getFormula(){
+		return formula;
 	}
 	
 	/**
@@ -150,8 +312,8 @@ public class FractalPanel extends JPanel {
 	/** 
 	 * Paints the buffered image of the fractal onto the screen,
 	 * will also paint the zoom box on the screen if zooming in.
-	 * First creates the buffered image and then once the threads 
-	 * have finished it it's painted to the screen.
+	 * If the view has changed a new buffered image is started in the
+	 * background, and the last one is shown until it has finished.
 	 * Doesn't update the buffered image as the zoom box is being
 	 * drawn.
 	 * 
@@ -161,20 +323,34 @@ public class FractalPanel extends JPanel {
 		super.paintComponent(g);
 		int height = getHeight();
 		int width = getWidth();
+		//keeps the pixels the same size when resized, so the part of the plane already shown stays where it is
+		if(!stale && renderWidth > 0 && width > 0 && height > 0 && (width != renderWidth || height != renderHeight)){
+			realAxis = pixelValueX*width;
+			imaginaryAxis = pixelValueY*height;
+		}
 		pixelValues(height, width);
 
 		/*if its not zooming then the buffered image can be redrawn. If it's zooming nothing will change so
 		 * for speed the buffered image doesn't need to be updated.
 		 */
 		
-		if(!zooming){
-			fractal = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-			generate(fractal);
-
+		if(!zooming && width > 0 && height > 0){
+			if(stale || width != renderWidth || height != renderHeight){
+				generate(width, height);
+			}else if(recolourOnly && fractal != null){
+				//changing the colours doesn't change the iterations, so the image only needs recolouring
+				colour(fractal);
+			}
+			recolourOnly = false;
 		}
 		
-		//draws the image to the screen.
+		//draws the image to the screen, covered by the preview of a zoom until the zoomed image is finished.
 		g.drawImage(fractal, 0, 0, null);
+		if(preview != null){
+			g.drawImage(preview, 0, 0, width, height, null);
+		}else if(interiorCount != null){
+			drawCount(g, interiorCount.toString(), height);
+		}
 		Graphics2D g2d = (Graphics2D) g;
 
 		//if it's zooming draw the zoom box
@@ -184,6 +360,21 @@ public class FractalPanel extends JPanel {
 		}	
 	}
 
+	/**
+	 * Draws a line of text in the bottom left corner over the image, with a shadow so it
+	 * shows against any colour.
+	 * 
+	 * @param g The graphics to draw with.
+	 * @param text The text to draw.
+	 * @param height The height of the panel.
+	 */
+	static void drawCount(Graphics g, String text, int height){
+		g.setColor(Color.BLACK);
+		g.drawString(text, 6, height - 5);
+		g.setColor(Color.WHITE);
+		g.drawString(text, 5, height - 6);
+	}
+
 	/**
 	 * Allows the buffered image of the fractal to be accessed.
 	 * 
@@ -194,57 +385,151 @@ public class FractalPanel extends JPanel {
 	}
 	
 	/**
-	 * Generates the Mandelbrot fractal buffered image. Will either use one thread for the
-	 * whole image or five threads to each paint a section of the buffered image depending
-	 * on the thread type option. Gives each thread the section of the image for it 
-	 * to paint and starts each thread or for single threaded loops over the whole screen
-	 * going down the screen first for each pixel across.
+	 * Returns an anti-aliased copy of the buffered image of the fractal, for saving.
+	 * If the image is already anti-aliased it is just copied.
 	 * 
-	 * @param fractal The buffered image being generated.
+	 * @return The anti-aliased buffered image.
 	 */
-	private void generate(BufferedImage fractal) {
-		int width = this.getWidth()/5;
-		int height = this.getHeight();
-		
-		switch(threadType){
-		case 0:
-			//loops for every pixel on the screen, going down the screen first for every pixel across
-			for(int x = 0; x < this.getWidth(); x++){
-				for(int y = 0; y < this.getHeight(); y++){
-					double paintColour = mandelbrotIterations(((x-middleXCo)*pixelValueX)+middleXVal, ((middleYCo-y)*pixelValueY)+middleYVal);
-					//int smoothShaded = (int) (paintColour + 1 - Math.log10(Math.log10(Math.sqrt(previous.modulusSquared()))) / Math.log10(2));
-					Color myColour = (paintColour==max) ? Color.BLACK : new Color(255, 255-((int) (paintColour*7) % 255), 0);
-					/*
-					Color myColour = (paintColour==max) ? Color.BLACK :new Color(255, 255-((int) (smoothShaded*7) % 255), 0);
-					*/
-					fractal.setRGB(x, y, myColour.getRGB());
-				
-				}
+	public BufferedImage getAntiAliasedFractal(){
+		BufferedImage copy;
+		int[] iterations;
+		FractalRender view;
+		//copies the image before it can be replaced and its buffers reused
+		synchronized(this){
+			if(fractal == null){
+				return null;
 			}
-			break;
-		case 1:
-			//each thread is given a section of the buffered image to work with
-			section1 = new FractalWorker(0, width, height);
-			section1.execute();
-			section2 = new FractalWorker(width, width*2, height);
-			section2.execute();
-			section3 = new FractalWorker(width*2, width*3, height);
-			section3.execute();
-			section4 = new FractalWorker(width*3, width*4, height);
-			section4.execute();
-			section5 = new FractalWorker(width*4, getWidth(), height);
-			section5.execute();
-			//waits until all the threads have finished creating their part of the image.
-			while(!(section1.finish && section2.finish && section3.finish && section4.finish && section5.finish)){
+			//the view the image was rendered from, which the current one may have moved on from
+			view = shown;
+			copy = new BufferedImage(fractal.getWidth(), fractal.getHeight(), BufferedImage.TYPE_INT_RGB);
+			int[] original = ((DataBufferInt) fractal.getRaster().getDataBuffer()).getData();
+			System.arraycopy(original, 0, ((DataBufferInt) copy.getRaster().getDataBuffer()).getData(), 0, original.length);
+			//the edges are coloured by iterations, which an orbit trap doesn't use
+			iterations = antiAlias || trap != null ? null : this.iterations.clone();
+		}
+		if(iterations != null){
+			Supersampler edges = view.supersample(iterations, RenderScheduler.EXPORT);
+			int[] pixels = ((DataBufferInt) copy.getRaster().getDataBuffer()).getData();
+			edges.paint(palette, view.max, Kernel.degree(view.fractalType, view.power, view.formula), smooth, equalised ? histogram : null, pixels);
+		}
+		return copy;
+	}
+	
+	/**
+	 * Starts generating a new Mandelbrot fractal buffered image in the background, abandoning
+	 * any image still being generated. Each image is numbered, and every thread working on an
+	 * older image stops at the end of the column it is on, so the processors are only ever
+	 * busy with the latest view. A finished image is only shown if nothing newer has been
+	 * started since. If the view is the same as the image being shown, as it is when the
+	 * panel has only been resized, the part of the image still on screen is reused.
+	 * 
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 */
+	private void generate(int width, int height){
+		stale = false;
+		renderWidth = width;
+		renderHeight = height;
+		FractalRender next = new FractalRender(++generation, width, height);
+		next.continueFrom(shown);
+		Thread render = new Thread(next, "Fractal render");
+		render.setDaemon(true);
+		render.start();
+	}
+	
+	/**
+	 * Shows a finished image if it is still the latest one, colouring it with the current options.
+	 * If its maximum number of iterations was picked, the maximum is changed to match.
+	 * 
+	 * @param render The finished image.
+	 */
+	private void finish(FractalRender render){
+		if(render.number != generation || stale){
+			render.release();
+			return;
+		}
+		FractalRender replaced = shown;
+		BufferedImage replacedImage = fractal;
+		BufferedImage image = pool.image(render.width, render.height);
+		int oldMax = max;
+		synchronized(this){
+			shown = render;
+			iterations = render.iterations;
+			escape = render.escape;
+			trap = render.trap;
+			supersampler = render.supersampler;
+			interiorCount = render.interiorCount;
+			histogram = null;
+			if(render.autoIterations){
+				max = render.base;
 			}
-			break;
-			
+			colour(image);
+			fractal = image;
 		}
-		
-		
-
+		firePropertyChange("max", oldMax, max);
+		//nothing else can be using the replaced image now, apart from abandoned images copying from it
+		if(replaced != null){
+			replaced.release();
+		}
+		pool.release(replacedImage);
+		preview = null;
+		repaint();
+		deepen(render);
 	}
-
+	
+	/**
+	 * Starts iterating the black pixels of the image being shown again in the background,
+	 * to twice its maximum number of iterations or the deepest chosen, if that is deeper and
+	 * there are any black pixels which could still escape. The deeper image is numbered like
+	 * any other, so it is abandoned as soon as the view changes, and once it is shown the
+	 * next deeper one is started in the same way.
+	 * 
+	 * @param render The image being shown.
+	 */
+	private void deepen(FractalRender render){
+		if(deepening <= render.max){
+			return;
+		}
+		boolean black = false;
+		for(int i = 0; i < render.iterations.length && !black; i++){
+			black = render.iterations[i] == render.max && render.escape[i] >= 0;
+		}
+		if(!black){
+			return;
+		}
+		FractalRender next = new FractalRender(++generation, render.width, render.height);
+		next.deepenFrom(render, (int) Math.min(deepening, 2L*render.max));
+		Thread thread = new Thread(next, "Fractal deepening");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	/**
+	 * Colours the buffered image using the iterations already calculated for each pixel,
+	 * building the histogram of the iterations first if the colours are being equalised.
+	 * 
+	 * @param fractal The buffered image being coloured.
+	 */
+	private void colour(BufferedImage fractal){
+		//the image may have been deepened past the maximum asked for
+		int max = shown.max;
+		//the type being shown, which may not be the one chosen if a new image is on its way
+		double degree = Kernel.degree(shown.fractalType, shown.power, shown.formula);
+		if(equalised && histogram == null){
+			histogram = new Histogram(iterations, max, RenderScheduler.INTERACTIVE, threadType == 1);
+		}
+		//colours each pixel straight into the image's pixel data
+		int[] pixels = ((DataBufferInt) fractal.getRaster().getDataBuffer()).getData();
+		if(trap != null){
+			palette.paintTrap(iterations, escape, trap, max, degree, smooth, equalised ? histogram : null, trapShading, pixels);
+		}else{
+			palette.paint(iterations, escape, max, degree, smooth, equalised ? histogram : null, pixels);
+		}
+		if(supersampler != null){
+			supersampler.paint(palette, max, degree, smooth, equalised ? histogram : null, pixels);
+		}
+	}
+	
 	/**
 	 * Calculates the value of each pixel in both the x and y axis' and 
 	 * calculates the coordinates of the middle of the Panel.
@@ -281,55 +566,6 @@ public class FractalPanel extends JPanel {
 		return ((middleYCo-y)*pixelValueY)+middleYVal;
 	}
 
-	/**
-	 * Iterates over the given Complex Number using the formula selected by the switch case
-	 * statement for the correct set until the given number diverges. The number of iterations is kept track of.
-	 * 
-	 * @param real The real part of the current Complex Number.
-	 * @param imaginary The imaginary part of the current Complex number.
-	 * @return the number of iterations before complex number diverges.
-	 */
-	private double mandelbrotIterations(double real, double imaginary){
-		Complex current = new Complex(real, imaginary);
-		int iterations = 0;
-		Complex next;
-		Complex previous = current;
-		while(previous.modulusSquared()<4 && iterations < max){
-			switch (fractalType) {
-			case 0: //ordinary mandelbrot set
-				next = previous.square().add(current);
-				break;
-			case 1: //burning ship set
-				next = previous.burningShip().add(current);
-				break;
-			case 2: //tricorn set
-				next = previous.triCorn().add(current);
-				break;
-			case 3: //multibrot d=3
-				next = previous.square().multiply(previous).add(current);
-				break;
-			case 4: //multibrot d=4
-				next = previous.square().square().add(current);
-				break;
-			case 5: //multibrot d=5
-				next = previous.square().square().multiply(previous).add(current);
-				break;
-			case 6: //multibrot d=6
-				next = previous.square().square().multiply(previous.square()).add(current);
-				break;
-			default:
-				next = previous.square().add(current);
-				break;
-			}		
-			iterations++;
-			previous = next;
-		}
-		return iterations;
-
-		
-	}
-	
-
 	/**
 	 * Updates the values for the plane, both imaginary and real, recalculates the 
 	 * value in the centre of the screen and redraws the Mandelbrot set using 
@@ -345,9 +581,146 @@ public class FractalPanel extends JPanel {
 		imaginaryAxis = yUpper - yLower;
 		middleXVal = (xUpper + xLower)/2;
 		middleYVal = (yUpper + yLower)/2;
+		stale = true;
 		repaint();
 	}
 
+	/**
+	 * Saves the image being shown along with the view it shows, so it can be shown straight
+	 * away next time. The maximum asked for is stored as well as the one iterated to, as the
+	 * image may have been deepened since. The iterations are stored as the difference from
+	 * the pixel to their left, which deflates far better, followed by the escape values. A
+	 * custom formula is stored as it was entered, straight after the power.
+	 * 
+	 * @param file The file to save to.
+	 * @throws IOException If the file couldn't be written.
+	 */
+	public void saveView(File file) throws IOException{
+		FractalRender view = shown;
+		if(view == null){
+			return;
+		}
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new DeflaterOutputStream(new FileOutputStream(file))));
+		try {
+			out.writeInt(VIEW_VERSION);
+			out.writeInt(view.width);
+			out.writeInt(view.height);
+			out.writeInt(view.fractalType);
+			out.writeDouble(view.power);
+			if(view.fractalType == Kernel.CUSTOM){
+				out.writeUTF(view.formula.toString());
+			}
+			out.writeInt(view.base);
+			out.writeInt(view.max);
+			out.writeDouble(view.middleXVal);
+			out.writeDouble(view.middleYVal);
+			out.writeDouble(view.pixelValueX*view.width);
+			out.writeDouble(view.pixelValueY*view.height);
+			out.writeBoolean(view.singlePrecision);
+			for(int i = 0; i < view.iterations.length; i++){
+				out.writeInt(i % view.width == 0 ? view.iterations[i] : view.iterations[i] - view.iterations[i - 1]);
+			}
+			for(int i = 0; i < view.escape.length; i++){
+				out.writeFloat(view.escape[i]);
+			}
+		} finally {
+			out.close();
+		}
+	}
+	
+	/**
+	 * Shows the image saved by {@link #saveView(File)} and moves to the view it shows,
+	 * without iterating anything. If the panel turns out to be a different size only the
+	 * part which doesn't fit is iterated, and if the image was iterated with different
+	 * options it is shown until it has been iterated again in the background.
+	 * The fractal type, power and custom formula of the saved view are restored along with
+	 * it. The saved view isn't used with an orbit trap, as the distances to the trap aren't saved.
+	 * Everything about the view is checked before any buffers are taken, and a view larger
+	 * than the screen is taken as damaged, so a damaged file can't ask for more memory than
+	 * the panel could ever use.
+	 * 
+	 * @param file The file the view was saved to.
+	 * @return True if the view was restored.
+	 */
+	public boolean loadView(File file){
+		if(!file.exists()){
+			return false;
+		}
+		int[] iterations = null;
+		float[] escape = null;
+		boolean restored = false;
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new InflaterInputStream(new FileInputStream(file))));
+			try {
+				if(in.readInt() != VIEW_VERSION){
+					return false;
+				}
+				int width = in.readInt();
+				int height = in.readInt();
+				int fractalType = in.readInt();
+				double power = in.readDouble();
+				Formula formula = fractalType == Kernel.CUSTOM ? Formula.compile(in.readUTF()) : null;
+				Dimension screen = Toolkit.getDefaultToolkit().getScreenSize();
+				if(fractalType < 0 || fractalType > Kernel.CUSTOM || (fractalType == Kernel.MULTIBROT && !(power > 1))
+						|| width <= 0 || height <= 0 || width > screen.width || height > screen.height
+						|| (long) width*height > (long) screen.width*screen.height || trapShape >= 0){
+					return false;
+				}
+				int base = in.readInt();
+				int max = in.readInt();
+				if(base <= 0 || max < base){
+					return false;
+				}
+				double middleXVal = in.readDouble();
+				double middleYVal = in.readDouble();
+				double realAxis = in.readDouble();
+				double imaginaryAxis = in.readDouble();
+				boolean singlePrecision = in.readBoolean();
+				iterations = pool.ints(width*height);
+				escape = pool.floats(width*height);
+				for(int i = 0; i < iterations.length; i++){
+					iterations[i] = in.readInt() + (i % width == 0 ? 0 : iterations[i - 1]);
+				}
+				for(int i = 0; i < escape.length; i++){
+					escape[i] = in.readFloat();
+				}
+				if(formula != null){
+					this.formula = formula;
+				}
+				this.fractalType = fractalType;
+				this.power = power;
+				//deepening carries on from the maximum asked for, not the one the image was deepened to
+				this.max = base;
+				this.middleXVal = middleXVal;
+				this.middleYVal = middleYVal;
+				this.realAxis = realAxis;
+				this.imaginaryAxis = imaginaryAxis;
+				pixelValues(height, width);
+				FractalRender render = new FractalRender(++generation, width, height);
+				render.max = max;
+				render.iterations = iterations;
+				render.escape = escape;
+				renderWidth = width;
+				renderHeight = height;
+				stale = false;
+				finish(render);
+				stale = render.singlePrecision != singlePrecision;
+				restored = true;
+				return true;
+			} finally {
+				in.close();
+			}
+		} catch (IOException | RuntimeException | OutOfMemoryError e) {
+			//a damaged view, or one there isn't room for, is just replaced by the default one
+			return false;
+		} finally {
+			if(!restored){
+				pool.release(iterations);
+				pool.release(escape);
+			}
+		}
+	}
+
 	/**
 	 * Changes the maximum number of iterations to try in the Mandelbrot Set and 
 	 * redraws the Mandelbrot set.
@@ -356,6 +729,7 @@ public class FractalPanel extends JPanel {
 	 */
 	public void changeIterations(int max){
 		this.max = max;
+		stale = true;
 		repaint();
 	}
 
@@ -373,6 +747,42 @@ public class FractalPanel extends JPanel {
 		return new Complex(real, imaginary);
 	}
 	
+	/**
+	 * Returns the complex number at the centre of the screen.
+	 * 
+	 * @return The centre of the screen.
+	 */
+	public Complex getCentre(){
+		return new Complex(middleXVal, middleYVal);
+	}
+	
+	/**
+	 * Returns the range across the real axis currently shown.
+	 * 
+	 * @return The range across the real axis.
+	 */
+	public double getRealAxis(){
+		return realAxis;
+	}
+	
+	/**
+	 * Returns the range across the imaginary axis currently shown.
+	 * 
+	 * @return The range across the imaginary axis.
+	 */
+	public double getImaginaryAxis(){
+		return imaginaryAxis;
+	}
+	
+	/**
+	 * Returns the maximum number of iterations currently used.
+	 * 
+	 * @return The maximum number of iterations.
+	 */
+	public int getMax(){
+		return max;
+	}
+	
 	/**
 	 * Changes the thread option to be used to the given integer.
 	 * 
@@ -382,6 +792,138 @@ public class FractalPanel extends JPanel {
 		this.threadType = i;
 	}
 	
+	/**
+	 * Changes whether the fractal is coloured smoothly or in bands, and redraws it.
+	 * 
+	 * @param smooth The boolean option.
+	 */
+	public void setSmooth(boolean smooth){
+		this.smooth = smooth;
+		recolour();
+	}
+	
+	/**
+	 * Changes whether the colours are spread evenly over the distribution of iterations,
+	 * and recolours the fractal.
+	 * 
+	 * @param equalised The boolean option.
+	 */
+	public void setEqualised(boolean equalised){
+		this.equalised = equalised;
+		recolour();
+	}
+	
+	/**
+	 * Changes whether the edges of the fractal are anti-aliased, and redraws it.
+	 * 
+	 * @param antiAlias The boolean option.
+	 */
+	public void setAntiAlias(boolean antiAlias){
+		this.antiAlias = antiAlias;
+		stale = true;
+		repaint();
+	}
+	
+	/**
+	 * Changes whether views shallow enough are iterated in single precision, and redraws
+	 * the fractal. Deeper views are always iterated in double precision.
+	 * 
+	 * @param fastShallow The boolean option.
+	 */
+	public void setFastShallow(boolean fastShallow){
+		this.fastShallow = fastShallow;
+		stale = true;
+		repaint();
+	}
+	
+	/**
+	 * Changes whether the interior of the set is found early from the derivative of each
+	 * orbit, and redraws the fractal showing how much work it saved.
+	 * 
+	 * @param interiorCheck The boolean option.
+	 */
+	public void setInteriorCheck(boolean interiorCheck){
+		this.interiorCheck = interiorCheck;
+		stale = true;
+		repaint();
+	}
+	
+	/**
+	 * Changes whether the maximum number of iterations is picked for each view, and redraws
+	 * the fractal. Every time a picked maximum is shown a "max" property change is fired.
+	 * 
+	 * @param autoIterations The boolean option.
+	 */
+	public void setAutoIterations(boolean autoIterations){
+		this.autoIterations = autoIterations;
+		stale = true;
+		repaint();
+	}
+	
+	/**
+	 * Changes how deep the black pixels of each finished image are iterated in the
+	 * background, starting on the image being shown straight away.
+	 * 
+	 * @param deepening The most iterations to deepen to, or 0 to stop deepening.
+	 */
+	public void setDeepening(int deepening){
+		this.deepening = deepening;
+		if(shown != null && shown.number == generation && !stale){
+			deepen(shown);
+		}
+	}
+	
+	/**
+	 * Returns how deep the black pixels of each finished image are iterated in the background.
+	 * 
+	 * @return The most iterations deepened to, or 0 if they aren't deepened.
+	 */
+	public int getDeepening(){
+		return deepening;
+	}
+	
+	/**
+	 * Changes the shape of the orbit trap, and redraws the fractal. The smallest distance
+	 * to the trap is kept for each pixel while it is iterated, so the orbit trap kernels are
+	 * used in place of the single precision and interior checking ones while there is a trap.
+	 * 
+	 * @param trapShape The shape of the trap, or -1 for no trap.
+	 */
+	public void setTrapShape(int trapShape){
+		this.trapShape = trapShape;
+		stale = true;
+		repaint();
+	}
+	
+	/**
+	 * Changes how the fractal is shaded by the orbit trap, and recolours it.
+	 * 
+	 * @param trapShading One of the shadings of {@link Palette}.
+	 */
+	public void setTrapShading(int trapShading){
+		this.trapShading = trapShading;
+		recolour();
+	}
+	
+	/**
+	 * Changes the palette used to colour the fractal, and recolours it.
+	 * 
+	 * @param palette The new palette.
+	 */
+	public void setPalette(Palette palette){
+		this.palette = palette;
+		recolour();
+	}
+	
+	/**
+	 * Repaints the fractal using the iterations already calculated, without iterating
+	 * anything again.
+	 */
+	private void recolour(){
+		recolourOnly = true;
+		repaint();
+	}
+	
 	/**
 	 * Changes the option to use zoom animations or not.
 	 * 
@@ -440,6 +982,11 @@ public class FractalPanel extends JPanel {
 			int width = Math.abs(mouseStart.x - e.getPoint().x);
 			int height = Math.abs(mouseStart.y - e.getPoint().y);
 			zoomBox = new Rectangle(x, y, width, height);
+			//starts rendering the area under the box in the background while the user decides
+			if(width > 0 && height > 0){
+				zoomPreview.request(zoomBox, xValue(x), xValue(x + width), yValue(y + height), yValue(y), fractalType, power, formula,
+						max, palette, smooth, equalised, getWidth()/PREVIEW_SCALE, getHeight()/PREVIEW_SCALE);
+			}
 			repaint();
 
 		}
@@ -463,6 +1010,16 @@ public class FractalPanel extends JPanel {
 			if(finalX != mouseStart.x && finalY != mouseStart.y){
 				//can zoom with the user dragging the rectangle in any direction
 				zoomBox = null;
+				int x = Math.min(mouseStart.x, finalX);
+				int y = Math.min(mouseStart.y, finalY);
+				Rectangle box = new Rectangle(x, y, Math.abs(mouseStart.x - finalX), Math.abs(mouseStart.y - finalY));
+				BufferedImage ready = zoomPreview.take(box);
+				if(ready != null){
+					//the preview already shows where the zoom ends, so it replaces the animation
+					preview = ready;
+					updatePlane(xValue(x), xValue(x + box.width), yValue(y + box.height), yValue(y));
+					return;
+				}
 				final double upperX = middleXVal + (realAxis/2);
 				final double lowerX = middleXVal - (realAxis/2);
 				final double topY = middleYVal+(imaginaryAxis/2);
@@ -545,74 +1102,402 @@ public class FractalPanel extends JPanel {
 					}
 
 				}
+			}else{
+				zoomPreview.cancel();
 			}
 			
 		}
 	}
 
 	/**
-	 * Thread to paint a section of the fractal to the Buffered Image.
+	 * A single image of the fractal being generated in the background. Everything
+	 * about the view is copied when it is created, so the view can change while
+	 * the image is being generated.
 	 * 
 	 * @author Daniel
 	 *
 	 */
-	@SuppressWarnings("rawtypes")
-	class FractalWorker extends SwingWorker{
+	class FractalRender implements Runnable {
 		/**
-		 * The upper x pixel to go up to.
+		 * The number of this image, compared with the latest to tell whether it has been abandoned.
 		 */
-		private int limit;
+		private final int number;
 		/**
-		 * The height to iterate over.
+		 * The width of the image.
 		 */
-		private int height;
+		private final int width;
 		/**
-		 * The lower x pixel to start at.
+		 * The height of the image.
 		 */
-		private int lower;
+		private final int height;
 		/**
-		 * Contains whether the thread has finished.
+		 * An int representation of the fractal type.
 		 */
-		private volatile boolean  finish = false;
+		private final int fractalType;
 		/**
-		 * The graphics used to colour in the fractal image.
+		 * The power used by a Multibrot set of type {@link Kernel#MULTIBROT}.
 		 */
-		private Graphics2D drawer;
+		private final double power;
+		/**
+		 * The maximum number of iterations, picked from the view just before iterating if
+		 * chosen.
+		 */
+		private int max;
+		/**
+		 * The maximum number of iterations asked for or picked, before any deepening.
+		 */
+		private int base;
+		/**
+		 * Holds whether the maximum number of iterations is picked from the view.
+		 */
+		private final boolean autoIterations;
+		/**
+		 * The coordinates of the centre of the image.
+		 */
+		private final int middleXCo, middleYCo;
+		/**
+		 * The numerical value of each pixel across and down.
+		 */
+		private final double pixelValueX, pixelValueY;
+		/**
+		 * The numerical value of the centre of the image across and down.
+		 */
+		private final double middleXVal, middleYVal;
+		/**
+		 * Holds whether the view is shallow enough to iterate in single precision.
+		 */
+		private final boolean singlePrecision;
+		/**
+		 * Holds whether the pixels are large enough to raise to a real power with fast approximations.
+		 */
+		private final boolean fastPower;
+		/**
+		 * Holds whether the interior is found early from the derivative of each orbit.
+		 */
+		private final boolean interiorCheck;
+		/**
+		 * The shape of the orbit trap, or -1 if there isn't one.
+		 */
+		private final int trapShape;
+		/**
+		 * The formula used if the fractal type is {@link Kernel#CUSTOM}.
+		 */
+		private final Formula formula;
+		/**
+		 * Holds whether the edges are anti-aliased.
+		 */
+		private final boolean antiAlias;
+		/**
+		 * An int representation of the number of threads being used.
+		 */
+		private final int threadType;
+		/**
+		 * The symmetry of the fractal being generated.
+		 */
+		private Symmetry symmetry;
+		/**
+		 * The number of iterations for each pixel.
+		 */
+		private int[] iterations;
+		/**
+		 * The square of the modulus of each pixel once it escaped.
+		 */
+		private float[] escape;
+		/**
+		 * The square of the smallest distance to the orbit trap for each pixel, or null.
+		 */
+		private float[] trap;
+		/**
+		 * The extra samples taken along the edges, if anti-aliased.
+		 */
+		private Supersampler supersampler;
+		/**
+		 * The work saved by finding the interior early, if it was looked for.
+		 */
+		private InteriorCount interiorCount;
+		/**
+		 * The image this one continues from, which shows the same view, or null.
+		 */
+		private FractalRender previous;
+		/**
+		 * The size of the previous image, or 0 if there isn't one.
+		 */
+		private int previousWidth, previousHeight;
+		/**
+		 * The maximum number of iterations of the previous image.
+		 */
+		private int previousMax;
+		/**
+		 * How many pixels across and down this image is moved from the previous one.
+		 */
+		private int offsetX, offsetY;
 
 		/**
-		 * Creates the thread, and gives the limits of the area it should colour.
+		 * Copies the current view for a new image.
 		 * 
-		 * @param lower The lower x pixel to start from.
-		 * @param limit The upper x pixel limit to end at.
-		 * @param height The height of the image to paint.
+		 * @param number The number of the image.
+		 * @param width The width of the image.
+		 * @param height The height of the image.
 		 */
-		public FractalWorker(int lower, int limit, int height){
-			this.limit = limit;
+		public FractalRender(int number, int width, int height){
+			this.number = number;
+			this.width = width;
 			this.height = height;
-			this.lower = lower;
-			drawer = fractal.createGraphics();
+			fractalType = FractalPanel.this.fractalType;
+			power = FractalPanel.this.power;
+			max = FractalPanel.this.max;
+			base = max;
+			autoIterations = FractalPanel.this.autoIterations;
+			middleXCo = width / 2 + 1;
+			middleYCo = height / 2 + 1;
+			pixelValueX = realAxis/width;
+			pixelValueY = imaginaryAxis/height;
+			middleXVal = FractalPanel.this.middleXVal;
+			middleYVal = FractalPanel.this.middleYVal;
+			trapShape = FractalPanel.this.trapShape;
+			double largest = Math.hypot(Math.abs(middleXVal) + realAxis/2, Math.abs(middleYVal) + imaginaryAxis/2);
+			singlePrecision = fastShallow && trapShape < 0 && Kernel.singlePrecision(pixelValueX, pixelValueY, largest);
+			fastPower = Kernel.fastPower(pixelValueX, pixelValueY);
+			interiorCheck = FractalPanel.this.interiorCheck && trapShape < 0;
+			formula = FractalPanel.this.formula;
+			antiAlias = FractalPanel.this.antiAlias;
+			threadType = FractalPanel.this.threadType;
+		}
+
+		/**
+		 * Reuses the pixels of the given image which are still in this one, if it shows the
+		 * same view. Its pixels are the same size, so they only move by whole pixels. If the
+		 * maximum is being picked the one picked for the given image is kept, and if the given
+		 * image was deepened this one is as deep.
+		 * 
+		 * @param shown The image being shown, or null.
+		 */
+		private void continueFrom(FractalRender shown){
+			if(shown == null || shown.fractalType != fractalType || shown.power != power
+					|| (fractalType == Kernel.CUSTOM && shown.formula != formula)
+					|| shown.autoIterations != autoIterations || (!autoIterations && shown.base != base)
+					|| shown.middleXVal != middleXVal || shown.middleYVal != middleYVal
+					|| shown.singlePrecision != singlePrecision || shown.interiorCheck != interiorCheck
+					|| shown.trapShape != trapShape || !samePixel(shown.pixelValueX, pixelValueX) || !samePixel(shown.pixelValueY, pixelValueY)){
+				return;
+			}
+			previous = shown;
+			max = shown.max;
+			base = shown.base;
+			previousMax = shown.max;
+			previousWidth = shown.width;
+			previousHeight = shown.height;
+			offsetX = middleXCo - shown.middleXCo;
+			offsetY = middleYCo - shown.middleYCo;
 		}
 		
 		/**
-		 * Loops through the section given to colour, calculates the correct colour according
-		 * to the number of iterations, and colours that pixel in. Sets a boolean to true when
-		 * completely finished.
-		 * @see javax.swing.SwingWorker#doInBackground()
+		 * Makes this image a deeper copy of the given one, which shows the same view. Pixels
+		 * which escaped or were found inside are copied, and only the black pixels which could
+		 * still escape are iterated again.
+		 * 
+		 * @param shown The image being shown.
+		 * @param max The deeper maximum number of iterations.
+		 */
+		private void deepenFrom(FractalRender shown, int max){
+			previous = shown;
+			this.max = max;
+			base = shown.base;
+			previousMax = shown.max;
+			previousWidth = shown.width;
+			previousHeight = shown.height;
+		}
+
+		/**
+		 * Checks whether two pixel sizes are the same apart from rounding, close enough
+		 * that the difference doesn't add up to anything across the whole image.
+		 * 
+		 * @param a One pixel size.
+		 * @param b The other pixel size.
+		 * @return True if they are the same.
+		 */
+		private boolean samePixel(double a, double b){
+			return Math.abs(a - b) <= a*1e-9;
+		}
+
+		/**
+		 * Checks whether a pixel of this image was in the previous image, so it can be copied.
+		 * If this image is deeper only the pixels which escaped or were found inside are kept.
+		 * 
+		 * @param x The x coordinate of the pixel.
+		 * @param y The y coordinate of the pixel.
+		 * @return True if the pixel can be copied.
+		 */
+		private boolean reused(int x, int y){
+			if(x - offsetX < 0 || x - offsetX >= previousWidth || y - offsetY < 0 || y - offsetY >= previousHeight){
+				return false;
+			}
+			int index = y*width + x;
+			return previousMax == max || iterations[index] < previousMax || escape[index] < 0;
+		}
+
+		/**
+		 * Gives the buffers of the image back to the pool once it is no longer needed.
+		 */
+		private void release(){
+			pool.release(iterations);
+			pool.release(escape);
+			pool.release(trap);
+		}
+
+		/**
+		 * Checks whether a newer image has been started since this one.
+		 * 
+		 * @return True if this image has been abandoned.
+		 */
+		private boolean cancelled(){
+			return number != generation;
+		}
+
+		/**
+		 * Generates the image. The image is split into tiles of columns which are either
+		 * iterated in turn on this thread or handed to the render scheduler as interactive
+		 * work, depending on the thread type option.
+		 * If the set is symmetric about the real axis and the axis is on screen only one
+		 * half is iterated and the other half is mirrored from it. Pixels which were in the
+		 * previous image are copied rather than iterated. If chosen, the maximum number of
+		 * iterations is picked by an {@link IterationTuner} first. Once finished the image is
+		 * handed to the event dispatch thread to be shown.
+		 * 
+		 * @see java.lang.Runnable#run()
 		 */
 		@Override
-		protected Object doInBackground() throws Exception {
-			for(int x = lower; x < limit; x++){
+		public void run(){
+			if(autoIterations && previous == null){
+				IterationTuner tuner = new IterationTuner(fractalType, power, formula, middleXVal - width*pixelValueX/2, middleXVal + width*pixelValueX/2,
+						middleYVal - height*pixelValueY/2, middleYVal + height*pixelValueY/2);
+				while(!cancelled() && tuner.deepen(threadType == 1)){
+					//deepens until more iterations would change almost nothing
+				}
+				if(cancelled()){
+					return;
+				}
+				max = tuner.getMax();
+				base = max;
+			}
+			iterations = pool.ints(width*height);
+			escape = pool.floats(width*height);
+			trap = trapShape < 0 ? null : pool.floats(width*height);
+			if(previous != null){
+				//copies the part of the previous image still on screen, a row at a time
+				int lower = Math.max(0, offsetX);
+				int limit = Math.min(width, previous.width + offsetX);
+				for(int y = Math.max(0, offsetY); y < Math.min(height, previous.height + offsetY) && lower < limit; y++){
+					int from = (y - offsetY)*previous.width + lower - offsetX;
+					System.arraycopy(previous.iterations, from, iterations, y*width + lower, limit - lower);
+					System.arraycopy(previous.escape, from, escape, y*width + lower, limit - lower);
+					if(trap != null){
+						System.arraycopy(previous.trap, from, trap, y*width + lower, limit - lower);
+					}
+				}
+				//the previous image only needs to be held on to while copying
+				previous = null;
+				if(previousMax != max){
+					//pixels found inside are still inside, and stay black at the deeper maximum
+					for(int i = 0; i < iterations.length; i++){
+						if(escape[i] < 0){
+							iterations[i] = max;
+						}
+					}
+				}
+			}
+			symmetry = Symmetry.mandelbrot(fractalType, power, formula, width, height, middleXCo, middleYCo, pixelValueX, pixelValueY, middleXVal, middleYVal);
+			
+			//each tile goes down the screen first for every pixel across it
+			List<Runnable> tiles = new ArrayList<Runnable>();
+			for(int x = 0; x < width; x += TILE){
+				final int lower = x;
+				final int limit = Math.min(width, x + TILE);
+				tiles.add(new Runnable(){
+					@Override
+					public void run() {
+						iterateSection(lower, limit);
+					}
+				});
+			}
+			RenderScheduler.get().run(RenderScheduler.INTERACTIVE, tiles, threadType == 1);
+			if(cancelled()){
+				release();
+				return;
+			}
+			interiorCount = interiorCheck ? new InteriorCount(iterations, escape, max, width, symmetry) : null;
+			
+			//copies the mirrored half of the image from the half that was iterated
+			symmetry.fill(iterations);
+			symmetry.fill(escape);
+			if(trap != null){
+				symmetry.fill(trap);
+			}
+			
+			//the edges are coloured by iterations, which an orbit trap doesn't use
+			supersampler = antiAlias && trap == null ? supersample(iterations, RenderScheduler.INTERACTIVE) : null;
+			if(cancelled()){
+				release();
+				return;
+			}
+			SwingUtilities.invokeLater(new Runnable(){
+				@Override
+				public void run() {
+					finish(FractalRender.this);
+				}
+			});
+		}
+
+		/**
+		 * Iterates every pixel in the given section of the image which isn't a mirror
+		 * image of another pixel, storing the number of iterations for each one. Stops
+		 * between columns once the image has been abandoned. If chosen, iterates in single
+		 * precision while the view is shallow enough, and moves up to double precision past that.
+		 * Looking for the interior early is only done in double precision. With an orbit trap
+		 * the distance to the trap is kept instead.
+		 * 
+		 * @param lower The lower x pixel to start from.
+		 * @param limit The upper x pixel limit to end at.
+		 */
+		private void iterateSection(int lower, int limit){
+			for(int x = lower; x < limit && !cancelled(); x++){
 				for(int y = 0; y < height; y++){
-					double paintColour = mandelbrotIterations(((x-middleXCo)*pixelValueX)+middleXVal, ((middleYCo-y)*pixelValueY)+middleYVal);
-					Color myColour = (paintColour==max) ? Color.BLACK : new Color(255, 255-((int) (paintColour*7) % 255), 0);
-					drawer.setColor(myColour);
-					drawer.drawLine(x, y, x, y);
+					if(!symmetry.isMirrored(x, y) && !reused(x, y)){
+						int index = y*width + x;
+						double real = ((x-middleXCo)*pixelValueX)+middleXVal;
+						double imaginary = ((middleYCo-y)*pixelValueY)+middleYVal;
+						if(trap != null){
+							iterations[index] = Kernel.mandelbrotTrap(fractalType, power, formula, fastPower, real, imaginary, max, escape, trap, trapShape, index);
+						}else if(interiorCheck){
+							iterations[index] = Kernel.mandelbrotInterior(fractalType, power, formula, fastPower, real, imaginary, max, escape, index);
+						}else if(singlePrecision){
+							iterations[index] = Kernel.mandelbrotFloat(fractalType, power, formula, fastPower, (float) real, (float) imaginary, max, escape, index);
+						}else{
+							iterations[index] = Kernel.mandelbrot(fractalType, power, formula, fastPower, real, imaginary, max, escape, index);
+						}
+					}
 				}
 			}
-			this.finish = true;
-			//drawer.dispose();
-			return null;
 		}
 
+		/**
+		 * Finds the pixels along the edges of the image and samples them again.
+		 * 
+		 * @param iterations The number of iterations for each pixel.
+		 * @param priority The priority of the work in the render scheduler.
+		 * @return The supersampler holding the extra samples.
+		 */
+		private Supersampler supersample(int[] iterations, int priority){
+			Supersampler supersampler = new Supersampler(iterations, width, height, max);
+			supersampler.sample(new Supersampler.Sampler(){
+				@Override
+				public int sample(double x, double y, float[] escape, int index) {
+					double real = ((x-middleXCo)*pixelValueX)+middleXVal;
+					double imaginary = ((middleYCo-y)*pixelValueY)+middleYVal;
+					return Kernel.mandelbrot(fractalType, power, formula, fastPower, real, imaginary, max, escape, index);
+				}
+			}, priority, threadType == 1);
+			return supersampler;
+		}
 	}
 }
@@ -0,0 +1,96 @@
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * The cumulative distribution of the number of iterations over a whole image, used
+ * to spread the colours of a palette evenly over the pixels which escaped. Counting
+ * is split into sections on the render scheduler, each with its own histogram, which
+ * are merged once they have all finished. Only the iteration buffer is read, so the
+ * histogram can be kept and reused whenever the image is recoloured.
+ *
+ * @author Daniel
+ *
+ */
+public class Histogram {
+
+	/**
+	 * For each number of iterations, the fraction of escaped pixels which escaped
+	 * in fewer iterations.
+	 */
+	private double[] cumulative;
+
+	/**
+	 * Builds the histogram for the given iterations, counting one section for each
+	 * processor on the render scheduler if parallel.
+	 *
+	 * @param iterations The number of iterations for each pixel.
+	 * @param max The maximum number of iterations, pixels reaching it aren't counted.
+	 * @param priority The priority of the counting in the render scheduler.
+	 * @param parallel Whether to share the counting out between the scheduler's threads.
+	 */
+	public Histogram(final int[] iterations, final int max, int priority, boolean parallel){
+		int sections = parallel ? Runtime.getRuntime().availableProcessors() : 1;
+		final int[][] counts = new int[sections][];
+		List<Runnable> tiles = new ArrayList<Runnable>();
+		int chunk = (iterations.length + sections - 1)/sections;
+		for(int t = 0; t < sections; t++){
+			final int section = t;
+			final int lower = Math.min(iterations.length, t*chunk);
+			final int limit = Math.min(iterations.length, lower + chunk);
+			tiles.add(new Runnable(){
+				/*
+				 * Counts the section of the image into its own histogram.
+				 */
+				@Override
+				public void run() {
+					int[] count = new int[max + 1];
+					for(int i = lower; i < limit; i++){
+						count[iterations[i]]++;
+					}
+					counts[section] = count;
+				}
+			});
+		}
+		RenderScheduler.get().run(priority, tiles, parallel);
+
+		//merges the histograms of each section once they have all finished
+		int[] total = new int[max + 1];
+		for(int t = 0; t < sections; t++){
+			//a section is missing if the counting was interrupted
+			if(counts[t] == null){
+				continue;
+			}
+			for(int i = 0; i < max; i++){
+				total[i] += counts[t][i];
+			}
+		}
+
+		long escaped = 0;
+		for(int i = 0; i < max; i++){
+			escaped += total[i];
+		}
+		//one extra entry so the next count along can always be looked up
+		cumulative = new double[max + 2];
+		long sum = 0;
+		for(int i = 0; i < max; i++){
+			cumulative[i] = escaped == 0 ? 0 : (double) sum/escaped;
+			sum += total[i];
+		}
+		cumulative[max] = 1;
+		cumulative[max + 1] = 1;
+	}
+
+	/**
+	 * Finds the position of a number of iterations within the distribution,
+	 * blending towards the next count along by the given fraction.
+	 *
+	 * @param iterations The whole number of iterations.
+	 * @param fraction How far towards the next number of iterations, between 0 and 1.
+	 * @return The position between 0 and 1.
+	 */
+	public double position(int iterations, double fraction){
+		double lower = cumulative[iterations];
+		return lower + (cumulative[iterations + 1] - lower)*fraction;
+	}
+}
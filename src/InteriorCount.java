@@ -0,0 +1,60 @@
+import java.text.DecimalFormat;
+
+
+/**
+ * Counts how much work checking the derivative for the interior of a set saved on one
+ * image. Pixels found inside early have minus the number of iterations they took stored
+ * in place of their escape value, so the counts can be worked out from the image itself.
+ *
+ * @author Daniel
+ *
+ */
+public class InteriorCount {
+
+	/**
+	 * The number of pixels iterated, and of those found inside early.
+	 */
+	private int pixels, interior;
+	/**
+	 * The number of iterations done, and the number skipped by stopping early.
+	 */
+	private long done, saved;
+
+	/**
+	 * Counts the work saved on an image. Pixels which are mirror images of others weren't
+	 * iterated, so aren't counted.
+	 *
+	 * @param iterations The number of iterations for each pixel.
+	 * @param escape The escape value of each pixel.
+	 * @param max The maximum number of iterations.
+	 * @param width The width of the image.
+	 * @param symmetry The symmetry of the image.
+	 */
+	public InteriorCount(int[] iterations, float[] escape, int max, int width, Symmetry symmetry){
+		for(int i = 0; i < iterations.length; i++){
+			if(symmetry.isMirrored(i % width, i / width)){
+				continue;
+			}
+			pixels++;
+			if(escape[i] < 0){
+				interior++;
+				done += (long) -escape[i];
+				saved += max + (long) escape[i];
+			}else{
+				done += iterations[i];
+			}
+		}
+	}
+
+	/**
+	 * Describes the work saved, to show on the image.
+	 *
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString(){
+		DecimalFormat percent = new DecimalFormat("0.0%");
+		return "Interior " + interior + "/" + pixels + " px, "
+				+ percent.format(done + saved == 0 ? 0 : (double) saved/(done + saved)) + " iterations saved";
+	}
+}
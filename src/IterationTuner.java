@@ -0,0 +1,174 @@
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Picks the maximum number of iterations for a view of the Mandelbrot set from a coarse
+ * grid of sample points across it. The samples are iterated to a low maximum first, and
+ * the maximum is doubled for those still unescaped over and over, keeping track of how
+ * many escape with each doubling. Once a doubling lets almost none of the samples escape,
+ * going deeper would change almost nothing on the image, so the maximum before it is used.
+ * Deep views can need thousands of iterations before anything escapes at all, so the
+ * maximum keeps doubling until some of the samples have escaped, up to a limit in case
+ * the whole view is inside the set, when the lowest maximum is used as nothing is gained.
+ * Samples found inside the set from the derivative of their orbit never escape however
+ * deep the image goes, so they are dropped rather than iterated again.
+ *
+ * @author Daniel
+ *
+ */
+public class IterationTuner {
+
+	/**
+	 * The number of samples across and down the view.
+	 */
+	private static final int GRID = 64;
+	/**
+	 * The lowest maximum picked, the same as the default.
+	 */
+	private static final int FLOOR = 100;
+	/**
+	 * The highest maximum picked, however much the samples are still escaping.
+	 */
+	private static final int CEILING = 1 << 18;
+	/**
+	 * The highest maximum tried while none of the samples have escaped.
+	 */
+	private static final int SEARCH = 1 << 14;
+	/**
+	 * The fraction of the samples a doubling has to let escape to be worth the extra iterations.
+	 */
+	private static final double TOLERANCE = 0.001;
+	/**
+	 * The number of samples iterated by each tile handed to the render scheduler.
+	 */
+	private static final int BATCH = 64;
+
+	/**
+	 * An int representation of the fractal type.
+	 */
+	private int fractalType;
+	/**
+	 * The power used by a Multibrot set of type {@link Kernel#MULTIBROT}.
+	 */
+	private double power;
+	/**
+	 * The formula used by a fractal of type {@link Kernel#CUSTOM}, or null for any other type.
+	 */
+	private Formula formula;
+	/**
+	 * Holds whether the samples are far enough apart to raise to a real power with fast approximations.
+	 */
+	private boolean fast;
+	/**
+	 * The real and imaginary part of each sample still unescaped.
+	 */
+	private double[] real, imaginary;
+	/**
+	 * The number of samples still unescaped, at the start of the arrays.
+	 */
+	private int unescaped;
+	/**
+	 * The number of samples which have escaped so far.
+	 */
+	private int escaped;
+	/**
+	 * The maximum the samples have been iterated to.
+	 */
+	private int max;
+	/**
+	 * Holds whether a doubling has let too few samples escape to be worth it.
+	 */
+	private boolean settled;
+
+	/**
+	 * Lays a grid of samples over the given area of the plane.
+	 *
+	 * @param fractalType An int representation of the fractal type.
+	 * @param power The power used by a Multibrot set of type {@link Kernel#MULTIBROT}.
+	 * @param formula The formula used by a fractal of type {@link Kernel#CUSTOM}, or null for any other type.
+	 * @param xLower The lower bound of the real axis.
+	 * @param xUpper The upper bound of the real axis.
+	 * @param yLower The lower bound of the imaginary axis.
+	 * @param yUpper The upper bound of the imaginary axis.
+	 */
+	public IterationTuner(int fractalType, double power, Formula formula, double xLower, double xUpper, double yLower, double yUpper){
+		this.fractalType = fractalType;
+		this.power = power;
+		this.formula = formula;
+		fast = Kernel.fastPower((xUpper - xLower)/GRID, (yUpper - yLower)/GRID);
+		real = new double[GRID*GRID];
+		imaginary = new double[GRID*GRID];
+		for(int y = 0; y < GRID; y++){
+			for(int x = 0; x < GRID; x++){
+				real[y*GRID + x] = xLower + (x + 0.5)*(xUpper - xLower)/GRID;
+				imaginary[y*GRID + x] = yUpper - (y + 0.5)*(yUpper - yLower)/GRID;
+			}
+		}
+		unescaped = real.length;
+	}
+
+	/**
+	 * Iterates the samples still unescaped to the next maximum, twice the last one, handing
+	 * them to the render scheduler as interactive work in batches. The first call iterates
+	 * every sample to the lowest maximum.
+	 *
+	 * @param parallel Whether the batches are shared between the render threads.
+	 * @return True if going deeper could still change the image, false once the maximum is picked.
+	 */
+	public boolean deepen(boolean parallel){
+		if(settled){
+			return false;
+		}
+		final int next = max == 0 ? FLOOR : max*2;
+		final int[] iterations = new int[unescaped];
+		final float[] escape = new float[unescaped];
+		List<Runnable> batches = new ArrayList<Runnable>();
+		for(int i = 0; i < unescaped; i += BATCH){
+			final int lower = i;
+			final int limit = Math.min(unescaped, i + BATCH);
+			batches.add(new Runnable(){
+				@Override
+				public void run() {
+					for(int s = lower; s < limit; s++){
+						iterations[s] = Kernel.mandelbrotInterior(fractalType, power, formula, fast, real[s], imaginary[s], next, escape, s);
+					}
+				}
+			});
+		}
+		RenderScheduler.get().run(RenderScheduler.INTERACTIVE, batches, parallel);
+		//keeps the samples which neither escaped nor were found inside, in place
+		int escapedNow = 0;
+		int kept = 0;
+		for(int s = 0; s < unescaped; s++){
+			if(iterations[s] < next){
+				escapedNow++;
+			}else if(escape[s] >= 0){
+				real[kept] = real[s];
+				imaginary[kept] = imaginary[s];
+				kept++;
+			}
+		}
+		unescaped = kept;
+		boolean started = escaped > 0;
+		escaped += escapedNow;
+		if(started && escapedNow < TOLERANCE*real.length){
+			//the last doubling wasn't worth it, so the maximum stays where it was
+			settled = true;
+			return false;
+		}
+		max = next;
+		settled = unescaped == 0 || max*2 > (escaped > 0 ? CEILING : SEARCH);
+		return !settled;
+	}
+
+	/**
+	 * Returns the maximum picked, or the deepest tried so far if it hasn't been picked yet.
+	 * If none of the samples have escaped it is the lowest maximum.
+	 *
+	 * @return The maximum number of iterations.
+	 */
+	public int getMax(){
+		return escaped > 0 ? max : FLOOR;
+	}
+}
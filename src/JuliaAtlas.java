@@ -0,0 +1,186 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * A grid of small Julia sets, one for each constant on a grid laid over an area of the
+ * plane, shown together as one image so they can be compared. Every cell is iterated
+ * straight into one buffer for the whole grid, each cell being handed to the render
+ * scheduler as a tile of its own. Each cell shows the same area of the plane as the
+ * Julia panel.
+ *
+ * @author Daniel
+ *
+ */
+public class JuliaAtlas {
+
+	/**
+	 * The number of cells across and down the grid.
+	 */
+	private int columns, rows;
+	/**
+	 * The size of each cell in pixels.
+	 */
+	private int cellWidth, cellHeight;
+	/**
+	 * The bounds of the area the constants are picked from.
+	 */
+	private double xLower, xUpper, yLower, yUpper;
+	/**
+	 * An int representation of the fractal type.
+	 */
+	private int fractalType;
+	/**
+	 * The power used by a Multibrot set of type {@link Kernel#MULTIBROT}.
+	 */
+	private double power;
+	/**
+	 * The formula used by a fractal of type {@link Kernel#CUSTOM}, or null for any other type.
+	 */
+	private Formula formula;
+	/**
+	 * The maximum number of iterations.
+	 */
+	private int max;
+	/**
+	 * The number of iterations for each pixel of the whole grid.
+	 */
+	private int[] iterations;
+	/**
+	 * The square of the modulus of each pixel of the whole grid once it escaped.
+	 */
+	private float[] escape;
+
+	/**
+	 * Creates a grid of Julia sets for the constants across the given area.
+	 *
+	 * @param columns The number of cells across.
+	 * @param rows The number of cells down.
+	 * @param cellWidth The width of each cell.
+	 * @param cellHeight The height of each cell.
+	 * @param xLower The lower bound of the real axis of the constants.
+	 * @param xUpper The upper bound of the real axis of the constants.
+	 * @param yLower The lower bound of the imaginary axis of the constants.
+	 * @param yUpper The upper bound of the imaginary axis of the constants.
+	 * @param fractalType An int representation of the fractal type.
+	 * @param power The power used by a Multibrot set of type {@link Kernel#MULTIBROT}.
+	 * @param formula The formula used by a fractal of type {@link Kernel#CUSTOM}, or null for any other type.
+	 * @param max The maximum number of iterations.
+	 */
+	public JuliaAtlas(int columns, int rows, int cellWidth, int cellHeight, double xLower, double xUpper, double yLower, double yUpper,
+			int fractalType, double power, Formula formula, int max){
+		this.columns = columns;
+		this.rows = rows;
+		this.cellWidth = cellWidth;
+		this.cellHeight = cellHeight;
+		this.xLower = xLower;
+		this.xUpper = xUpper;
+		this.yLower = yLower;
+		this.yUpper = yUpper;
+		this.fractalType = fractalType;
+		this.power = power;
+		this.formula = formula;
+		this.max = max;
+		iterations = new int[getWidth()*getHeight()];
+		escape = new float[getWidth()*getHeight()];
+	}
+
+	/**
+	 * Returns the width of the whole grid.
+	 *
+	 * @return The width in pixels.
+	 */
+	public int getWidth(){
+		return columns*cellWidth;
+	}
+
+	/**
+	 * Returns the height of the whole grid.
+	 *
+	 * @return The height in pixels.
+	 */
+	public int getHeight(){
+		return rows*cellHeight;
+	}
+
+	/**
+	 * Returns the constant of the Julia set in the cell holding the given pixel, from the
+	 * centre of the part of the area the cell covers.
+	 *
+	 * @param x The x coordinate of the pixel in the grid.
+	 * @param y The y coordinate of the pixel in the grid.
+	 * @return The constant.
+	 */
+	public Complex constant(int x, int y){
+		int column = Math.min(columns - 1, Math.max(0, x/cellWidth));
+		int row = Math.min(rows - 1, Math.max(0, y/cellHeight));
+		return new Complex(xLower + (column + 0.5)*(xUpper - xLower)/columns, yUpper - (row + 0.5)*(yUpper - yLower)/rows);
+	}
+
+	/**
+	 * Iterates every cell, handing each one to the render scheduler as preview work.
+	 */
+	public void render(){
+		List<Runnable> cells = new ArrayList<Runnable>();
+		for(int row = 0; row < rows; row++){
+			for(int column = 0; column < columns; column++){
+				final int left = column*cellWidth;
+				final int top = row*cellHeight;
+				final Complex c = constant(left, top);
+				cells.add(new Runnable(){
+					@Override
+					public void run() {
+						iterateCell(left, top, c);
+					}
+				});
+			}
+		}
+		RenderScheduler.get().run(RenderScheduler.PREVIEW, cells, true);
+	}
+
+	/**
+	 * Iterates one cell of the grid, using the same pixel to number conversion as the Julia panel.
+	 *
+	 * @param left The x coordinate of the left of the cell.
+	 * @param top The y coordinate of the top of the cell.
+	 * @param c The constant of the Julia set.
+	 */
+	private void iterateCell(int left, int top, Complex c){
+		int width = getWidth();
+		double pixelValueX = 4.0/cellWidth;
+		double pixelValueY = 3.2/cellHeight;
+		int middleXCo = cellWidth / 2 + 1;
+		int middleYCo = cellHeight / 2 + 1;
+		boolean fast = Kernel.fastPower(pixelValueX, pixelValueY);
+		for(int y = 0; y < cellHeight; y++){
+			for(int x = 0; x < cellWidth; x++){
+				int index = (top + y)*width + left + x;
+				iterations[index] = Kernel.julia(fractalType, power, formula, fast, (x-middleXCo)*pixelValueX, (middleYCo-y)*pixelValueY, c, max, escape, index);
+			}
+		}
+	}
+
+	/**
+	 * Colours the whole grid, with a dark line along the top and left of every cell.
+	 *
+	 * @param palette The palette to colour with.
+	 * @param smooth Whether to colour smoothly or in bands.
+	 * @return The image of the grid.
+	 */
+	public BufferedImage paint(Palette palette, boolean smooth){
+		BufferedImage image = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_RGB);
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		palette.paint(iterations, escape, max, Kernel.degree(fractalType, power, formula), smooth, null, pixels);
+		int width = getWidth();
+		for(int y = 0; y < getHeight(); y++){
+			for(int x = 0; x < width; x++){
+				if(x % cellWidth == 0 || y % cellHeight == 0){
+					pixels[y*width + x] = 0x202020;
+				}
+			}
+		}
+		return image;
+	}
+}
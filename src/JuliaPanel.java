@@ -1,10 +1,11 @@
-import java.awt.Color;
 import java.awt.Graphics;
-import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.swing.JPanel;
-import javax.swing.SwingWorker;
+import javax.swing.SwingUtilities;
 
 
 /**
@@ -16,6 +17,10 @@ import javax.swing.SwingWorker;
 @SuppressWarnings("serial")
 public class JuliaPanel extends JPanel{
 	
+	/**
+	 * The number of columns in each tile handed to the render scheduler.
+	 */
+	private static final int TILE = 16;
 	/**
 	 * The numerical value of each pixel across.
 	 */
@@ -45,34 +50,112 @@ public class JuliaPanel extends JPanel{
 	 */
 	private BufferedImage julia;
 	/**
-	 * One of five threads which paints a given area of a given buffered image.
+	 * An int representation of the type of fractal formula to be used.
 	 */
-	private JuliaWorker section1;
+	private int fractalType;
 	/**
-	 * One of five threads which paints a given area of a given buffered image.
+	 * The power z is raised to when the fractal type is a Multibrot set with a chosen power.
 	 */
-	private JuliaWorker section2;
+	private double power;
 	/**
-	 * One of five threads which paints a given area of a given buffered image.
+	 * The formula used when the fractal type is {@link Kernel#CUSTOM}.
+	 */
+	private Formula formula;
+	/**
+	 * An int representation of the number of threads being used on the buffered
+	 * image. A 0 means single thread, while 1 means multi threads.
 	 */
-	private JuliaWorker section3;
+	private int threadType;
 	/**
-	 * One of five threads which paints a given area of a given buffered image.
+	 * The number of iterations for each pixel of the Julia set, going across the image first.
 	 */
-	private JuliaWorker section4;
+	private int[] iterations;
 	/**
-	 * One of five threads which paints a given area of a given buffered image.
+	 * The square of the modulus of each pixel once it escaped, used for smooth colouring.
 	 */
-	private JuliaWorker section5;
+	private float[] escape;
 	/**
-	 * An int representation of the type of fractal formula to be used.
+	 * The square of the smallest distance from the orbit of each pixel to the orbit trap,
+	 * or null if there isn't a trap.
 	 */
-	private int fractalType;
+	private float[] trap;
 	/**
-	 * An int representation of the number of threads being used on the buffered
-	 * image. A 0 means single thread, while 1 means multi threads.
+	 * The palette used to colour the julia set.
 	 */
-	private int threadType;
+	private Palette palette;
+	/**
+	 * Holds whether the julia set is coloured smoothly or in bands.
+	 */
+	private boolean smooth;
+	/**
+	 * Holds whether the colours are spread evenly over the distribution of iterations.
+	 */
+	private boolean equalised;
+	/**
+	 * The histogram of the iterations of the current image, built when first needed.
+	 */
+	private Histogram histogram;
+	/**
+	 * Holds whether the edges of the Julia set are anti-aliased.
+	 */
+	private boolean antiAlias;
+	/**
+	 * Holds whether the Julia set is iterated in single precision when accurate enough.
+	 */
+	private boolean fastShallow;
+	/**
+	 * Holds whether the derivative of each orbit is followed to find the interior early.
+	 */
+	private boolean interiorCheck;
+	/**
+	 * The work saved by finding the interior early on the current image, or null.
+	 */
+	private InteriorCount interiorCount;
+	/**
+	 * The shape of the orbit trap, as given to {@link Kernel#trap(int, double, double)},
+	 * or -1 if there isn't one.
+	 */
+	private int trapShape = -1;
+	/**
+	 * How the Julia set is shaded by the orbit trap, one of the shadings of {@link Palette}.
+	 */
+	private int trapShading = Palette.TRAP;
+	/**
+	 * The buffers of replaced images, reused by the next image of the same size.
+	 */
+	private BufferPool pool;
+	/**
+	 * The extra samples taken along the edges of the current image, if anti-aliased.
+	 */
+	private Supersampler supersampler;
+	/**
+	 * An image to show until the Julia set being rendered is finished, or null.
+	 */
+	private BufferedImage preview;
+	/**
+	 * Holds whether the next paint only needs to recolour the current iterations.
+	 */
+	private boolean recolourOnly;
+	/**
+	 * Holds whether the Julia set has changed since the last image was started, so it needs generating again.
+	 */
+	private boolean stale;
+	/**
+	 * The number of the latest image started. Older images stop as soon as they see it change.
+	 */
+	private volatile int generation;
+	/**
+	 * The width of the latest image started.
+	 */
+	private int renderWidth;
+	/**
+	 * The height of the latest image started.
+	 */
+	private int renderHeight;
+	/**
+	 * The image being shown, or null before the first one is finished.
+	 */
+	private JuliaRender shown;
 	
 	/**
 	 * Creates a JuliaPanel, with default values for the max number
@@ -85,6 +168,11 @@ public class JuliaPanel extends JPanel{
 		this.c = c;
 		max = 100;
 		this.fractalType = fractalType;
+		power = 3;
+		formula = Formula.compile("z^2 + c");
+		palette = Palette.fire();
+		smooth = false;
+		pool = new BufferPool();
 	}
 	
 	/**
@@ -94,6 +182,37 @@ public class JuliaPanel extends JPanel{
 	 */
 	public void setC(Complex c){
 		this.c = c;
+		stale = true;
+	}
+	
+	/**
+	 * Sets the power used when the fractal type is {@link Kernel#MULTIBROT}.
+	 * 
+	 * @param power The power, greater than 1.
+	 */
+	public void setPower(double power){
+		this.power = power;
+		stale = true;
+	}
+	
+	/**
+	 * Sets the formula used when the fractal type is {@link Kernel#CUSTOM}. An image
+	 * already being rendered keeps the formula it was started with.
+	 * 
+	 * @param formula The compiled formula.
+	 */
+	public void setFormula(Formula formula){
+		this.formula = formula;
+		stale = true;
+	}
+	
+	/**
+	 * Sets an image to show, scaled up, until the Julia set being rendered is finished.
+	 * 
+	 * @param preview The image to show, or null for none.
+	 */
+	public void setPreview(BufferedImage preview){
+		this.preview = preview;
 	}
 	
 	/**
@@ -103,11 +222,14 @@ public class JuliaPanel extends JPanel{
 	 */
 	public void setFractalType(int fractalType){
 		this.fractalType = fractalType;
+		stale = true;
 	}
 
-	/** 
-	 * Paints the buffered image containing the Julia Set to the screen. First creates the
-	 * buffered image and then once the threads have finished it it's painted to the screen.
+	/**
+	 * Paints the buffered image containing the Julia Set to the screen. If the Julia set
+	 * has changed a new image is started in the background, and the last one is painted
+	 * until it is finished. If a preview has been given it is painted instead, scaled up
+	 * to fill the panel, until then.
 	 * 
 	 * @see javax.swing.JComponent#paintComponent(java.awt.Graphics)
 	 */
@@ -116,54 +238,103 @@ public class JuliaPanel extends JPanel{
 		int height = this.getHeight();
 		int width = this.getWidth();
 		pixelValues(height, width);
-		julia = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
-		generate(julia);
+		if(width > 0 && height > 0){
+			if(stale || width != renderWidth || height != renderHeight){
+				generate(width, height);
+			}else if(recolourOnly && julia != null){
+				//changing the colours doesn't change the iterations, so the image only needs recolouring
+				synchronized(this){
+					colour(julia);
+				}
+			}
+			recolourOnly = false;
+		}
+		if(preview != null){
+			g.drawImage(preview, 0, 0, width, height, null);
+			return;
+		}
 		g.drawImage(julia, 0, 0, null);
+		if(interiorCount != null){
+			FractalPanel.drawCount(g, interiorCount.toString(), height);
+		}
 	}
-	
+
 	/**
-	 * Generates the Julia set buffered image. Will either use one thread for the
-	 * whole image or five threads to each paint a section of the buffered image depending
-	 * on the thread type option. Gives each thread the section of the image for it 
-	 * to paint and starts each thread or for single threaded loops over the whole screen
-	 * going down the screen first for each pixel across.
+	 * Starts generating a new Julia set buffered image in the background, abandoning any
+	 * image still being generated. Each image is numbered, and every thread working on an
+	 * older image stops at the end of the column it is on. A finished image is only shown
+	 * if nothing newer has been started since.
 	 * 
-	 * @param julia The buffered image being generated.
+	 * @param width The width of the image.
+	 * @param height The height of the image.
 	 */
-	private void generate(BufferedImage julia){
-		int width = this.getWidth()/5;
-		int height = this.getHeight();
-		switch(threadType){
-		case 0:
-			//loops for every pixel on the screen, going down the screen first for every pixel across
-					for(int x = 0; x < this.getWidth(); x++){
-						for(int y = 0; y < this.getHeight(); y++){
-							int	paintColour = juliaIterations(((x-middleXCo)*pixelValueX), ((middleYCo-y)*pixelValueY));
-							Color myColour = (paintColour==max) ? Color.BLACK : new Color(255, 255-((int) (paintColour*7) % 255), 0);
-							julia.setRGB(x, y, myColour.getRGB());
-						}
-					}
-			break;
-		case 1:
-			section1 = new JuliaWorker(0, width, height);
-			section1.execute();
-			section2 = new JuliaWorker(width, width*2, height);
-			section2.execute();
-			section3 = new JuliaWorker(width*2, width*3, height);
-			section3.execute();
-			section4 = new JuliaWorker(width*3, width*4, height);
-			section4.execute();
-			section5 = new JuliaWorker(width*4, this.getWidth(), height);
-			section5.execute();
-			//waits until all the threads have finished
-			while(!(section1.finish && section2.finish && section3.finish && section4.finish && section5.finish)){
-			}
-			break;
+	private void generate(int width, int height){
+		stale = false;
+		renderWidth = width;
+		renderHeight = height;
+		Thread render = new Thread(new JuliaRender(++generation, width, height), "Julia render");
+		render.setDaemon(true);
+		render.start();
+	}
+
+	/**
+	 * Shows a finished image if it is still the latest one, colouring it with the current
+	 * options, and takes away the preview.
+	 * 
+	 * @param render The finished image.
+	 */
+	private void finish(JuliaRender render){
+		if(render.number != generation || stale){
+			render.release();
+			return;
 		}
-		
-		
+		JuliaRender replaced = shown;
+		BufferedImage replacedImage = julia;
+		BufferedImage image = pool.image(render.width, render.height);
+		//the image is replaced while holding the lock, so a copy being saved is never half done
+		synchronized(this){
+			shown = render;
+			iterations = render.iterations;
+			escape = render.escape;
+			trap = render.trap;
+			supersampler = render.supersampler;
+			interiorCount = render.interiorCount;
+			histogram = null;
+			colour(image);
+			julia = image;
+		}
+		if(replaced != null){
+			replaced.release();
+		}
+		pool.release(replacedImage);
+		preview = null;
+		repaint();
 	}
-	
+
+	/**
+	 * Colours the buffered image using the iterations already calculated for each pixel,
+	 * building the histogram of the iterations first if the colours are being equalised.
+	 * 
+	 * @param julia The buffered image being coloured.
+	 */
+	private void colour(BufferedImage julia){
+		int max = shown.max;
+		double degree = Kernel.degree(shown.fractalType, shown.power, shown.formula);
+		if(equalised && histogram == null){
+			histogram = new Histogram(iterations, max, RenderScheduler.PREVIEW, threadType == 1);
+		}
+		//colours each pixel straight into the image's pixel data
+		int[] pixels = ((DataBufferInt) julia.getRaster().getDataBuffer()).getData();
+		if(trap != null){
+			palette.paintTrap(iterations, escape, trap, max, degree, smooth, equalised ? histogram : null, trapShading, pixels);
+		}else{
+			palette.paint(iterations, escape, max, degree, smooth, equalised ? histogram : null, pixels);
+		}
+		if(supersampler != null){
+			supersampler.paint(palette, max, degree, smooth, equalised ? histogram : null, pixels);
+		}
+	}
+
 	/**
 	 * Allows the buffered image of the Julia Set to be accessed.
 	 * 
@@ -173,6 +344,37 @@ public class JuliaPanel extends JPanel{
 		return julia;
 	}
 	
+	/**
+	 * Returns an anti-aliased copy of the buffered image of the Julia set, for saving.
+	 * If the image is already anti-aliased it is just copied.
+	 * 
+	 * @return The anti-aliased buffered image.
+	 */
+	public BufferedImage getAntiAliasedJulia(){
+		BufferedImage copy;
+		int[] iterations;
+		JuliaRender view;
+		//copies the image before it can be replaced and its buffers reused
+		synchronized(this){
+			if(julia == null){
+				return null;
+			}
+			//the Julia set the image was rendered from, which the current one may have moved on from
+			view = shown;
+			copy = new BufferedImage(julia.getWidth(), julia.getHeight(), BufferedImage.TYPE_INT_RGB);
+			int[] original = ((DataBufferInt) julia.getRaster().getDataBuffer()).getData();
+			System.arraycopy(original, 0, ((DataBufferInt) copy.getRaster().getDataBuffer()).getData(), 0, original.length);
+			//the edges are coloured by iterations, which an orbit trap doesn't use
+			iterations = antiAlias || trap != null ? null : this.iterations.clone();
+		}
+		if(iterations != null){
+			Supersampler edges = view.supersample(iterations, RenderScheduler.EXPORT);
+			int[] pixels = ((DataBufferInt) copy.getRaster().getDataBuffer()).getData();
+			edges.paint(palette, view.max, Kernel.degree(view.fractalType, view.power, view.formula), smooth, equalised ? histogram : null, pixels);
+		}
+		return copy;
+	}
+	
 	/**
 	 * Calculates the value of each pixel in both the x and y axis' and 
 	 * calculates the coordinates of the middle of the Panel
@@ -188,49 +390,101 @@ public class JuliaPanel extends JPanel{
 	}
 	
 	/**
-	 * Iterates over the given Complex Number using the formula selected by the switch case
-	 * statement for the correct set until the given number diverges. The number of iterations is kept track of.
+	 * Changes whether the Julia set is coloured smoothly or in bands.
 	 * 
-	 * @param real The real part of the current Complex Number.
-	 * @param imaginary The imaginary part of the current Complex number.
-	 * @return the number of iterations before complex number diverges.
-	 */
-	private int juliaIterations(double real, double imaginary){
-		Complex previous = new Complex(real, imaginary);
-		int iterations = 0;
-		Complex next;
-		while(previous.modulusSquared()<4 && iterations < max){
-			switch (fractalType) {
-			case 0: //ordinary mandelbrot set
-				next = previous.square().add(c);
-				break;
-			case 1: //burning ship set
-				next = previous.burningShip().add(c);
-				break;
-			case 2: //tricorn set
-				next = previous.triCorn().add(c);
-				break;
-			case 3: //multibrot d=3
-				next = previous.square().multiply(previous).add(c);
-				break;
-			case 4: //multibrot d=4
-				next = previous.square().square().add(c);
-				break;
-			case 5: //multibrot d=5
-				next = previous.square().square().multiply(previous).add(c);
-				break;
-			case 6: //multibrot d=6
-				next = previous.square().square().multiply(previous.square()).add(c);
-				break;
-			default:
-				next = previous.square().add(c);
-				break;
-			}		
-			iterations++;
-			previous = next;
-		}
-		return iterations;
+	 * @param smooth The boolean option.
+	 */
+	public void setSmooth(boolean smooth){
+		this.smooth = smooth;
+		recolour();
 	}
+	
+	/**
+	 * Changes whether the colours are spread evenly over the distribution of iterations,
+	 * and recolours the Julia set.
+	 * 
+	 * @param equalised The boolean option.
+	 */
+	public void setEqualised(boolean equalised){
+		this.equalised = equalised;
+		recolour();
+	}
+	
+	/**
+	 * Changes whether the edges of the Julia set are anti-aliased, and redraws it.
+	 * 
+	 * @param antiAlias The boolean option.
+	 */
+	public void setAntiAlias(boolean antiAlias){
+		this.antiAlias = antiAlias;
+		stale = true;
+		repaint();
+	}
+	
+	/**
+	 * Changes whether the Julia set is iterated in single precision when accurate enough,
+	 * and redraws it.
+	 * 
+	 * @param fastShallow The boolean option.
+	 */
+	public void setFastShallow(boolean fastShallow){
+		this.fastShallow = fastShallow;
+		stale = true;
+		repaint();
+	}
+	
+	/**
+	 * Changes whether the interior of the Julia set is found early from the derivative of
+	 * each orbit, and redraws it showing how much work it saved.
+	 * 
+	 * @param interiorCheck The boolean option.
+	 */
+	public void setInteriorCheck(boolean interiorCheck){
+		this.interiorCheck = interiorCheck;
+		stale = true;
+		repaint();
+	}
+	
+	/**
+	 * Changes the shape of the orbit trap, and redraws the Julia set.
+	 * 
+	 * @param trapShape The shape of the trap, or -1 for no trap.
+	 */
+	public void setTrapShape(int trapShape){
+		this.trapShape = trapShape;
+		stale = true;
+		repaint();
+	}
+	
+	/**
+	 * Changes how the Julia set is shaded by the orbit trap, and recolours it.
+	 * 
+	 * @param trapShading One of the shadings of {@link Palette}.
+	 */
+	public void setTrapShading(int trapShading){
+		this.trapShading = trapShading;
+		recolour();
+	}
+	
+	/**
+	 * Changes the palette used to colour the Julia set, and recolours it.
+	 * 
+	 * @param palette The new palette.
+	 */
+	public void setPalette(Palette palette){
+		this.palette = palette;
+		recolour();
+	}
+	
+	/**
+	 * Repaints the Julia set using the iterations already calculated, without iterating
+	 * anything again.
+	 */
+	private void recolour(){
+		recolourOnly = true;
+		repaint();
+	}
+	
 	/**
 	 * Changes the thread option to be used to the given integer.
 	 * 
@@ -239,68 +493,255 @@ public class JuliaPanel extends JPanel{
 	public void setThread(int i) {
 		this.threadType = i;
 	}
-	
+
 	/**
-	 * Thread to paint a section of the julia set to the Buffered Image.
+	 * A single image of the Julia set being generated in the background. Everything
+	 * about the Julia set is copied when it is created, so it can change while the
+	 * image is being generated.
 	 * 
 	 * @author Daniel
 	 *
 	 */
-	@SuppressWarnings("rawtypes")
-	class JuliaWorker extends SwingWorker{
+	private class JuliaRender implements Runnable {
+		/**
+		 * The number of this image, compared with the latest to tell whether it has been abandoned.
+		 */
+		private final int number;
+		/**
+		 * The width of the image.
+		 */
+		private final int width;
+		/**
+		 * The height of the image.
+		 */
+		private final int height;
+		/**
+		 * An int representation of the fractal type.
+		 */
+		private final int fractalType;
+		/**
+		 * The power used by a Multibrot set of type {@link Kernel#MULTIBROT}.
+		 */
+		private final double power;
+		/**
+		 * The maximum number of iterations.
+		 */
+		private final int max;
+		/**
+		 * The base complex number.
+		 */
+		private final Complex c;
+		/**
+		 * The coordinates of the centre of the image.
+		 */
+		private final int middleXCo, middleYCo;
+		/**
+		 * The numerical value of each pixel across and down.
+		 */
+		private final double pixelValueX, pixelValueY;
+		/**
+		 * Holds whether the image is iterated in single precision.
+		 */
+		private final boolean singlePrecision;
+		/**
+		 * Holds whether the pixels are large enough to raise to a real power with fast approximations.
+		 */
+		private final boolean fastPower;
+		/**
+		 * Holds whether the interior is found early from the derivative of each orbit.
+		 */
+		private final boolean interiorCheck;
 		/**
-		 * The upper x pixel to go up to.
+		 * The shape of the orbit trap, or -1 if there isn't one.
 		 */
-		private int limit;
+		private final int trapShape;
 		/**
-		 * The height to iterate over.
+		 * The formula used if the fractal type is {@link Kernel#CUSTOM}.
 		 */
-		private int height;
+		private final Formula formula;
 		/**
-		 * The lower x pixel to start at.
+		 * Holds whether the edges are anti-aliased.
 		 */
-		private int lower;
+		private final boolean antiAlias;
 		/**
-		 * Contains whether the thread has finished.
+		 * An int representation of the number of threads being used.
 		 */
-		private volatile boolean finish = false;
+		private final int threadType;
 		/**
-		 * The graphics used to colour in the julia set image.
+		 * The symmetry of the Julia set being generated.
 		 */
-		private Graphics2D drawer;
-		
+		private Symmetry symmetry;
 		/**
-		 * Creates the thread, and gives the limits of the area it should colour.
+		 * The number of iterations for each pixel.
+		 */
+		private int[] iterations;
+		/**
+		 * The square of the modulus of each pixel once it escaped.
+		 */
+		private float[] escape;
+		/**
+		 * The square of the smallest distance to the orbit trap for each pixel, or null.
+		 */
+		private float[] trap;
+		/**
+		 * The extra samples taken along the edges, if anti-aliased.
+		 */
+		private Supersampler supersampler;
+		/**
+		 * The work saved by finding the interior early, if it was looked for.
+		 */
+		private InteriorCount interiorCount;
+
+		/**
+		 * Copies the current Julia set for a new image.
 		 * 
-		 * @param lower The lower x pixel to start from.
-		 * @param limit The upper x pixel limit to end at.
-		 * @param height The height of the image to paint.
+		 * @param number The number of the image.
+		 * @param width The width of the image.
+		 * @param height The height of the image.
 		 */
-		public JuliaWorker(int lower, int limit, int height){
-			this.limit = limit;
+		public JuliaRender(int number, int width, int height){
+			this.number = number;
+			this.width = width;
 			this.height = height;
-			this.lower = lower;
-			drawer = julia.createGraphics();
+			fractalType = JuliaPanel.this.fractalType;
+			power = JuliaPanel.this.power;
+			max = JuliaPanel.this.max;
+			c = JuliaPanel.this.c;
+			middleXCo = JuliaPanel.this.middleXCo;
+			middleYCo = JuliaPanel.this.middleYCo;
+			pixelValueX = JuliaPanel.this.pixelValueX;
+			pixelValueY = JuliaPanel.this.pixelValueY;
+			//the Julia set is never zoomed, so this only fails if the panel is huge
+			singlePrecision = fastShallow && Kernel.singlePrecision(pixelValueX, pixelValueY, 2 + Math.sqrt(c.modulusSquared()));
+			fastPower = Kernel.fastPower(pixelValueX, pixelValueY);
+			interiorCheck = JuliaPanel.this.interiorCheck;
+			trapShape = JuliaPanel.this.trapShape;
+			formula = JuliaPanel.this.formula;
+			antiAlias = JuliaPanel.this.antiAlias;
+			threadType = JuliaPanel.this.threadType;
+		}
+
+		/**
+		 * Gives the buffers of this image back to the pool once it is no longer needed.
+		 */
+		private void release(){
+			pool.release(iterations);
+			pool.release(escape);
+			pool.release(trap);
+		}
+
+		/**
+		 * Checks whether a newer image has been started since this one.
+		 * 
+		 * @return True if this image has been abandoned.
+		 */
+		private boolean cancelled(){
+			return number != generation;
 		}
+
 		/**
-		 * Loops through the section given to colour, calculates the correct colour according
-		 * to the number of iterations, and colours that pixel in. Sets a boolean to true when
-		 * completely finished.
-		 * @see javax.swing.SwingWorker#doInBackground()
+		 * Generates the image. The image is split into tiles of columns which are either
+		 * iterated in turn on this thread or handed to the render scheduler, below the main
+		 * view in priority, depending on the thread type option. Only the unique part of a
+		 * symmetric Julia set is iterated, the rest is mirrored from it. Once finished the
+		 * image is handed to the event dispatch thread to be shown.
+		 * 
+		 * @see java.lang.Runnable#run()
 		 */
 		@Override
-		protected Object doInBackground() throws Exception {
-			for(int x = lower; x < limit; x++){
+		public void run(){
+			iterations = pool.ints(width*height);
+			escape = pool.floats(width*height);
+			trap = trapShape < 0 ? null : pool.floats(width*height);
+			symmetry = Symmetry.julia(fractalType, power, formula, c, width, height, middleXCo, middleYCo, pixelValueX, pixelValueY);
+			//each tile goes down the screen first for every pixel across it
+			List<Runnable> tiles = new ArrayList<Runnable>();
+			for(int x = 0; x < width; x += TILE){
+				final int lower = x;
+				final int limit = Math.min(width, x + TILE);
+				tiles.add(new Runnable(){
+					@Override
+					public void run() {
+						iterateSection(lower, limit);
+					}
+				});
+			}
+			RenderScheduler.get().run(RenderScheduler.PREVIEW, tiles, threadType == 1);
+			if(cancelled()){
+				release();
+				return;
+			}
+			interiorCount = interiorCheck && trap == null ? new InteriorCount(iterations, escape, max, width, symmetry) : null;
+
+			//copies the mirrored parts of the image from the part that was iterated
+			symmetry.fill(iterations);
+			symmetry.fill(escape);
+			if(trap != null){
+				symmetry.fill(trap);
+			}
+
+			//the edges are coloured by iterations, which an orbit trap doesn't use
+			supersampler = antiAlias && trap == null ? supersample(iterations, RenderScheduler.PREVIEW) : null;
+			if(cancelled()){
+				release();
+				return;
+			}
+			SwingUtilities.invokeLater(new Runnable(){
+				@Override
+				public void run() {
+					finish(JuliaRender.this);
+				}
+			});
+		}
+
+		/**
+		 * Iterates every pixel in the given section of the image which isn't a mirror
+		 * image of another pixel, storing the number of iterations for each one. Stops
+		 * between columns once the image has been abandoned. With an orbit trap the
+		 * distance to the trap is kept instead, in double precision.
+		 * 
+		 * @param lower The lower x pixel to start from.
+		 * @param limit The upper x pixel limit to end at.
+		 */
+		private void iterateSection(int lower, int limit){
+			for(int x = lower; x < limit && !cancelled(); x++){
 				for(int y = 0; y < height; y++){
-					int	paintColour = juliaIterations(((x-middleXCo)*pixelValueX), ((middleYCo-y)*pixelValueY));
-					Color myColour = (paintColour==max) ? Color.BLACK : new Color(255, 255-((int) (paintColour*7) % 255), 0);
-					drawer.setColor(myColour);
-					drawer.drawLine(x, y, x, y);
+					if(!symmetry.isMirrored(x, y)){
+						int index = y*width + x;
+						double real = (x-middleXCo)*pixelValueX;
+						double imaginary = (middleYCo-y)*pixelValueY;
+						if(trap != null){
+							iterations[index] = Kernel.juliaTrap(fractalType, power, formula, fastPower, real, imaginary, c, max, escape, trap, trapShape, index);
+						}else if(interiorCheck){
+							iterations[index] = Kernel.juliaInterior(fractalType, power, formula, fastPower, real, imaginary, c, max, escape, index);
+						}else if(singlePrecision){
+							iterations[index] = Kernel.juliaFloat(fractalType, power, formula, fastPower, (float) real, (float) imaginary, c, max, escape, index);
+						}else{
+							iterations[index] = Kernel.julia(fractalType, power, formula, fastPower, real, imaginary, c, max, escape, index);
+						}
+					}
 				}
 			}
-			this.finish = true;
-			return null;
 		}
-		
+
+		/**
+		 * Finds the pixels along the edges of the image and samples them again.
+		 * 
+		 * @param iterations The number of iterations for each pixel.
+		 * @param priority The priority of the work in the render scheduler.
+		 * @return The supersampler holding the extra samples.
+		 */
+		private Supersampler supersample(int[] iterations, int priority){
+			Supersampler supersampler = new Supersampler(iterations, width, height, max);
+			supersampler.sample(new Supersampler.Sampler(){
+				@Override
+				public int sample(double x, double y, float[] escape, int index) {
+					double real = (x-middleXCo)*pixelValueX;
+					double imaginary = (middleYCo-y)*pixelValueY;
+					return Kernel.julia(fractalType, power, formula, fastPower, real, imaginary, c, max, escape, index);
+				}
+			}, priority, threadType == 1);
+			return supersampler;
+		}
 	}
 }
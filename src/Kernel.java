@@ -0,0 +1,958 @@
+/**
+ * The iteration formulas for every type of fractal, shared by the Mandelbrot and Julia
+ * panels and anything else which needs to iterate points away from the screen. Everything
+ * is worked out on primitive doubles, so no objects are created while iterating.
+ * <p>
+ * Fractal types 0 to 2 are the Mandelbrot, burning ship and tricorn sets. Types 3 to 6
+ * are Multibrot sets with the type as the power, and type 7 is a Multibrot set with
+ * any power greater than 1. Type 8 is a formula entered by the user, compiled into a
+ * {@link Formula} of its own, which is passed in along with the type so every image
+ * keeps the formula it was started with.
+ *
+ * @author Daniel
+ *
+ */
+public class Kernel {
+
+	/**
+	 * The fractal type of a Multibrot set with a power chosen by the user.
+	 */
+	public static final int MULTIBROT = 7;
+	/**
+	 * The fractal type of the formula entered by the user.
+	 */
+	public static final int CUSTOM = 8;
+	/**
+	 * The orbit trap shapes: the origin, the real axis, and both axes.
+	 */
+	public static final int TRAP_POINT = 0, TRAP_LINE = 1, TRAP_CROSS = 2;
+	/**
+	 * How many times larger than the gap between neighbouring floats a pixel has to be for
+	 * the image to be iterated in single precision. Rounding errors grow along an orbit, so
+	 * a good margin of bits below the pixel is kept for them.
+	 */
+	private static final float FLOAT_MARGIN = 1 << 12;
+	/**
+	 * The largest error of the approximations in {@link FastMath} used to raise z to a
+	 * real power, which is that of the arctangent.
+	 */
+	private static final double FAST_ERROR = 1e-5;
+	/**
+	 * The square of the distance an orbit has to come back within of a point it passed
+	 * earlier to be taken as caught in a cycle.
+	 */
+	private static final double CYCLE = 1e-24;
+
+	/**
+	 * Iterates over the given Complex Number using the formula for the given type of set
+	 * until the given number diverges. The number of iterations is kept track of,
+	 * and the square of the modulus it escaped with is stored for smooth colouring.
+	 *
+	 * @param fractalType An int representation of the fractal type.
+	 * @param power The power used by a Multibrot set of type {@link #MULTIBROT}.
+	 * @param formula The formula used by a fractal of type {@link #CUSTOM}, or null for any other type.
+	 * @param fast True to raise to a real power with the approximations in {@link FastMath}, see {@link #fastPower(double, double)}.
+	 * @param real The real part of the current Complex Number.
+	 * @param imaginary The imaginary part of the current Complex number.
+	 * @param max The maximum number of iterations to go up to.
+	 * @param escape The buffer to store the square of the modulus in.
+	 * @param index The index of the pixel being iterated.
+	 * @return the number of iterations before complex number diverges.
+	 */
+	public static int mandelbrot(int fractalType, double power, Formula formula, boolean fast, double real, double imaginary, int max, float[] escape, int index){
+		return iterate(fractalType, power, formula, fast, real, imaginary, real, imaginary, max, escape, index);
+	}
+
+	/**
+	 * Iterates over the given Complex Number using the formula for the given type of set,
+	 * adding the base complex number of the Julia set each time, until the given number diverges.
+	 * The number of iterations is kept track of, and the square of the modulus it escaped with is
+	 * stored for smooth colouring.
+	 *
+	 * @param fractalType An int representation of the fractal type.
+	 * @param power The power used by a Multibrot set of type {@link #MULTIBROT}.
+	 * @param formula The formula used by a fractal of type {@link #CUSTOM}, or null for any other type.
+	 * @param fast True to raise to a real power with the approximations in {@link FastMath}, see {@link #fastPower(double, double)}.
+	 * @param real The real part of the current Complex Number.
+	 * @param imaginary The imaginary part of the current Complex number.
+	 * @param c The base complex number of the Julia set.
+	 * @param max The maximum number of iterations to go up to.
+	 * @param escape The buffer to store the square of the modulus in.
+	 * @param index The index of the pixel being iterated.
+	 * @return the number of iterations before complex number diverges.
+	 */
+	public static int julia(int fractalType, double power, Formula formula, boolean fast, double real, double imaginary, Complex c, int max, float[] escape, int index){
+		return iterate(fractalType, power, formula, fast, real, imaginary, c.getReal(), c.getImaginary(), max, escape, index);
+	}
+
+	/**
+	 * Iterates over the given Complex Number in single precision using the formula for the
+	 * given type of set, in the same way as {@link #mandelbrot(int, double, Formula, boolean, double, double, int, float[], int)}.
+	 * Only accurate enough while {@link #singlePrecision(double, double, double)} holds.
+	 *
+	 * @param fractalType An int representation of the fractal type.
+	 * @param power The power used by a Multibrot set of type {@link #MULTIBROT}.
+	 * @param formula The formula used by a fractal of type {@link #CUSTOM}, or null for any other type.
+	 * @param fast True to raise to a real power with the approximations in {@link FastMath}, see {@link #fastPower(double, double)}.
+	 * @param real The real part of the current Complex Number.
+	 * @param imaginary The imaginary part of the current Complex number.
+	 * @param max The maximum number of iterations to go up to.
+	 * @param escape The buffer to store the square of the modulus in.
+	 * @param index The index of the pixel being iterated.
+	 * @return the number of iterations before complex number diverges.
+	 */
+	public static int mandelbrotFloat(int fractalType, double power, Formula formula, boolean fast, float real, float imaginary, int max, float[] escape, int index){
+		return iterateFloat(fractalType, power, formula, fast, real, imaginary, real, imaginary, max, escape, index);
+	}
+
+	/**
+	 * Iterates over the given Complex Number in single precision using the formula for the
+	 * given type of set, in the same way as {@link #julia(int, double, Formula, boolean, double, double, Complex, int, float[], int)}.
+	 * Only accurate enough while {@link #singlePrecision(double, double, double)} holds.
+	 *
+	 * @param fractalType An int representation of the fractal type.
+	 * @param power The power used by a Multibrot set of type {@link #MULTIBROT}.
+	 * @param formula The formula used by a fractal of type {@link #CUSTOM}, or null for any other type.
+	 * @param fast True to raise to a real power with the approximations in {@link FastMath}, see {@link #fastPower(double, double)}.
+	 * @param real The real part of the current Complex Number.
+	 * @param imaginary The imaginary part of the current Complex number.
+	 * @param c The base complex number of the Julia set.
+	 * @param max The maximum number of iterations to go up to.
+	 * @param escape The buffer to store the square of the modulus in.
+	 * @param index The index of the pixel being iterated.
+	 * @return the number of iterations before complex number diverges.
+	 */
+	public static int juliaFloat(int fractalType, double power, Formula formula, boolean fast, float real, float imaginary, Complex c, int max, float[] escape, int index){
+		return iterateFloat(fractalType, power, formula, fast, real, imaginary, (float) c.getReal(), (float) c.getImaginary(), max, escape, index);
+	}
+
+	/**
+	 * Iterates over the given Complex Number in the same way as
+	 * {@link #mandelbrot(int, double, Formula, boolean, double, double, int, float[], int)}, but also follows
+	 * the derivative of the orbit with respect to its starting point and stops as soon as
+	 * the orbit comes back round an attracting cycle. A number found to be in
+	 * the set that way gets the maximum number of iterations, and minus the number of
+	 * iterations it actually took is stored in place of its escape value.
+	 *
+	 * @param fractalType An int representation of the fractal type.
+	 * @param power The power used by a Multibrot set of type {@link #MULTIBROT}.
+	 * @param formula The formula used by a fractal of type {@link #CUSTOM}, or null for any other type.
+	 * @param fast True to raise to a real power with the approximations in {@link FastMath}, see {@link #fastPower(double, double)}.
+	 * @param real The real part of the current Complex Number.
+	 * @param imaginary The imaginary part of the current Complex number.
+	 * @param max The maximum number of iterations to go up to.
+	 * @param escape The buffer to store the square of the modulus in.
+	 * @param index The index of the pixel being iterated.
+	 * @return the number of iterations before complex number diverges.
+	 */
+	public static int mandelbrotInterior(int fractalType, double power, Formula formula, boolean fast, double real, double imaginary, int max, float[] escape, int index){
+		return iterateInterior(fractalType, power, formula, fast, real, imaginary, real, imaginary, max, escape, index);
+	}
+
+	/**
+	 * Iterates over the given Complex Number in the same way as
+	 * {@link #julia(int, double, Formula, boolean, double, double, Complex, int, float[], int)}, but stops
+	 * early inside the set as {@link #mandelbrotInterior(int, double, Formula, boolean, double, double, int, float[], int)} does.
+	 *
+	 * @param fractalType An int representation of the fractal type.
+	 * @param power The power used by a Multibrot set of type {@link #MULTIBROT}.
+	 * @param formula The formula used by a fractal of type {@link #CUSTOM}, or null for any other type.
+	 * @param fast True to raise to a real power with the approximations in {@link FastMath}, see {@link #fastPower(double, double)}.
+	 * @param real The real part of the current Complex Number.
+	 * @param imaginary The imaginary part of the current Complex number.
+	 * @param c The base complex number of the Julia set.
+	 * @param max The maximum number of iterations to go up to.
+	 * @param escape The buffer to store the square of the modulus in.
+	 * @param index The index of the pixel being iterated.
+	 * @return the number of iterations before complex number diverges.
+	 */
+	public static int juliaInterior(int fractalType, double power, Formula formula, boolean fast, double real, double imaginary, Complex c, int max, float[] escape, int index){
+		return iterateInterior(fractalType, power, formula, fast, real, imaginary, c.getReal(), c.getImaginary(), max, escape, index);
+	}
+
+	/**
+	 * Iterates over the given Complex Number in the same way as
+	 * {@link #mandelbrot(int, double, Formula, boolean, double, double, int, float[], int)}, also keeping
+	 * the smallest distance from every point of the orbit to the given trap shape as it
+	 * goes, so the orbit never has to be stored.
+	 *
+	 * @param fractalType An int representation of the fractal type.
+	 * @param power The power used by a Multibrot set of type {@link #MULTIBROT}.
+	 * @param formula The formula used by a fractal of type {@link #CUSTOM}, or null for any other type.
+	 * @param fast True to raise to a real power with the approximations in {@link FastMath}, see {@link #fastPower(double, double)}.
+	 * @param real The real part of the current Complex Number.
+	 * @param imaginary The imaginary part of the current Complex number.
+	 * @param max The maximum number of iterations to go up to.
+	 * @param escape The buffer to store the square of the modulus in.
+	 * @param trap The buffer to store the square of the smallest distance to the trap in.
+	 * @param shape The shape of the trap, {@link #TRAP_POINT}, {@link #TRAP_LINE} or {@link #TRAP_CROSS}.
+	 * @param index The index of the pixel being iterated.
+	 * @return the number of iterations before complex number diverges.
+	 */
+	public static int mandelbrotTrap(int fractalType, double power, Formula formula, boolean fast, double real, double imaginary, int max, float[] escape, float[] trap, int shape, int index){
+		return iterateTrap(fractalType, power, formula, fast, real, imaginary, real, imaginary, max, escape, trap, shape, index);
+	}
+
+	/**
+	 * Iterates over the given Complex Number in the same way as
+	 * {@link #julia(int, double, Formula, boolean, double, double, Complex, int, float[], int)}, also keeping
+	 * the smallest distance to the trap as {@link #mandelbrotTrap(int, double, Formula, boolean, double, double, int, float[], float[], int, int)} does.
+	 *
+	 * @param fractalType An int representation of the fractal type.
+	 * @param power The power used by a Multibrot set of type {@link #MULTIBROT}.
+	 * @param formula The formula used by a fractal of type {@link #CUSTOM}, or null for any other type.
+	 * @param fast True to raise to a real power with the approximations in {@link FastMath}, see {@link #fastPower(double, double)}.
+	 * @param real The real part of the current Complex Number.
+	 * @param imaginary The imaginary part of the current Complex number.
+	 * @param c The base complex number of the Julia set.
+	 * @param max The maximum number of iterations to go up to.
+	 * @param escape The buffer to store the square of the modulus in.
+	 * @param trap The buffer to store the square of the smallest distance to the trap in.
+	 * @param shape The shape of the trap.
+	 * @param index The index of the pixel being iterated.
+	 * @return the number of iterations before complex number diverges.
+	 */
+	public static int juliaTrap(int fractalType, double power, Formula formula, boolean fast, double real, double imaginary, Complex c, int max, float[] escape, float[] trap, int shape, int index){
+		return iterateTrap(fractalType, power, formula, fast, real, imaginary, c.getReal(), c.getImaginary(), max, escape, trap, shape, index);
+	}
+
+	/**
+	 * Works out the square of the distance from a point to a trap shape.
+	 *
+	 * @param shape The shape of the trap.
+	 * @param zr The real part of the point.
+	 * @param zi The imaginary part of the point.
+	 * @return The square of the distance.
+	 */
+	public static double trap(int shape, double zr, double zi){
+		switch(shape){
+		case TRAP_LINE:
+			return zi*zi;
+		case TRAP_CROSS:
+			return Math.min(zr*zr, zi*zi);
+		default:
+			return zr*zr + zi*zi;
+		}
+	}
+
+	/**
+	 * Checks whether an image can be iterated in single precision without showing it.
+	 * That is when the pixels are far larger than the gap between neighbouring floats
+	 * around the largest number the orbits go through. Deeper than that the image has to
+	 * be iterated in double precision.
+	 *
+	 * @param pixelValueX The numerical value of each pixel across.
+	 * @param pixelValueY The numerical value of each pixel down.
+	 * @param largest The largest modulus of any point on the image.
+	 * @return True if single precision is accurate enough.
+	 */
+	public static boolean singlePrecision(double pixelValueX, double pixelValueY, double largest){
+		//orbits go out to at least the escape radius of 2 before escaping
+		float gap = Math.ulp((float) Math.max(2, largest));
+		return Math.min(pixelValueX, pixelValueY) > gap*FLOAT_MARGIN;
+	}
+
+	/**
+	 * Checks whether an image of a Multibrot set with a real power can be iterated with
+	 * the approximations in {@link FastMath}. Their errors grow along an orbit just as
+	 * rounding errors do, so the pixels have to be larger than the error by the same
+	 * margin as for single precision. Deeper than that, and for nearly any view smaller
+	 * than the whole set, the power is raised with {@link Math} instead.
+	 *
+	 * @param pixelValueX The numerical value of each pixel across.
+	 * @param pixelValueY The numerical value of each pixel down.
+	 * @return True if the approximations are accurate enough.
+	 */
+	public static boolean fastPower(double pixelValueX, double pixelValueY){
+		return Math.min(pixelValueX, pixelValueY) > FAST_ERROR*FLOAT_MARGIN;
+	}
+
+	/**
+	 * Iterates z to z^d + c from the given starting point until it diverges. Each type of
+	 * set has its own loop so the formula isn't chosen again every iteration.
+	 *
+	 * @param fractalType An int representation of the fractal type.
+	 * @param power The power used by a Multibrot set of type {@link #MULTIBROT}.
+	 * @param formula The formula used by a fractal of type {@link #CUSTOM}, or null for any other type.
+	 * @param fast True to raise to a real power with the approximations in {@link FastMath}, see {@link #fastPower(double, double)}.
+	 * @param zr The real part of the starting point.
+	 * @param zi The imaginary part of the starting point.
+	 * @param cr The real part of the number added each iteration.
+	 * @param ci The imaginary part of the number added each iteration.
+	 * @param max The maximum number of iterations to go up to.
+	 * @param escape The buffer to store the square of the modulus in.
+	 * @param index The index of the pixel being iterated.
+	 * @return the number of iterations before the number diverges.
+	 */
+	private static int iterate(int fractalType, double power, Formula formula, boolean fast, double zr, double zi, double cr, double ci, int max, float[] escape, int index){
+		int iterations = 0;
+		double temp;
+		switch(fractalType){
+		case 1: //burning ship set, squares (|x|, -|y|)
+			while(zr*zr + zi*zi < 4 && iterations < max){
+				double absR = Math.abs(zr);
+				double absI = -Math.abs(zi);
+				temp = (absR*absR - absI*absI) + cr;
+				zi = (absR*absI + absR*absI) + ci;
+				zr = temp;
+				iterations++;
+			}
+			break;
+		case 2: //tricorn set, squares the conjugate
+			while(zr*zr + zi*zi < 4 && iterations < max){
+				double conjugate = -1*zi;
+				temp = (zr*zr - conjugate*conjugate) + cr;
+				zi = (zr*conjugate + zr*conjugate) + ci;
+				zr = temp;
+				iterations++;
+			}
+			break;
+		case 3: //multibrot d=3
+		case 4: //multibrot d=4
+		case 5: //multibrot d=5
+		case 6: //multibrot d=6
+			return integerPower(fractalType, zr, zi, cr, ci, max, escape, index);
+		case MULTIBROT:
+			if(isInteger(power)){
+				return integerPower((int) power, zr, zi, cr, ci, max, escape, index);
+			}
+			return realPower(power, fast, zr, zi, cr, ci, max, escape, index);
+		case CUSTOM:
+			return formula.iterate(zr, zi, cr, ci, max, escape, index);
+		default: //ordinary mandelbrot set
+			while(zr*zr + zi*zi < 4 && iterations < max){
+				temp = (zr*zr - zi*zi) + cr;
+				zi = (zr*zi + zr*zi) + ci;
+				zr = temp;
+				iterations++;
+			}
+			break;
+		}
+		escape[index] = (float) (zr*zr + zi*zi);
+		return iterations;
+	}
+
+	/**
+	 * Iterates z to z^d + c for a whole number power, raising z to the power by repeated
+	 * squaring so it only takes about log2(d) multiplications. For an even power the first
+	 * step is always a squaring, so z and -z give exactly the same result.
+	 *
+	 * @param degree The power, at least 2.
+	 * @see #iterate(int, double, Formula, boolean, double, double, double, double, int, float[], int)
+	 */
+	private static int integerPower(int degree, double zr, double zi, double cr, double ci, int max, float[] escape, int index){
+		int iterations = 0;
+		double temp;
+		while(zr*zr + zi*zi < 4 && iterations < max){
+			double baseR = zr;
+			double baseI = zi;
+			double resultR = 0;
+			double resultI = 0;
+			boolean started = false;
+			for(int n = degree; n > 0; n >>= 1){
+				if((n & 1) != 0){
+					if(started){
+						temp = resultR*baseR - resultI*baseI;
+						resultI = resultR*baseI + baseR*resultI;
+						resultR = temp;
+					}else{
+						resultR = baseR;
+						resultI = baseI;
+						started = true;
+					}
+				}
+				if(n > 1){
+					temp = baseR*baseR - baseI*baseI;
+					baseI = baseR*baseI + baseR*baseI;
+					baseR = temp;
+				}
+			}
+			zr = resultR + cr;
+			zi = resultI + ci;
+			iterations++;
+		}
+		escape[index] = (float) (zr*zr + zi*zi);
+		return iterations;
+	}
+
+	/**
+	 * Iterates z to z^d + c for any real power, raising z to the power in polar form as
+	 * |z|^d (cos(d arg z) + i sin(d arg z)), with fast approximations for the log, exp,
+	 * arctangent, sine and cosine while the pixels are large enough to hide their error.
+	 *
+	 * @param power The power, greater than 1.
+	 * @param fast True to use the approximations in {@link FastMath} rather than {@link Math}.
+	 * @see #iterate(int, double, Formula, boolean, double, double, double, double, int, float[], int)
+	 */
+	private static int realPower(double power, boolean fast, double zr, double zi, double cr, double ci, int max, float[] escape, int index){
+		int iterations = 0;
+		double halfPower = power/2;
+		while(zr*zr + zi*zi < 4 && iterations < max){
+			double modulusSquared = zr*zr + zi*zi;
+			if(modulusSquared == 0){
+				zr = cr;
+				zi = ci;
+			}else{
+				//|z|^d is (|z|^2)^(d/2)
+				double modulus = fast ? FastMath.exp(halfPower*FastMath.log(modulusSquared)) : Math.pow(modulusSquared, halfPower);
+				double angle = power*(fast ? FastMath.atan2(zi, zr) : Math.atan2(zi, zr));
+				zr = modulus*(fast ? FastMath.cos(angle) : Math.cos(angle)) + cr;
+				zi = modulus*(fast ? FastMath.sin(angle) : Math.sin(angle)) + ci;
+			}
+			iterations++;
+		}
+		escape[index] = (float) (zr*zr + zi*zi);
+		return iterations;
+	}
+
+	/**
+	 * Iterates z to z^d + c from the given starting point until it diverges or the orbit
+	 * is found caught in an attracting cycle, which means it is inside the set. A point of
+	 * the orbit is saved after 1, 2, 4, 8... iterations, and the orbit is in a cycle once it
+	 * comes back to within {@link #CYCLE} of the point saved. A small derivative on its own
+	 * isn't enough, as an orbit passing close to zero has one and may still escape, so the
+	 * cycle also has to be attracting: the derivative of the orbit since the saved point
+	 * has to be less than one. Only the square of the size of the derivative is kept,
+	 * which is multiplied by |f'(z)|^2 = d^2 |z|^(2d-2) every iteration. Folding z into a
+	 * quadrant for the burning ship or conjugating it for the tricorn doesn't change the
+	 * size of the derivative, so the same sum works for them.
+	 *
+	 * @param fractalType An int representation of the fractal type.
+	 * @param power The power used by a Multibrot set of type {@link #MULTIBROT}.
+	 * @param formula The formula used by a fractal of type {@link #CUSTOM}, or null for any other type.
+	 * @param fast True to raise to a real power with the approximations in {@link FastMath}, see {@link #fastPower(double, double)}.
+	 * @param zr The real part of the starting point.
+	 * @param zi The imaginary part of the starting point.
+	 * @param cr The real part of the number added each iteration.
+	 * @param ci The imaginary part of the number added each iteration.
+	 * @param max The maximum number of iterations to go up to.
+	 * @param escape The buffer to store the square of the modulus in, or minus the
+	 * iterations taken if found inside the set.
+	 * @param index The index of the pixel being iterated.
+	 * @return the number of iterations before the number diverges.
+	 */
+	private static int iterateInterior(int fractalType, double power, Formula formula, boolean fast, double zr, double zi, double cr, double ci, int max, float[] escape, int index){
+		int iterations = 0;
+		double derivative = 1;
+		double savedR = zr;
+		double savedI = zi;
+		int period = 1;
+		int steps = 0;
+		double temp;
+		double modulusSquared = zr*zr + zi*zi;
+		switch(fractalType){
+		case 1: //burning ship set, squares (|x|, -|y|)
+			while(modulusSquared < 4 && iterations < max){
+				derivative *= 4*modulusSquared;
+				double absR = Math.abs(zr);
+				double absI = -Math.abs(zi);
+				temp = (absR*absR - absI*absI) + cr;
+				zi = (absR*absI + absR*absI) + ci;
+				zr = temp;
+				modulusSquared = zr*zr + zi*zi;
+				iterations++;
+				double gapR = zr - savedR;
+				double gapI = zi - savedI;
+				if(gapR*gapR + gapI*gapI < CYCLE && derivative < 1){
+					escape[index] = -iterations;
+					return max;
+				}
+				if(++steps == period){
+					savedR = zr;
+					savedI = zi;
+					derivative = 1;
+					steps = 0;
+					period += period;
+				}
+			}
+			break;
+		case 2: //tricorn set, squares the conjugate
+			while(modulusSquared < 4 && iterations < max){
+				derivative *= 4*modulusSquared;
+				double conjugate = -1*zi;
+				temp = (zr*zr - conjugate*conjugate) + cr;
+				zi = (zr*conjugate + zr*conjugate) + ci;
+				zr = temp;
+				modulusSquared = zr*zr + zi*zi;
+				iterations++;
+				double gapR = zr - savedR;
+				double gapI = zi - savedI;
+				if(gapR*gapR + gapI*gapI < CYCLE && derivative < 1){
+					escape[index] = -iterations;
+					return max;
+				}
+				if(++steps == period){
+					savedR = zr;
+					savedI = zi;
+					derivative = 1;
+					steps = 0;
+					period += period;
+				}
+			}
+			break;
+		case 3: //multibrot d=3
+		case 4: //multibrot d=4
+		case 5: //multibrot d=5
+		case 6: //multibrot d=6
+			return integerPowerInterior(fractalType, zr, zi, cr, ci, max, escape, index);
+		case MULTIBROT:
+			if(isInteger(power)){
+				return integerPowerInterior((int) power, zr, zi, cr, ci, max, escape, index);
+			}
+			return realPowerInterior(power, fast, zr, zi, cr, ci, max, escape, index);
+		case CUSTOM: //the derivative of the formula isn't known, so it is just iterated
+			return formula.iterate(zr, zi, cr, ci, max, escape, index);
+		default: //ordinary mandelbrot set
+			while(modulusSquared < 4 && iterations < max){
+				derivative *= 4*modulusSquared;
+				temp = (zr*zr - zi*zi) + cr;
+				zi = (zr*zi + zr*zi) + ci;
+				zr = temp;
+				modulusSquared = zr*zr + zi*zi;
+				iterations++;
+				double gapR = zr - savedR;
+				double gapI = zi - savedI;
+				if(gapR*gapR + gapI*gapI < CYCLE && derivative < 1){
+					escape[index] = -iterations;
+					return max;
+				}
+				if(++steps == period){
+					savedR = zr;
+					savedI = zi;
+					derivative = 1;
+					steps = 0;
+					period += period;
+				}
+			}
+			break;
+		}
+		escape[index] = (float) modulusSquared;
+		return iterations;
+	}
+
+	/**
+	 * Iterates z to z^d + c for a whole number power until it diverges or the orbit is
+	 * found caught in an attracting cycle.
+	 *
+	 * @param degree The power, at least 2.
+	 * @see #integerPower(int, double, double, double, double, int, float[], int)
+	 * @see #iterateInterior(int, double, Formula, boolean, double, double, double, double, int, float[], int)
+	 */
+	private static int integerPowerInterior(int degree, double zr, double zi, double cr, double ci, int max, float[] escape, int index){
+		int iterations = 0;
+		double derivative = 1;
+		double savedR = zr;
+		double savedI = zi;
+		int period = 1;
+		int steps = 0;
+		double temp;
+		double modulusSquared = zr*zr + zi*zi;
+		while(modulusSquared < 4 && iterations < max){
+			double scale = degree*degree;
+			for(int n = 1; n < degree; n++){
+				scale *= modulusSquared;
+			}
+			derivative *= scale;
+			double baseR = zr;
+			double baseI = zi;
+			double resultR = 0;
+			double resultI = 0;
+			boolean started = false;
+			for(int n = degree; n > 0; n >>= 1){
+				if((n & 1) != 0){
+					if(started){
+						temp = resultR*baseR - resultI*baseI;
+						resultI = resultR*baseI + baseR*resultI;
+						resultR = temp;
+					}else{
+						resultR = baseR;
+						resultI = baseI;
+						started = true;
+					}
+				}
+				if(n > 1){
+					temp = baseR*baseR - baseI*baseI;
+					baseI = baseR*baseI + baseR*baseI;
+					baseR = temp;
+				}
+			}
+			zr = resultR + cr;
+			zi = resultI + ci;
+			modulusSquared = zr*zr + zi*zi;
+			iterations++;
+			double gapR = zr - savedR;
+			double gapI = zi - savedI;
+			if(gapR*gapR + gapI*gapI < CYCLE && derivative < 1){
+				escape[index] = -iterations;
+				return max;
+			}
+			if(++steps == period){
+				savedR = zr;
+				savedI = zi;
+				derivative = 1;
+				steps = 0;
+				period += period;
+			}
+		}
+		escape[index] = (float) modulusSquared;
+		return iterations;
+	}
+
+	/**
+	 * Iterates z to z^d + c for any real power until it diverges or the orbit is found
+	 * caught in an attracting cycle. |z|^(2d-2) comes from |z|^d, which is worked out anyway.
+	 *
+	 * @param power The power, greater than 1.
+	 * @see #realPower(double, boolean, double, double, double, double, int, float[], int)
+	 * @see #iterateInterior(int, double, Formula, boolean, double, double, double, double, int, float[], int)
+	 */
+	private static int realPowerInterior(double power, boolean fast, double zr, double zi, double cr, double ci, int max, float[] escape, int index){
+		int iterations = 0;
+		double derivative = 1;
+		double savedR = zr;
+		double savedI = zi;
+		int period = 1;
+		int steps = 0;
+		double halfPower = power/2;
+		double modulusSquared = zr*zr + zi*zi;
+		while(modulusSquared < 4 && iterations < max){
+			if(modulusSquared == 0){
+				derivative = 0;
+				zr = cr;
+				zi = ci;
+			}else{
+				double modulus = fast ? FastMath.exp(halfPower*FastMath.log(modulusSquared)) : Math.pow(modulusSquared, halfPower);
+				derivative *= power*power*modulus*modulus/modulusSquared;
+				double angle = power*(fast ? FastMath.atan2(zi, zr) : Math.atan2(zi, zr));
+				zr = modulus*(fast ? FastMath.cos(angle) : Math.cos(angle)) + cr;
+				zi = modulus*(fast ? FastMath.sin(angle) : Math.sin(angle)) + ci;
+			}
+			modulusSquared = zr*zr + zi*zi;
+			iterations++;
+			double gapR = zr - savedR;
+			double gapI = zi - savedI;
+			if(gapR*gapR + gapI*gapI < CYCLE && derivative < 1){
+				escape[index] = -iterations;
+				return max;
+			}
+			if(++steps == period){
+				savedR = zr;
+				savedI = zi;
+				derivative = 1;
+				steps = 0;
+				period += period;
+			}
+		}
+		escape[index] = (float) modulusSquared;
+		return iterations;
+	}
+
+	/**
+	 * Iterates z to z^d + c in single precision from the given starting point until it
+	 * diverges, exactly as {@link #iterate(int, double, Formula, boolean, double, double, double, double, int, float[], int)}
+	 * does in double precision.
+	 *
+	 * @param fractalType An int representation of the fractal type.
+	 * @param power The power used by a Multibrot set of type {@link #MULTIBROT}.
+	 * @param formula The formula used by a fractal of type {@link #CUSTOM}, or null for any other type.
+	 * @param fast True to raise to a real power with the approximations in {@link FastMath}, see {@link #fastPower(double, double)}.
+	 * @param zr The real part of the starting point.
+	 * @param zi The imaginary part of the starting point.
+	 * @param cr The real part of the number added each iteration.
+	 * @param ci The imaginary part of the number added each iteration.
+	 * @param max The maximum number of iterations to go up to.
+	 * @param escape The buffer to store the square of the modulus in.
+	 * @param index The index of the pixel being iterated.
+	 * @return the number of iterations before the number diverges.
+	 */
+	private static int iterateFloat(int fractalType, double power, Formula formula, boolean fast, float zr, float zi, float cr, float ci, int max, float[] escape, int index){
+		int iterations = 0;
+		float temp;
+		switch(fractalType){
+		case 1: //burning ship set, squares (|x|, -|y|)
+			while(zr*zr + zi*zi < 4 && iterations < max){
+				float absR = Math.abs(zr);
+				float absI = -Math.abs(zi);
+				temp = (absR*absR - absI*absI) + cr;
+				zi = (absR*absI + absR*absI) + ci;
+				zr = temp;
+				iterations++;
+			}
+			break;
+		case 2: //tricorn set, squares the conjugate
+			while(zr*zr + zi*zi < 4 && iterations < max){
+				float conjugate = -1*zi;
+				temp = (zr*zr - conjugate*conjugate) + cr;
+				zi = (zr*conjugate + zr*conjugate) + ci;
+				zr = temp;
+				iterations++;
+			}
+			break;
+		case 3: //multibrot d=3
+		case 4: //multibrot d=4
+		case 5: //multibrot d=5
+		case 6: //multibrot d=6
+			return integerPowerFloat(fractalType, zr, zi, cr, ci, max, escape, index);
+		case MULTIBROT:
+			if(isInteger(power)){
+				return integerPowerFloat((int) power, zr, zi, cr, ci, max, escape, index);
+			}
+			return realPowerFloat(power, fast, zr, zi, cr, ci, max, escape, index);
+		case CUSTOM: //only compiled in double precision
+			return formula.iterate(zr, zi, cr, ci, max, escape, index);
+		default: //ordinary mandelbrot set
+			while(zr*zr + zi*zi < 4 && iterations < max){
+				temp = (zr*zr - zi*zi) + cr;
+				zi = (zr*zi + zr*zi) + ci;
+				zr = temp;
+				iterations++;
+			}
+			break;
+		}
+		escape[index] = zr*zr + zi*zi;
+		return iterations;
+	}
+
+	/**
+	 * Iterates z to z^d + c for a whole number power in single precision.
+	 *
+	 * @param degree The power, at least 2.
+	 * @see #integerPower(int, double, double, double, double, int, float[], int)
+	 */
+	private static int integerPowerFloat(int degree, float zr, float zi, float cr, float ci, int max, float[] escape, int index){
+		int iterations = 0;
+		float temp;
+		while(zr*zr + zi*zi < 4 && iterations < max){
+			float baseR = zr;
+			float baseI = zi;
+			float resultR = 0;
+			float resultI = 0;
+			boolean started = false;
+			for(int n = degree; n > 0; n >>= 1){
+				if((n & 1) != 0){
+					if(started){
+						temp = resultR*baseR - resultI*baseI;
+						resultI = resultR*baseI + baseR*resultI;
+						resultR = temp;
+					}else{
+						resultR = baseR;
+						resultI = baseI;
+						started = true;
+					}
+				}
+				if(n > 1){
+					temp = baseR*baseR - baseI*baseI;
+					baseI = baseR*baseI + baseR*baseI;
+					baseR = temp;
+				}
+			}
+			zr = resultR + cr;
+			zi = resultI + ci;
+			iterations++;
+		}
+		escape[index] = zr*zr + zi*zi;
+		return iterations;
+	}
+
+	/**
+	 * Iterates z to z^d + c for any real power in single precision, raising z to the
+	 * power in double precision as the approximations are only written for doubles.
+	 *
+	 * @param power The power, greater than 1.
+	 * @see #realPower(double, boolean, double, double, double, double, int, float[], int)
+	 */
+	private static int realPowerFloat(double power, boolean fast, float zr, float zi, float cr, float ci, int max, float[] escape, int index){
+		int iterations = 0;
+		double halfPower = power/2;
+		while(zr*zr + zi*zi < 4 && iterations < max){
+			float modulusSquared = zr*zr + zi*zi;
+			if(modulusSquared == 0){
+				zr = cr;
+				zi = ci;
+			}else{
+				//|z|^d is (|z|^2)^(d/2)
+				double modulus = fast ? FastMath.exp(halfPower*FastMath.log(modulusSquared)) : Math.pow(modulusSquared, halfPower);
+				double angle = power*(fast ? FastMath.atan2(zi, zr) : Math.atan2(zi, zr));
+				zr = (float) (modulus*(fast ? FastMath.cos(angle) : Math.cos(angle))) + cr;
+				zi = (float) (modulus*(fast ? FastMath.sin(angle) : Math.sin(angle))) + ci;
+			}
+			iterations++;
+		}
+		escape[index] = zr*zr + zi*zi;
+		return iterations;
+	}
+
+	/**
+	 * Iterates z to z^d + c from the given starting point until it diverges, keeping the
+	 * smallest distance from the orbit to the trap, starting point included.
+	 *
+	 * @param fractalType An int representation of the fractal type.
+	 * @param power The power used by a Multibrot set of type {@link #MULTIBROT}.
+	 * @param formula The formula used by a fractal of type {@link #CUSTOM}, or null for any other type.
+	 * @param fast True to raise to a real power with the approximations in {@link FastMath}, see {@link #fastPower(double, double)}.
+	 * @param zr The real part of the starting point.
+	 * @param zi The imaginary part of the starting point.
+	 * @param cr The real part of the number added each iteration.
+	 * @param ci The imaginary part of the number added each iteration.
+	 * @param max The maximum number of iterations to go up to.
+	 * @param escape The buffer to store the square of the modulus in.
+	 * @param trap The buffer to store the square of the smallest distance to the trap in.
+	 * @param shape The shape of the trap.
+	 * @param index The index of the pixel being iterated.
+	 * @return the number of iterations before the number diverges.
+	 */
+	private static int iterateTrap(int fractalType, double power, Formula formula, boolean fast, double zr, double zi, double cr, double ci, int max, float[] escape, float[] trap, int shape, int index){
+		int iterations = 0;
+		double nearest = trap(shape, zr, zi);
+		double temp;
+		switch(fractalType){
+		case 1: //burning ship set, squares (|x|, -|y|)
+			while(zr*zr + zi*zi < 4 && iterations < max){
+				double absR = Math.abs(zr);
+				double absI = -Math.abs(zi);
+				temp = (absR*absR - absI*absI) + cr;
+				zi = (absR*absI + absR*absI) + ci;
+				zr = temp;
+				nearest = Math.min(nearest, trap(shape, zr, zi));
+				iterations++;
+			}
+			break;
+		case 2: //tricorn set, squares the conjugate
+			while(zr*zr + zi*zi < 4 && iterations < max){
+				double conjugate = -1*zi;
+				temp = (zr*zr - conjugate*conjugate) + cr;
+				zi = (zr*conjugate + zr*conjugate) + ci;
+				zr = temp;
+				nearest = Math.min(nearest, trap(shape, zr, zi));
+				iterations++;
+			}
+			break;
+		case 3: //multibrot d=3
+		case 4: //multibrot d=4
+		case 5: //multibrot d=5
+		case 6: //multibrot d=6
+			return integerPowerTrap(fractalType, zr, zi, cr, ci, max, escape, trap, shape, index);
+		case MULTIBROT:
+			if(isInteger(power)){
+				return integerPowerTrap((int) power, zr, zi, cr, ci, max, escape, trap, shape, index);
+			}
+			return realPowerTrap(power, fast, zr, zi, cr, ci, max, escape, trap, shape, index);
+		case CUSTOM:
+			return formula.iterateTrap(zr, zi, cr, ci, max, escape, trap, shape, index);
+		default: //ordinary mandelbrot set
+			while(zr*zr + zi*zi < 4 && iterations < max){
+				temp = (zr*zr - zi*zi) + cr;
+				zi = (zr*zi + zr*zi) + ci;
+				zr = temp;
+				nearest = Math.min(nearest, trap(shape, zr, zi));
+				iterations++;
+			}
+			break;
+		}
+		escape[index] = (float) (zr*zr + zi*zi);
+		trap[index] = (float) nearest;
+		return iterations;
+	}
+
+	/**
+	 * Iterates z to z^d + c for a whole number power, keeping the smallest distance to the trap.
+	 *
+	 * @param degree The power, at least 2.
+	 * @see #iterateTrap(int, double, Formula, boolean, double, double, double, double, int, float[], float[], int, int)
+	 */
+	private static int integerPowerTrap(int degree, double zr, double zi, double cr, double ci, int max, float[] escape, float[] trap, int shape, int index){
+		int iterations = 0;
+		double nearest = trap(shape, zr, zi);
+		double temp;
+		while(zr*zr + zi*zi < 4 && iterations < max){
+			double baseR = zr;
+			double baseI = zi;
+			double resultR = 0;
+			double resultI = 0;
+			boolean started = false;
+			for(int n = degree; n > 0; n >>= 1){
+				if((n & 1) != 0){
+					if(started){
+						temp = resultR*baseR - resultI*baseI;
+						resultI = resultR*baseI + baseR*resultI;
+						resultR = temp;
+					}else{
+						resultR = baseR;
+						resultI = baseI;
+						started = true;
+					}
+				}
+				if(n > 1){
+					temp = baseR*baseR - baseI*baseI;
+					baseI = baseR*baseI + baseR*baseI;
+					baseR = temp;
+				}
+			}
+			zr = resultR + cr;
+			zi = resultI + ci;
+			nearest = Math.min(nearest, trap(shape, zr, zi));
+			iterations++;
+		}
+		escape[index] = (float) (zr*zr + zi*zi);
+		trap[index] = (float) nearest;
+		return iterations;
+	}
+
+	/**
+	 * Iterates z to z^d + c for any real power, keeping the smallest distance to the trap.
+	 *
+	 * @param power The power, greater than 1.
+	 * @see #iterateTrap(int, double, Formula, boolean, double, double, double, double, int, float[], float[], int, int)
+	 */
+	private static int realPowerTrap(double power, boolean fast, double zr, double zi, double cr, double ci, int max, float[] escape, float[] trap, int shape, int index){
+		int iterations = 0;
+		double nearest = trap(shape, zr, zi);
+		double halfPower = power/2;
+		while(zr*zr + zi*zi < 4 && iterations < max){
+			double modulusSquared = zr*zr + zi*zi;
+			if(modulusSquared == 0){
+				zr = cr;
+				zi = ci;
+			}else{
+				double modulus = fast ? FastMath.exp(halfPower*FastMath.log(modulusSquared)) : Math.pow(modulusSquared, halfPower);
+				double angle = power*(fast ? FastMath.atan2(zi, zr) : Math.atan2(zi, zr));
+				zr = modulus*(fast ? FastMath.cos(angle) : Math.cos(angle)) + cr;
+				zi = modulus*(fast ? FastMath.sin(angle) : Math.sin(angle)) + ci;
+			}
+			nearest = Math.min(nearest, trap(shape, zr, zi));
+			iterations++;
+		}
+		escape[index] = (float) (zr*zr + zi*zi);
+		trap[index] = (float) nearest;
+		return iterations;
+	}
+
+	/**
+	 * Returns the power z is raised to by the formula of the given fractal type.
+	 *
+	 * @param fractalType An int representation of the fractal type.
+	 * @param power The power used by a Multibrot set of type {@link #MULTIBROT}.
+	 * @param formula The formula used by a fractal of type {@link #CUSTOM}, or null for any other type.
+	 * @param fast True to raise to a real power with the approximations in {@link FastMath}, see {@link #fastPower(double, double)}.
+	 * @return The degree of the formula.
+	 */
+	public static double degree(int fractalType, double power, Formula formula){
+		if(fractalType == MULTIBROT){
+			return power;
+		}
+		if(fractalType == CUSTOM){
+			return formula.degree();
+		}
+		return fractalType < 3 ? 2 : fractalType;
+	}
+
+	/**
+	 * Checks whether a power is a whole number which can be raised to by repeated squaring.
+	 *
+	 * @param power The power.
+	 * @return True if the power is a whole number.
+	 */
+	public static boolean isInteger(double power){
+		return power == Math.rint(power) && power >= 2 && power <= Integer.MAX_VALUE;
+	}
+}
@@ -0,0 +1,314 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * An image of a fractal too large for the heap, for saving posters. The iterations, escape
+ * values and colours are kept outside the heap, either in direct buffers or in files mapped
+ * into memory, so the size of the image is only limited by memory and disk space. The image
+ * is split into bands of rows, as a single buffer can't be larger than 2GB, and is written
+ * out one row at a time by a {@link PngEncoder}.
+ *
+ * @author Daniel
+ *
+ */
+public class OffHeapImage implements PngEncoder.Rows {
+
+	/**
+	 * The most bytes in each buffer of a band.
+	 */
+	private static final int BAND_BYTES = 1 << 30;
+
+	/**
+	 * The size of the image in pixels.
+	 */
+	private int width, height;
+	/**
+	 * The number of rows in each band.
+	 */
+	private int bandRows;
+	/**
+	 * The number of iterations for each pixel, one buffer for each band.
+	 */
+	private List<IntBuffer> iterations;
+	/**
+	 * The square of the modulus of each pixel once it escaped, one buffer for each band.
+	 */
+	private List<FloatBuffer> escape;
+	/**
+	 * The packed RGB colour of each pixel, one buffer for each band.
+	 */
+	private List<IntBuffer> pixels;
+	/**
+	 * The files the buffers are mapped from, empty if they are direct buffers.
+	 */
+	private List<File> files;
+	/**
+	 * An int representation of the fractal type rendered.
+	 */
+	private int fractalType;
+	/**
+	 * The power used by a Multibrot set of type {@link Kernel#MULTIBROT}.
+	 */
+	private double power;
+	/**
+	 * The formula used by a fractal of type {@link Kernel#CUSTOM}, or null for any other type.
+	 */
+	private Formula formula;
+	/**
+	 * The maximum number of iterations rendered with.
+	 */
+	private int max;
+
+	/**
+	 * Creates an empty image.
+	 *
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @param directory The directory to keep the buffers in as files, or null to keep them in direct memory.
+	 * @throws IOException If a file couldn't be created.
+	 */
+	public OffHeapImage(int width, int height, File directory) throws IOException{
+		this.width = width;
+		this.height = height;
+		bandRows = Math.max(1, BAND_BYTES/(4*width));
+		iterations = new ArrayList<IntBuffer>();
+		escape = new ArrayList<FloatBuffer>();
+		pixels = new ArrayList<IntBuffer>();
+		files = new ArrayList<File>();
+		for(int first = 0; first < height; first += bandRows){
+			int bytes = 4*width*Math.min(bandRows, height - first);
+			iterations.add(allocate(bytes, directory).asIntBuffer());
+			escape.add(allocate(bytes, directory).asFloatBuffer());
+			pixels.add(allocate(bytes, directory).asIntBuffer());
+		}
+	}
+
+	/**
+	 * Allocates a buffer outside the heap.
+	 *
+	 * @param bytes The size of the buffer.
+	 * @param directory The directory to map the buffer from a file in, or null for a direct buffer.
+	 * @return The buffer.
+	 * @throws IOException If the file couldn't be created.
+	 */
+	private ByteBuffer allocate(int bytes, File directory) throws IOException{
+		if(directory == null){
+			return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+		}
+		directory.mkdirs();
+		File file = File.createTempFile("band", ".bin", directory);
+		file.deleteOnExit();
+		files.add(file);
+		RandomAccessFile access = new RandomAccessFile(file, "rw");
+		try {
+			//the mapping stays valid once the file is closed
+			return access.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bytes).order(ByteOrder.nativeOrder());
+		} finally {
+			access.close();
+		}
+	}
+
+	/**
+	 * Returns the width of the image.
+	 *
+	 * @return The width in pixels.
+	 */
+	public int getWidth(){
+		return width;
+	}
+
+	/**
+	 * Returns the height of the image.
+	 *
+	 * @return The height in pixels.
+	 */
+	public int getHeight(){
+		return height;
+	}
+
+	/**
+	 * Iterates every pixel of the image, handing each row to the render scheduler as a
+	 * tile of background export work. Each row is iterated into a small array on the heap
+	 * and then copied into its band.
+	 *
+	 * @param fractalType An int representation of the fractal type.
+	 * @param power The power used by a Multibrot set of type {@link Kernel#MULTIBROT}.
+	 * @param formula The formula used by a fractal of type {@link Kernel#CUSTOM}, or null for any other type.
+	 * @param max The maximum number of iterations.
+	 * @param c The base complex number of the Julia set, or null for the Mandelbrot set.
+	 * @param xLower The lower bound of the real axis.
+	 * @param xUpper The upper bound of the real axis.
+	 * @param yLower The lower bound of the imaginary axis.
+	 * @param yUpper The upper bound of the imaginary axis.
+	 */
+	public void render(final int fractalType, final double power, final Formula formula, final int max, final Complex c,
+			final double xLower, double xUpper, double yLower, final double yUpper){
+		this.fractalType = fractalType;
+		this.power = power;
+		this.formula = formula;
+		this.max = max;
+		final double pixelX = (xUpper - xLower)/width;
+		final double pixelY = (yUpper - yLower)/height;
+		final boolean fast = Kernel.fastPower(pixelX, pixelY);
+		List<Runnable> rows = new ArrayList<Runnable>();
+		for(int row = 0; row < height; row++){
+			final int y = row;
+			rows.add(new Runnable(){
+				@Override
+				public void run() {
+					int[] rowIterations = new int[width];
+					float[] rowEscape = new float[width];
+					double imaginary = yUpper - (y + 0.5)*pixelY;
+					for(int x = 0; x < width; x++){
+						double real = xLower + (x + 0.5)*pixelX;
+						rowIterations[x] = c == null ? Kernel.mandelbrot(fractalType, power, formula, fast, real, imaginary, max, rowEscape, x)
+								: Kernel.julia(fractalType, power, formula, fast, real, imaginary, c, max, rowEscape, x);
+					}
+					putRow(y, rowIterations, rowEscape);
+				}
+			});
+		}
+		RenderScheduler.get().run(RenderScheduler.EXPORT, rows, true);
+	}
+
+	/**
+	 * Stores one row of iterations which were worked out somewhere else, such as a ring of
+	 * an {@link ExponentialMap}. Rows can be stored from several threads at once.
+	 *
+	 * @param y The row.
+	 * @param rowIterations The number of iterations for each pixel across the row.
+	 * @param rowEscape The square of the modulus of each pixel once it escaped.
+	 */
+	public void putRow(int y, int[] rowIterations, float[] rowEscape){
+		rowOf(iterations, y).put(rowIterations);
+		escapeRow(y).put(rowEscape);
+	}
+
+	/**
+	 * Returns the number of iterations of a single pixel.
+	 *
+	 * @param x The pixel across.
+	 * @param y The pixel down.
+	 * @return The number of iterations.
+	 */
+	public int iterationsAt(int x, int y){
+		return iterations.get(y/bandRows).get((y % bandRows)*width + x);
+	}
+
+	/**
+	 * Returns the square of the modulus of a single pixel once it escaped.
+	 *
+	 * @param x The pixel across.
+	 * @param y The pixel down.
+	 * @return The escape value.
+	 */
+	public float escapeAt(int x, int y){
+		return escape.get(y/bandRows).get((y % bandRows)*width + x);
+	}
+
+	/**
+	 * Colours every pixel from its iterations, one row at a time.
+	 *
+	 * @param palette The palette to colour with.
+	 * @param smooth Whether to colour smoothly or in bands.
+	 */
+	public void colour(Palette palette, boolean smooth){
+		int[] rowIterations = new int[width];
+		float[] rowEscape = new float[width];
+		int[] rowPixels = new int[width];
+		double degree = Kernel.degree(fractalType, power, formula);
+		for(int y = 0; y < height; y++){
+			rowOf(iterations, y).get(rowIterations);
+			escapeRow(y).get(rowEscape);
+			palette.paint(rowIterations, rowEscape, max, degree, smooth, null, rowPixels);
+			rowOf(pixels, y).put(rowPixels);
+		}
+	}
+
+	/**
+	 * Copies one row of colours out of the image.
+	 *
+	 * @see PngEncoder.Rows#row(int, int[])
+	 */
+	@Override
+	public void row(int y, int[] row){
+		rowOf(pixels, y).get(row);
+	}
+
+	/**
+	 * Writes the coloured image to a png file.
+	 *
+	 * @param file The file to write.
+	 * @throws IOException If the file couldn't be written.
+	 */
+	public void writePng(File file) throws IOException{
+		writePng(file, null);
+	}
+
+	/**
+	 * Writes the coloured image to a png file, telling the progress as it goes.
+	 *
+	 * @param file The file to write.
+	 * @param progress Told how many rows have been written, or null.
+	 * @throws IOException If the file couldn't be written.
+	 */
+	public void writePng(File file, PngEncoder.Progress progress) throws IOException{
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+		try {
+			PngEncoder.write(width, height, this, out, progress);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Deletes the files the buffers were mapped from, if there are any. The image can't be
+	 * used afterwards.
+	 */
+	public void close(){
+		iterations.clear();
+		escape.clear();
+		pixels.clear();
+		for(File file : files){
+			file.delete();
+		}
+	}
+
+	/**
+	 * Returns a view of one row of a set of bands, positioned at the start of the row.
+	 * Each call gets its own view so rows can be read and written from several threads.
+	 *
+	 * @param bands The buffers of each band.
+	 * @param y The row.
+	 * @return The view of the row.
+	 */
+	private IntBuffer rowOf(List<IntBuffer> bands, int y){
+		IntBuffer row = bands.get(y/bandRows).duplicate();
+		row.position((y % bandRows)*width);
+		return row;
+	}
+
+	/**
+	 * Returns a view of one row of the escape values, positioned at the start of the row.
+	 *
+	 * @param y The row.
+	 * @return The view of the row.
+	 */
+	private FloatBuffer escapeRow(int y){
+		FloatBuffer row = escape.get(y/bandRows).duplicate();
+		row.position((y % bandRows)*width);
+		return row;
+	}
+}
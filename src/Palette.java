@@ -0,0 +1,210 @@
+import java.awt.Color;
+
+
+/**
+ * A colour gradient precomputed into a lookup table, used to turn the number of
+ * iterations for each pixel into a colour. Can colour either in bands, using the
+ * whole number of iterations, or smoothly using the normalised iteration count worked
+ * out from how far past the bailout each pixel escaped. Either way the gradient can
+ * also be spread over the distribution of iterations given by a {@link Histogram}.
+ * An image iterated with an orbit trap can instead be coloured by how close each orbit
+ * came to the trap, in one of a few shadings.
+ *
+ * @author Daniel
+ *
+ */
+public class Palette {
+
+	/**
+	 * The number of entries in the gradient lookup table. 255*16 so the default fire
+	 * gradient hits exactly the same colours as the original banded colouring.
+	 */
+	private static final int SIZE = 4080;
+	/**
+	 * The ways of shading an image with an orbit trap: every pixel by its distance to the
+	 * trap, only the pixels inside the set by the distance with the rest coloured as usual,
+	 * or the usual colours darkened by the distance with the inside by the distance.
+	 */
+	public static final int TRAP = 0, TRAP_INSIDE = 1, TRAP_SHADED = 2;
+	/**
+	 * The precomputed colours of the gradient, as packed RGB values.
+	 */
+	private int[] gradient;
+	/**
+	 * The number of gradient entries moved through for each iteration.
+	 */
+	private double scale;
+
+	/**
+	 * Creates a palette which blends evenly between the given colours, going
+	 * through the whole gradient once every period iterations.
+	 *
+	 * @param stops The colours to blend between, in order.
+	 * @param period The number of iterations for one cycle of the gradient.
+	 */
+	public Palette(Color[] stops, double period){
+		gradient = new int[SIZE];
+		scale = SIZE/period;
+		int sections = stops.length - 1;
+		for(int i = 0; i < SIZE; i++){
+			int section = i*sections/SIZE;
+			Color from = stops[section];
+			Color to = stops[section + 1];
+			//position within the current section out of the section length
+			int position = i*sections - section*SIZE;
+			int red = from.getRed() + (to.getRed() - from.getRed())*position/SIZE;
+			int green = from.getGreen() + (to.getGreen() - from.getGreen())*position/SIZE;
+			int blue = from.getBlue() + (to.getBlue() - from.getBlue())*position/SIZE;
+			gradient[i] = (red << 16) | (green << 8) | blue;
+		}
+	}
+
+	/**
+	 * Creates the default yellow to red palette, cycling every 255/7 iterations.
+	 *
+	 * @return The default palette.
+	 */
+	public static Palette fire(){
+		return new Palette(new Color[]{Color.YELLOW, Color.RED}, 255/7.0);
+	}
+
+	/**
+	 * Creates a palette going from dark blue through light blue to white,
+	 * cycling every 255/7 iterations.
+	 *
+	 * @return The ocean palette.
+	 */
+	public static Palette ocean(){
+		return new Palette(new Color[]{new Color(0, 7, 100), new Color(32, 107, 203), new Color(237, 255, 255)}, 255/7.0);
+	}
+
+	/**
+	 * Creates a palette going from black to white, cycling every 255/7 iterations.
+	 *
+	 * @return The greyscale palette.
+	 */
+	public static Palette greyscale(){
+		return new Palette(new Color[]{Color.BLACK, Color.WHITE}, 255/7.0);
+	}
+
+	/**
+	 * Colours every pixel of an image using the number of iterations for each pixel.
+	 * Pixels which reached the maximum number of iterations are coloured black. If a
+	 * histogram is given the gradient is spread over the distribution of iterations
+	 * once rather than cycling.
+	 *
+	 * @param iterations The number of iterations for each pixel.
+	 * @param escape The square of the modulus of each pixel once it escaped.
+	 * @param max The maximum number of iterations.
+	 * @param degree The power z is raised to by the formula being drawn.
+	 * @param smooth Whether to colour smoothly or in bands.
+	 * @param histogram The histogram of the iterations, or null to colour by cycling.
+	 * @param pixels The packed RGB values of the image to colour.
+	 */
+	public void paint(int[] iterations, float[] escape, int max, double degree, boolean smooth, Histogram histogram, int[] pixels){
+		double inverseLogDegree = 1/FastMath.log2(degree);
+		for(int i = 0; i < pixels.length; i++){
+			int count = iterations[i];
+			if(count == max){
+				pixels[i] = 0;
+			}else if(histogram != null){
+				double fraction = 0;
+				if(smooth){
+					double normalised = normalised(count, escape[i], inverseLogDegree);
+					count = (int) normalised;
+					fraction = normalised - count;
+				}
+				pixels[i] = gradient[(int) (histogram.position(count, fraction)*(SIZE - 1))];
+			}else if(smooth){
+				pixels[i] = smooth(count, escape[i], inverseLogDegree);
+			}else{
+				pixels[i] = banded(count);
+			}
+		}
+	}
+
+	/**
+	 * Colours every pixel of an image iterated with an orbit trap. The pixels are coloured
+	 * as {@link #paint(int[], float[], int, double, boolean, Histogram, int[])} does first,
+	 * and then the ones the shading uses the trap for are coloured along the gradient by the
+	 * square root of the smallest distance from their orbit to the trap, which spreads the
+	 * gradient out over the orbits passing close to it.
+	 *
+	 * @param iterations The number of iterations for each pixel.
+	 * @param escape The square of the modulus of each pixel once it escaped.
+	 * @param trap The square of the smallest distance to the trap for each pixel.
+	 * @param max The maximum number of iterations.
+	 * @param degree The power z is raised to by the formula being drawn.
+	 * @param smooth Whether to colour smoothly or in bands.
+	 * @param histogram The histogram of the iterations, or null to colour by cycling.
+	 * @param shading How to shade the image, {@link #TRAP}, {@link #TRAP_INSIDE} or {@link #TRAP_SHADED}.
+	 * @param pixels The packed RGB values of the image to colour.
+	 */
+	public void paintTrap(int[] iterations, float[] escape, float[] trap, int max, double degree, boolean smooth, Histogram histogram,
+			int shading, int[] pixels){
+		if(shading != TRAP){
+			paint(iterations, escape, max, degree, smooth, histogram, pixels);
+		}
+		for(int i = 0; i < pixels.length; i++){
+			//the distance is the square root of the stored square
+			double position = Math.sqrt(Math.sqrt(trap[i]));
+			if(shading == TRAP || iterations[i] == max){
+				pixels[i] = at(position);
+			}else if(shading == TRAP_SHADED){
+				double brightness = 1 - 0.75*Math.min(1, position);
+				int rgb = pixels[i];
+				int red = (int) (((rgb >> 16) & 0xFF)*brightness);
+				int green = (int) (((rgb >> 8) & 0xFF)*brightness);
+				int blue = (int) ((rgb & 0xFF)*brightness);
+				pixels[i] = (red << 16) | (green << 8) | blue;
+			}
+		}
+	}
+
+	/**
+	 * Finds the colour at a position along the gradient, from 0 at the start to 1 at the end.
+	 *
+	 * @param position The position along the gradient.
+	 * @return The packed RGB colour.
+	 */
+	public int at(double position){
+		return gradient[(int) (Math.max(0, Math.min(1, position))*(SIZE - 1))];
+	}
+
+	/**
+	 * Finds the colour for a whole number of iterations.
+	 *
+	 * @param iterations The number of iterations.
+	 * @return The packed RGB colour.
+	 */
+	public int banded(int iterations){
+		return gradient[(int) (iterations*scale) % SIZE];
+	}
+
+	/**
+	 * Finds the colour for the normalised iteration count of a pixel.
+	 *
+	 * @param iterations The number of iterations before the pixel escaped.
+	 * @param modulusSquared The square of the modulus once it escaped.
+	 * @param inverseLogDegree One over the base 2 log of the power of the formula.
+	 * @return The packed RGB colour.
+	 */
+	public int smooth(int iterations, double modulusSquared, double inverseLogDegree){
+		return gradient[(int) (normalised(iterations, modulusSquared, inverseLogDegree)*scale) % SIZE];
+	}
+
+	/**
+	 * Works out the normalised iteration count of a pixel, n + 1 - log(log|z|)/log(d),
+	 * which varies continuously across the image.
+	 *
+	 * @param iterations The number of iterations before the pixel escaped.
+	 * @param modulusSquared The square of the modulus once it escaped.
+	 * @param inverseLogDegree One over the base 2 log of the power of the formula.
+	 * @return The normalised iteration count, never less than 0.
+	 */
+	public static double normalised(int iterations, double modulusSquared, double inverseLogDegree){
+		//log2|z| is half of log2|z|^2
+		double normalised = iterations + 1 - FastMath.log2(0.5*FastMath.log2(modulusSquared))*inverseLogDegree;
+		return normalised < 0 ? 0 : normalised;
+	}
+}
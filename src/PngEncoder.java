@@ -0,0 +1,335 @@
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+
+/**
+ * Writes png images a band of rows at a time, so an image never has to be held in memory
+ * as a whole. Rows are asked for from a {@link Rows} and filtered with the png Sub filter.
+ * Each band is deflated on its own by the render scheduler as export work, so the bands
+ * are compressed in parallel, and the compressed bands are joined into one zlib stream of
+ * IDAT chunks in order. As pigz does, every band starts with the end of the band before it
+ * as its dictionary, so matches across the join aren't lost, and every band but the last
+ * ends on a byte boundary with a sync flush, so the bands can simply be written one after
+ * another.
+ *
+ * @author Daniel
+ *
+ */
+public class PngEncoder {
+
+	/**
+	 * The bytes every png file starts with.
+	 */
+	private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+	/**
+	 * The largest amount of image data put in a single IDAT chunk.
+	 */
+	private static final int CHUNK = 1 << 16;
+	/**
+	 * The png filter type which stores each byte as the difference from the same
+	 * colour of the pixel to its left.
+	 */
+	private static final int SUB = 1;
+	/**
+	 * The amount of filtered image data deflated by each band.
+	 */
+	private static final int BAND = 1 << 18;
+	/**
+	 * The size of the deflate window, the most of the band before each band can match against.
+	 */
+	private static final int WINDOW = 1 << 15;
+
+	/**
+	 * Supplies the rows of an image.
+	 *
+	 * @author Daniel
+	 *
+	 */
+	public interface Rows {
+		/**
+		 * Copies one row of the image. Rows are asked for from several threads at once.
+		 *
+		 * @param y The row, from 0 at the top.
+		 * @param pixels The packed RGB values to copy the row into.
+		 */
+		void row(int y, int[] pixels);
+	}
+
+	/**
+	 * Told how far through writing an image is.
+	 *
+	 * @author Daniel
+	 *
+	 */
+	public interface Progress {
+		/**
+		 * Called every time more rows have been written.
+		 *
+		 * @param rows The number of rows written so far.
+		 * @param height The height of the image.
+		 */
+		void update(int rows, int height);
+	}
+
+	/**
+	 * Writes an image as a png.
+	 *
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @param rows Supplies the rows of the image.
+	 * @param out The stream to write to, which is left open.
+	 * @throws IOException If the stream fails.
+	 */
+	public static void write(int width, int height, Rows rows, OutputStream out) throws IOException{
+		write(width, height, rows, out, null);
+	}
+
+	/**
+	 * Writes an image as a png, deflating a few bands for each render thread at a time so
+	 * only those bands are held in memory, and telling the progress after each set of bands.
+	 *
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @param rows Supplies the rows of the image.
+	 * @param out The stream to write to, which is left open.
+	 * @param progress Told how many rows have been written, or null.
+	 * @throws IOException If the stream fails.
+	 */
+	public static void write(final int width, final int height, final Rows rows, OutputStream out, Progress progress) throws IOException{
+		out.write(SIGNATURE);
+		writeHeader(width, height, out);
+		ChunkStream data = new ChunkStream(out, "IDAT");
+		//the zlib header for a deflate stream with a 32K window and the default level
+		data.write(0x78);
+		data.write(0x9C);
+		Adler32 checksum = new Adler32();
+		final int bandRows = Math.max(1, BAND/(1 + 3*width));
+		int bands = 2*Runtime.getRuntime().availableProcessors();
+		for(int first = 0; first < height; first += bands*bandRows){
+			final int last = Math.min(height, first + bands*bandRows);
+			final byte[][] filtered = new byte[(last - first + bandRows - 1)/bandRows][];
+			final byte[][] deflated = new byte[filtered.length][];
+			List<Runnable> tiles = new ArrayList<Runnable>();
+			for(int band = 0; band < filtered.length; band++){
+				final int index = band;
+				final int top = first + band*bandRows;
+				tiles.add(new Runnable(){
+					@Override
+					public void run() {
+						filtered[index] = filter(rows, width, top, Math.min(last, top + bandRows));
+						deflated[index] = deflate(rows, width, top, filtered[index], top + bandRows >= height);
+					}
+				});
+			}
+			RenderScheduler.get().run(RenderScheduler.EXPORT, tiles, true);
+			//the checksum is of the whole image in order, so is worked out as the bands are joined
+			for(int band = 0; band < filtered.length; band++){
+				checksum.update(filtered[band]);
+				data.write(deflated[band]);
+			}
+			if(progress != null){
+				progress.update(last, height);
+			}
+		}
+		DataOutputStream trailer = new DataOutputStream(data);
+		trailer.writeInt((int) checksum.getValue());
+		data.flush();
+		new ChunkStream(out, "IEND").flush();
+	}
+
+	/**
+	 * Filters a band of rows into png scanlines.
+	 *
+	 * @param rows Supplies the rows of the image.
+	 * @param width The width of the image.
+	 * @param top The first row of the band.
+	 * @param limit The row after the last row of the band.
+	 * @return The scanlines, one after another.
+	 */
+	private static byte[] filter(Rows rows, int width, int top, int limit){
+		int lineLength = 1 + 3*width;
+		int[] pixels = new int[width];
+		byte[] line = new byte[lineLength];
+		byte[] lines = new byte[(limit - top)*lineLength];
+		for(int y = top; y < limit; y++){
+			rows.row(y, pixels);
+			filter(pixels, line);
+			System.arraycopy(line, 0, lines, (y - top)*lineLength, lineLength);
+		}
+		return lines;
+	}
+
+	/**
+	 * Deflates one band into raw deflate data, using the end of the band before it as the
+	 * dictionary. The rows it needs from the band before are filtered again, as it may not
+	 * have been filtered yet.
+	 *
+	 * @param rows Supplies the rows of the image.
+	 * @param width The width of the image.
+	 * @param top The first row of the band.
+	 * @param lines The filtered scanlines of the band.
+	 * @param last Whether this is the last band, which finishes the stream.
+	 * @return The deflated band.
+	 */
+	private static byte[] deflate(Rows rows, int width, int top, byte[] lines, boolean last){
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		try {
+			if(top > 0){
+				int lineLength = 1 + 3*width;
+				int dictionaryRows = Math.min(top, (WINDOW + lineLength - 1)/lineLength);
+				byte[] before = filter(rows, width, top - dictionaryRows, top);
+				int length = Math.min(WINDOW, before.length);
+				deflater.setDictionary(before, before.length - length, length);
+			}
+			deflater.setInput(lines);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(lines.length/4);
+			byte[] buffer = new byte[CHUNK];
+			if(last){
+				deflater.finish();
+				while(!deflater.finished()){
+					bytes.write(buffer, 0, deflater.deflate(buffer));
+				}
+			}else{
+				//a full buffer means there may be more to flush
+				int length;
+				do {
+					length = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+					bytes.write(buffer, 0, length);
+				} while(length == buffer.length);
+			}
+			return bytes.toByteArray();
+		} finally {
+			deflater.end();
+		}
+	}
+
+	/**
+	 * Writes the IHDR chunk of an 8 bit RGB image.
+	 *
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @param out The stream to write to.
+	 * @throws IOException If the stream fails.
+	 */
+	static void writeHeader(int width, int height, OutputStream out) throws IOException{
+		ChunkStream header = new ChunkStream(out, "IHDR");
+		DataOutputStream fields = new DataOutputStream(header);
+		fields.writeInt(width);
+		fields.writeInt(height);
+		fields.writeByte(8); //bits per sample
+		fields.writeByte(2); //RGB
+		fields.writeByte(0); //deflate
+		fields.writeByte(0); //adaptive filtering
+		fields.writeByte(0); //not interlaced
+		header.flush();
+	}
+
+	/**
+	 * Turns a row of packed RGB values into a filtered png scanline.
+	 *
+	 * @param pixels The packed RGB values of the row.
+	 * @param line The scanline, one filter type byte followed by three bytes per pixel.
+	 */
+	static void filter(int[] pixels, byte[] line){
+		line[0] = SUB;
+		int previous = 0;
+		for(int x = 0, i = 1; x < pixels.length; x++, i += 3){
+			int pixel = pixels[x];
+			line[i] = (byte) ((pixel >> 16) - (previous >> 16));
+			line[i + 1] = (byte) ((pixel >> 8) - (previous >> 8));
+			line[i + 2] = (byte) (pixel - previous);
+			previous = pixel;
+		}
+	}
+
+	/**
+	 * Writes everything written to it as png chunks of one type, each with its length
+	 * and CRC. A chunk is written whenever the buffer fills up and when flushed, even
+	 * if it is empty.
+	 *
+	 * @author Daniel
+	 *
+	 */
+	static class ChunkStream extends OutputStream {
+		/**
+		 * The stream the chunks are written to.
+		 */
+		private OutputStream out;
+		/**
+		 * The four letter type of the chunks.
+		 */
+		private byte[] type;
+		/**
+		 * The data of the chunk being built.
+		 */
+		private byte[] buffer;
+		/**
+		 * The amount of data in the buffer.
+		 */
+		private int count;
+
+		/**
+		 * Creates a stream of chunks of the given type.
+		 *
+		 * @param out The stream the chunks are written to.
+		 * @param type The four letter type of the chunks.
+		 */
+		ChunkStream(OutputStream out, String type){
+			this.out = out;
+			this.type = type.getBytes();
+			buffer = new byte[CHUNK];
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			if(count == buffer.length){
+				writeChunk();
+			}
+			buffer[count++] = (byte) b;
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			while(length > 0){
+				if(count == buffer.length){
+					writeChunk();
+				}
+				int copy = Math.min(length, buffer.length - count);
+				System.arraycopy(bytes, offset, buffer, count, copy);
+				count += copy;
+				offset += copy;
+				length -= copy;
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			writeChunk();
+			out.flush();
+		}
+
+		/**
+		 * Writes the buffer as one chunk and empties it.
+		 *
+		 * @throws IOException If the stream fails.
+		 */
+		private void writeChunk() throws IOException{
+			CRC32 crc = new CRC32();
+			crc.update(type);
+			crc.update(buffer, 0, count);
+			DataOutputStream chunk = new DataOutputStream(out);
+			chunk.writeInt(count);
+			chunk.write(type);
+			chunk.write(buffer, 0, count);
+			chunk.writeInt((int) crc.getValue());
+			count = 0;
+		}
+	}
+}
@@ -0,0 +1,507 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+
+/**
+ * Renders a fixed set of views of every fractal type, as both Mandelbrot and Julia sets,
+ * and checks them against golden images of their iterations and against a baseline of
+ * how fast they rendered. Views are rendered the same way the panels render them, tiles
+ * of columns on the render scheduler with the mirrored parts copied, and each one is
+ * rendered again with interior checking, which has to give the same iterations. Formulas
+ * entered by the user which are the same as a built in type are checked against the
+ * golden image of that type, so the compiled formulas can't drift from the built in ones.
+ * <p>
+ * The golden images are stored as deflated iteration buffers in a directory which is kept
+ * with the source. The speed depends on the machine, so the baseline is kept in the home
+ * directory of the machine it was recorded on. Even on one machine the speed drifts with
+ * whatever else is running, so each view is timed against a fixed reference loop timed
+ * straight before it, and it is how much faster or slower than the reference it is which
+ * is recorded. Run with {@code record} to write both, and with {@code check} to compare
+ * against them, which exits with a failure if any image differs or any view renders
+ * slower than the baseline by more than the given percentage.
+ *
+ * @author Daniel
+ *
+ */
+public class RegressionCheck {
+
+	/**
+	 * The size of every image rendered.
+	 */
+	private static final int WIDTH = 320, HEIGHT = 256;
+	/**
+	 * The number of times each view and the reference are timed, the quickest time of
+	 * each being taken, as nothing else on the machine can make a render faster than it
+	 * really is, only slower.
+	 */
+	private static final int RUNS = 9;
+	/**
+	 * The shortest time each timing renders a view again and again for, in nanoseconds,
+	 * so quick views aren't lost in the noise of the timer.
+	 */
+	private static final long SAMPLE = 500000000L;
+	/**
+	 * The number of times every view is rendered before any of them are timed.
+	 */
+	private static final int WARM_UP = 3;
+	/**
+	 * The width of each tile of columns handed to the render scheduler.
+	 */
+	private static final int TILE = 16;
+	/**
+	 * The file the speed of each view is recorded in.
+	 */
+	private static final File BASELINE = new File(System.getProperty("user.home"), ".fractal-baseline");
+	/**
+	 * The percentage a view can be slower than its baseline by before the check fails.
+	 * A view which seems too slow is timed again before it fails, and only fails if it is
+	 * too slow both times.
+	 */
+	private static final double SLOWER = 15;
+
+	/**
+	 * One view to render.
+	 *
+	 * @author Daniel
+	 *
+	 */
+	private static class View {
+		/**
+		 * The name of the view.
+		 */
+		private String name;
+		/**
+		 * The name of the golden image of the view, which is shared with another view
+		 * if both should give the same image.
+		 */
+		private String golden;
+		/**
+		 * An int representation of the fractal type.
+		 */
+		private int fractalType;
+		/**
+		 * The power used by a Multibrot set of type {@link Kernel#MULTIBROT}.
+		 */
+		private double power;
+		/**
+		 * The formula used by a fractal of type {@link Kernel#CUSTOM}, or null for any other type.
+		 */
+		private Formula formula;
+		/**
+		 * The base complex number of a Julia set, or null for the Mandelbrot set.
+		 */
+		private Complex c;
+		/**
+		 * The numerical value of the centre of the image across and down.
+		 */
+		private double middleXVal, middleYVal;
+		/**
+		 * The width and height of the plane shown.
+		 */
+		private double realAxis, imaginaryAxis;
+		/**
+		 * The maximum number of iterations.
+		 */
+		private int max;
+		/**
+		 * The number of pixels allowed to differ from the golden image.
+		 */
+		private int tolerance;
+
+		/**
+		 * Creates a view.
+		 *
+		 * @param name The name of the view.
+		 * @param fractalType An int representation of the fractal type.
+		 * @param power The power used by a Multibrot set of type {@link Kernel#MULTIBROT}.
+		 * @param c The base complex number of a Julia set, or null for the Mandelbrot set.
+		 * @param middleXVal The real value of the centre of the image.
+		 * @param middleYVal The imaginary value of the centre of the image.
+		 * @param realAxis The width of the plane shown.
+		 * @param max The maximum number of iterations.
+		 */
+		View(String name, int fractalType, double power, Complex c, double middleXVal, double middleYVal, double realAxis, int max){
+			this.name = name;
+			golden = name;
+			this.fractalType = fractalType;
+			this.power = power;
+			this.c = c;
+			this.middleXVal = middleXVal;
+			this.middleYVal = middleYVal;
+			this.realAxis = realAxis;
+			imaginaryAxis = realAxis*0.8;
+			this.max = max;
+			//the polar form of a real power leaves more room for rounding to differ
+			tolerance = fractalType == Kernel.MULTIBROT && !Kernel.isInteger(power) ? WIDTH*HEIGHT/1000 : 0;
+		}
+
+		/**
+		 * Creates a view of a formula entered by the user.
+		 *
+		 * @param name The name of the view.
+		 * @param golden The name of the golden image, which is another view's if the formula is the same as a built in type.
+		 * @param formula The formula.
+		 * @param c The base complex number of a Julia set, or null for the Mandelbrot set.
+		 * @param max The maximum number of iterations.
+		 */
+		public View(String name, String golden, String formula, Complex c, int max){
+			this(name, Kernel.CUSTOM, 2, c, c == null ? -0.25 : 0, 0, 4.0, max);
+			this.golden = golden;
+			this.formula = Formula.compile(formula);
+		}
+	}
+
+	/**
+	 * Returns every view checked: the whole of each fractal type and a Julia set of each,
+	 * with a deeper zoom into the Mandelbrot set and a Julia set with a real constant. The
+	 * Julia set of 1 is dust which every pixel escapes from, and zoomed right in on zero
+	 * the orbits start with tiny derivatives, so none of it may be found inside the set.
+	 * The custom formulas for the Mandelbrot set and burning ship have to match the built
+	 * in ones exactly, and z^3 - z + c, which no built in type has, has images of its own.
+	 *
+	 * @return The views.
+	 */
+	private static List<View> views(){
+		List<View> views = new ArrayList<View>();
+		String[] names = {"mandelbrot", "burningship", "tricorn", "multibrot3", "multibrot4", "multibrot5", "multibrot6", "multibrot2.5"};
+		for(int type = 0; type <= Kernel.MULTIBROT; type++){
+			views.add(new View(names[type], type, 2.5, null, -0.25, 0, 4.0, 200));
+			views.add(new View("julia-" + names[type], type, 2.5, new Complex(-0.8, 0.156), 0, 0, 4.0, 200));
+		}
+		views.add(new View("mandelbrot-seahorse", 0, 2, null, -0.745, 0.11, 0.02, 2000));
+		views.add(new View("julia-basilica", 0, 2, new Complex(-1, 0), 0, 0, 4.0, 500));
+		views.add(new View("julia-dust", 0, 2, new Complex(1, 0), 0, 0, 1e-10, 200));
+		views.add(new View("custom-mandelbrot", "mandelbrot", "z^2 + c", null, 200));
+		views.add(new View("julia-custom-mandelbrot", "julia-mandelbrot", "z^2 + c", new Complex(-0.8, 0.156), 200));
+		views.add(new View("custom-burningship", "burningship", "conj(abs(z))^2 + c", null, 200));
+		views.add(new View("custom-cubic", "custom-cubic", "z^3 - z + c", null, 200));
+		views.add(new View("julia-custom-cubic", "julia-custom-cubic", "z^3 - z + c", new Complex(-0.8, 0.156), 200));
+		return views;
+	}
+
+	/**
+	 * Renders a view the way the panels do.
+	 *
+	 * @param view The view to render.
+	 * @param interior Whether to find the interior early from the derivative.
+	 * @param parallel Whether the tiles are shared between the render threads, or all run on this one.
+	 * @return The number of iterations for each pixel.
+	 */
+	private static int[] render(final View view, final boolean interior, boolean parallel){
+		final int[] iterations = new int[WIDTH*HEIGHT];
+		final float[] escape = new float[WIDTH*HEIGHT];
+		final int middleXCo = WIDTH / 2 + 1;
+		final int middleYCo = HEIGHT / 2 + 1;
+		final double pixelValueX = view.realAxis/WIDTH;
+		final double pixelValueY = view.imaginaryAxis/HEIGHT;
+		final boolean fast = Kernel.fastPower(pixelValueX, pixelValueY);
+		final Symmetry symmetry = view.c == null
+				? Symmetry.mandelbrot(view.fractalType, view.power, view.formula, WIDTH, HEIGHT, middleXCo, middleYCo, pixelValueX, pixelValueY, view.middleXVal, view.middleYVal)
+				: Symmetry.julia(view.fractalType, view.power, view.formula, view.c, WIDTH, HEIGHT, middleXCo, middleYCo, pixelValueX, pixelValueY);
+		List<Runnable> tiles = new ArrayList<Runnable>();
+		for(int x = 0; x < WIDTH; x += TILE){
+			final int lower = x;
+			final int limit = Math.min(WIDTH, x + TILE);
+			tiles.add(new Runnable(){
+				@Override
+				public void run() {
+					for(int x = lower; x < limit; x++){
+						for(int y = 0; y < HEIGHT; y++){
+							if(symmetry.isMirrored(x, y)){
+								continue;
+							}
+							int index = y*WIDTH + x;
+							double real = ((x-middleXCo)*pixelValueX)+view.middleXVal;
+							double imaginary = ((middleYCo-y)*pixelValueY)+view.middleYVal;
+							if(view.c == null){
+								iterations[index] = interior ? Kernel.mandelbrotInterior(view.fractalType, view.power, view.formula, fast, real, imaginary, view.max, escape, index)
+										: Kernel.mandelbrot(view.fractalType, view.power, view.formula, fast, real, imaginary, view.max, escape, index);
+							}else{
+								iterations[index] = interior ? Kernel.juliaInterior(view.fractalType, view.power, view.formula, fast, real, imaginary, view.c, view.max, escape, index)
+										: Kernel.julia(view.fractalType, view.power, view.formula, fast, real, imaginary, view.c, view.max, escape, index);
+							}
+						}
+					}
+				}
+			});
+		}
+		RenderScheduler.get().run(RenderScheduler.EXPORT, tiles, parallel);
+		symmetry.fill(iterations);
+		return iterations;
+	}
+
+	/**
+	 * Renders the reference the speed of each view is measured against: the whole
+	 * Mandelbrot set, iterated by a loop of its own rather than the kernel so it doesn't
+	 * change when the kernel does, in tiles like the views.
+	 *
+	 * @param parallel Whether the tiles are shared between the render threads, or all run on this one.
+	 */
+	private static void reference(boolean parallel){
+		final double pixelValueX = 4.0/WIDTH;
+		final double pixelValueY = 3.2/HEIGHT;
+		List<Runnable> tiles = new ArrayList<Runnable>();
+		for(int x = 0; x < WIDTH; x += TILE){
+			final int lower = x;
+			final int limit = Math.min(WIDTH, x + TILE);
+			tiles.add(new Runnable(){
+				@Override
+				public void run() {
+					int total = 0;
+					for(int x = lower; x < limit; x++){
+						for(int y = 0; y < HEIGHT; y++){
+							double cr = (x - WIDTH/2)*pixelValueX - 0.5;
+							double ci = (HEIGHT/2 - y)*pixelValueY;
+							double zr = cr;
+							double zi = ci;
+							int iterations = 0;
+							while(zr*zr + zi*zi < 4 && iterations < 200){
+								double temp = zr*zr - zi*zi + cr;
+								zi = 2*zr*zi + ci;
+								zr = temp;
+								iterations++;
+							}
+							total += iterations;
+						}
+					}
+					//kept so the loop can't be optimised away
+					if(total < 0){
+						throw new IllegalStateException();
+					}
+				}
+			});
+		}
+		RenderScheduler.get().run(RenderScheduler.EXPORT, tiles, parallel);
+	}
+
+	/**
+	 * Renders a view, or the reference, as many times as fit in {@link #SAMPLE}. Every
+	 * tile is rendered on this thread, as how the render threads happen to share the
+	 * tiles out and what else the machine is running on its other cores varies far more
+	 * between runs than the speed of the kernel does.
+	 *
+	 * @param view The view to render, or null for the reference.
+	 * @return The average time of each render in nanoseconds.
+	 */
+	private static double sample(View view){
+		long start = System.nanoTime();
+		int frames = 0;
+		long elapsed;
+		do {
+			if(view == null){
+				reference(false);
+			}else{
+				render(view, false, false);
+			}
+			frames++;
+			elapsed = System.nanoTime() - start;
+		} while(elapsed < SAMPLE);
+		return (double) elapsed/frames;
+	}
+
+	/**
+	 * Renders every view, with and without interior checking, a few times over before any
+	 * of them are timed. The virtual machine compiles the kernel for the fractal types it
+	 * has seen so far and compiles it again as it sees more, so otherwise the views timed
+	 * first would run different code from the same views timed later, depending on when
+	 * the compiler happened to get to it.
+	 *
+	 * @param views Every view.
+	 */
+	private static void warmUp(List<View> views){
+		for(int round = 0; round < WARM_UP; round++){
+			for(View view : views){
+				render(view, false, false);
+				render(view, true, false);
+			}
+		}
+	}
+
+	/**
+	 * Times a view and the reference several times each, taking turns so both see the
+	 * machine as busy as each other, and returns how many times faster than the
+	 * reference the view was from the quickest time of each. The first turn isn't
+	 * counted, to let the virtual machine compile the kernel first.
+	 *
+	 * @param view The view to time.
+	 * @return The speed of the view over the speed of the reference.
+	 */
+	private static double time(View view){
+		double reference = Double.MAX_VALUE;
+		double time = Double.MAX_VALUE;
+		for(int run = -1; run < RUNS; run++){
+			double referenceRun = sample(null);
+			double timeRun = sample(view);
+			if(run >= 0){
+				reference = Math.min(reference, referenceRun);
+				time = Math.min(time, timeRun);
+			}
+		}
+		return reference/time;
+	}
+
+	/**
+	 * Counts the pixels which differ between two images.
+	 *
+	 * @param a One image.
+	 * @param b The other image.
+	 * @return The number of pixels which differ.
+	 */
+	private static int differences(int[] a, int[] b){
+		int count = 0;
+		for(int i = 0; i < a.length; i++){
+			if(a[i] != b[i]){
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Writes the golden image of every view, apart from those which share another view's,
+	 * and records how fast each one renders on this machine.
+	 *
+	 * @param directory The directory to write the golden images to.
+	 * @throws IOException If a file couldn't be written.
+	 */
+	private static void record(File directory) throws IOException{
+		directory.mkdirs();
+		Properties baseline = new Properties();
+		List<View> views = views();
+		warmUp(views);
+		for(View view : views){
+			int[] iterations = render(view, false, true);
+			if(view.golden.equals(view.name)){
+				DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(new BufferedOutputStream(
+						new FileOutputStream(new File(directory, view.golden + ".bin")))));
+				try {
+					out.writeInt(WIDTH);
+					out.writeInt(HEIGHT);
+					out.writeInt(view.max);
+					for(int count : iterations){
+						out.writeInt(count);
+					}
+				} finally {
+					out.close();
+				}
+			}
+			double speed = time(view);
+			baseline.setProperty(view.name, Double.toString(speed));
+			System.out.printf("%-24s recorded %8.3f times the reference%n", view.name, speed);
+		}
+		FileOutputStream out = new FileOutputStream(BASELINE);
+		try {
+			baseline.store(out, "Fractal render speeds, as multiples of the speed of the reference");
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Reads the golden image of a view.
+	 *
+	 * @param directory The directory of the golden images.
+	 * @param view The view.
+	 * @return The number of iterations for each pixel.
+	 * @throws IOException If the file couldn't be read or is for a different view.
+	 */
+	private static int[] golden(File directory, View view) throws IOException{
+		DataInputStream in = new DataInputStream(new InflaterInputStream(new BufferedInputStream(
+				new FileInputStream(new File(directory, view.golden + ".bin")))));
+		try {
+			if(in.readInt() != WIDTH || in.readInt() != HEIGHT || in.readInt() != view.max){
+				throw new IOException("The golden image " + view.golden + " is for a different view");
+			}
+			int[] iterations = new int[WIDTH*HEIGHT];
+			for(int i = 0; i < iterations.length; i++){
+				iterations[i] = in.readInt();
+			}
+			return iterations;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Checks every view against its golden image and its recorded speed.
+	 *
+	 * @param directory The directory of the golden images.
+	 * @param slower The percentage a view can be slower than its baseline by.
+	 * @return True if every view passed.
+	 * @throws IOException If a golden image couldn't be read.
+	 */
+	private static boolean check(File directory, double slower) throws IOException{
+		Properties baseline = new Properties();
+		if(BASELINE.exists()){
+			FileInputStream in = new FileInputStream(BASELINE);
+			try {
+				baseline.load(in);
+			} finally {
+				in.close();
+			}
+		}else{
+			System.out.println("No speeds recorded on this machine, only checking the images");
+		}
+		boolean passed = true;
+		List<View> views = views();
+		warmUp(views);
+		for(View view : views){
+			int[] golden = golden(directory, view);
+			int plain = differences(golden, render(view, false, true));
+			int interior = differences(golden, render(view, true, true));
+			String result = plain > view.tolerance ? "FAILED " + plain + " pixels differ"
+					: interior > view.tolerance ? "FAILED " + interior + " pixels differ with interior checking" : "ok";
+			double speed = time(view);
+			String recorded = baseline.getProperty(view.name);
+			String speeds = String.format("%8.3f", speed);
+			if(recorded != null){
+				double change = 100*(speed/Double.parseDouble(recorded) - 1);
+				if(change < -slower){
+					//something else on the machine may have been busy, so make sure
+					speed = Math.max(speed, time(view));
+					speeds = String.format("%8.3f", speed);
+					change = 100*(speed/Double.parseDouble(recorded) - 1);
+				}
+				speeds += String.format(" %+6.1f%%", change);
+				if(change < -slower && result.equals("ok")){
+					result = "FAILED too slow";
+				}
+			}
+			passed &= result.equals("ok");
+			System.out.printf("%-24s %s %s%n", view.name, speeds, result);
+		}
+		return passed;
+	}
+
+	/**
+	 * Records or checks the golden images and speeds.
+	 *
+	 * @param args {@code record directory} or {@code check directory [percent]}.
+	 * @throws IOException If a file couldn't be read or written.
+	 */
+	public static void main(String[] args) throws IOException{
+		if(args.length == 2 && args[0].equals("record")){
+			record(new File(args[1]));
+		}else if((args.length == 2 || args.length == 3) && args[0].equals("check")){
+			double slower = args.length == 3 ? Double.parseDouble(args[2]) : SLOWER;
+			if(!check(new File(args[1]), slower)){
+				System.exit(1);
+			}
+		}else{
+			System.err.println("Usage: java RegressionCheck record directory");
+			System.err.println("       java RegressionCheck check directory [percent slower allowed]");
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,557 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.imageio.ImageIO;
+
+
+/**
+ * Renders one large image across several processes, possibly on several machines. A
+ * coordinator splits the image into tiles and listens for workers, which connect over
+ * TCP and are handed one tile at a time. Each worker sends back the iterations of its
+ * tile compressed, and the coordinator puts the image together. If a worker dies or
+ * its connection fails the tile it was working on is handed to another worker.
+ * <p>
+ * Each message from the coordinator starts with {@link #TILE} or {@link #STOP}. A tile
+ * message carries the whole job as well as the tile, so workers don't keep any state
+ * between tiles and can join or leave at any time. The job includes the text of a custom
+ * formula, which each worker compiles for itself. The reply repeats the tile's position
+ * followed by the length and bytes of its deflated iterations and escape values. While
+ * no worker is connected the coordinator renders the tiles itself, so the image is still
+ * finished if none ever connect or they all die.
+ * <p>
+ * Run from the command line as
+ * <pre>
+ * java RenderFarm coordinator port file width height type power max xLower xUpper yLower yUpper [cReal cImaginary] [formula]
+ * java RenderFarm worker host port
+ * java RenderFarm local workers port file width height type power max xLower xUpper yLower yUpper [cReal cImaginary] [formula]
+ * </pre>
+ * where giving the real and imaginary parts of c renders a Julia set instead of the
+ * Mandelbrot set, the formula of z and c is given last for the custom type, and local
+ * mode starts the given number of worker processes on this machine as well as the
+ * coordinator.
+ *
+ * @author Daniel
+ *
+ */
+public class RenderFarm {
+
+	/**
+	 * Sent by the coordinator when there is no more work.
+	 */
+	private static final int STOP = 0;
+	/**
+	 * Sent by the coordinator before the job and tile to render.
+	 */
+	private static final int TILE = 1;
+	/**
+	 * The width and height of each tile.
+	 */
+	public static final int TILE_SIZE = 256;
+	/**
+	 * The number of times a tile is handed out before the job is given up on.
+	 */
+	private static final int ATTEMPTS = 3;
+	/**
+	 * How long the coordinator waits for a worker to send back a tile, in milliseconds.
+	 */
+	private static final int TIMEOUT = 10*60*1000;
+	/**
+	 * How many times a worker tries to connect, a tenth of a second apart, in case it
+	 * was started before the coordinator.
+	 */
+	private static final int CONNECT_ATTEMPTS = 100;
+	/**
+	 * How long the coordinator waits for a worker while none are connected before it
+	 * renders a tile itself, in milliseconds.
+	 */
+	private static final int WORKER_WAIT = 10*1000;
+
+	/**
+	 * An int representation of the fractal type.
+	 */
+	private int fractalType;
+	/**
+	 * The power used by a Multibrot set of type {@link Kernel#MULTIBROT}.
+	 */
+	private double power;
+	/**
+	 * The formula used if the fractal type is {@link Kernel#CUSTOM}, or null.
+	 */
+	private Formula formula;
+	/**
+	 * The maximum number of iterations.
+	 */
+	private int max;
+	/**
+	 * The base complex number of the Julia set, or null for the Mandelbrot set.
+	 */
+	private Complex c;
+	/**
+	 * The bounds of the plane shown by the image.
+	 */
+	private double xLower, xUpper, yLower, yUpper;
+	/**
+	 * The size of the image in pixels.
+	 */
+	private int width, height;
+	/**
+	 * The number of iterations for each pixel of the image.
+	 */
+	private int[] iterations;
+	/**
+	 * The square of the modulus of each pixel once it escaped.
+	 */
+	private float[] escape;
+	/**
+	 * The first error which stopped the job, or null.
+	 */
+	private IOException failure;
+	/**
+	 * The number of workers connected to the coordinator.
+	 */
+	private AtomicInteger connected = new AtomicInteger();
+
+	/**
+	 * Creates a job to render an image of a Mandelbrot or Julia set.
+	 *
+	 * @param fractalType An int representation of the fractal type.
+	 * @param power The power used by a Multibrot set of type {@link Kernel#MULTIBROT}.
+	 * @param formula The formula used if the fractal type is {@link Kernel#CUSTOM}, or null.
+	 * @param max The maximum number of iterations.
+	 * @param c The base complex number of the Julia set, or null for the Mandelbrot set.
+	 * @param xLower The lower bound of the real axis.
+	 * @param xUpper The upper bound of the real axis.
+	 * @param yLower The lower bound of the imaginary axis.
+	 * @param yUpper The upper bound of the imaginary axis.
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 */
+	public RenderFarm(int fractalType, double power, Formula formula, int max, Complex c, double xLower, double xUpper,
+			double yLower, double yUpper, int width, int height){
+		if(fractalType == Kernel.CUSTOM && formula == null){
+			throw new IllegalArgumentException("The custom type needs a formula");
+		}
+		this.fractalType = fractalType;
+		this.power = power;
+		this.formula = formula;
+		this.max = max;
+		this.c = c;
+		this.xLower = xLower;
+		this.xUpper = xUpper;
+		this.yLower = yLower;
+		this.yUpper = yUpper;
+		this.width = width;
+		this.height = height;
+	}
+
+	/**
+	 * Listens for workers on the given port and hands out tiles until every tile of the
+	 * image has come back. Whenever no worker has been connected for a while, the tiles
+	 * are rendered here one at a time until one connects.
+	 *
+	 * @param port The port to listen on.
+	 * @throws IOException If the port couldn't be listened on or a tile failed too many times.
+	 */
+	public void coordinate(int port) throws IOException{
+		iterations = new int[width*height];
+		escape = new float[width*height];
+		final LinkedBlockingQueue<int[]> tiles = new LinkedBlockingQueue<int[]>();
+		for(int y = 0; y < height; y += TILE_SIZE){
+			for(int x = 0; x < width; x += TILE_SIZE){
+				//x, y, width, height and the number of times the tile has been handed out
+				tiles.add(new int[]{x, y, Math.min(TILE_SIZE, width - x), Math.min(TILE_SIZE, height - y), 0});
+			}
+		}
+		final CountDownLatch done = new CountDownLatch(tiles.size());
+		final ServerSocket server = new ServerSocket(port);
+		Thread acceptor = new Thread(new Runnable(){
+			/*
+			 * Gives every worker which connects its own thread until the server is closed.
+			 */
+			@Override
+			public void run() {
+				while(true){
+					final Socket socket;
+					try {
+						socket = server.accept();
+					} catch (IOException e) {
+						return;
+					}
+					Thread handler = new Thread(new Runnable(){
+						@Override
+						public void run() {
+							serve(socket, tiles, done);
+						}
+					}, "Farm worker " + socket.getRemoteSocketAddress());
+					handler.setDaemon(true);
+					handler.start();
+				}
+			}
+		}, "Farm coordinator");
+		acceptor.setDaemon(true);
+		acceptor.start();
+		try {
+			while(!done.await(WORKER_WAIT, TimeUnit.MILLISECONDS)){
+				int[] tile;
+				while(connected.get() == 0 && (tile = tiles.poll()) != null){
+					unpack(renderTile(tile), tile);
+					done.countDown();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for tiles");
+		} finally {
+			server.close();
+		}
+		synchronized(this){
+			if(failure != null){
+				throw failure;
+			}
+		}
+	}
+
+	/**
+	 * Hands tiles to one worker until the image is finished, then tells it to stop. If
+	 * anything goes wrong with the connection, the tile it was working on is queued
+	 * again for another worker and this worker is dropped.
+	 *
+	 * @param socket The connection to the worker.
+	 * @param tiles The tiles waiting to be handed out.
+	 * @param done Counts down once for every finished tile.
+	 */
+	private void serve(Socket socket, LinkedBlockingQueue<int[]> tiles, CountDownLatch done){
+		int[] tile = null;
+		connected.incrementAndGet();
+		try {
+			socket.setSoTimeout(TIMEOUT);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			while(done.getCount() > 0){
+				tile = tiles.poll(100, TimeUnit.MILLISECONDS);
+				if(tile == null){
+					continue;
+				}
+				tile[4]++;
+				out.writeInt(TILE);
+				writeJob(out, tile);
+				out.flush();
+				receive(in, tile);
+				tile = null;
+				done.countDown();
+			}
+			out.writeInt(STOP);
+			out.flush();
+		} catch (IOException e) {
+			if(tile != null){
+				retry(tile, tiles, done, e);
+			}
+		} catch (InterruptedException e) {
+			if(tile != null){
+				tiles.add(tile);
+			}
+		} finally {
+			connected.decrementAndGet();
+			try {
+				socket.close();
+			} catch (IOException e) {
+				//the worker is being dropped anyway
+			}
+		}
+	}
+
+	/**
+	 * Queues a tile whose worker failed to be handed out again, or gives up on the whole
+	 * image if it has already failed too many times.
+	 *
+	 * @param tile The tile.
+	 * @param tiles The tiles waiting to be handed out.
+	 * @param done Counts down once for every finished tile.
+	 * @param cause Why the worker failed.
+	 */
+	private void retry(int[] tile, LinkedBlockingQueue<int[]> tiles, CountDownLatch done, IOException cause){
+		if(tile[4] < ATTEMPTS){
+			tiles.add(tile);
+			return;
+		}
+		synchronized(this){
+			if(failure == null){
+				failure = new IOException("Tile at " + tile[0] + ", " + tile[1] + " failed " + ATTEMPTS + " times", cause);
+			}
+		}
+		while(done.getCount() > 0){
+			done.countDown();
+		}
+	}
+
+	/**
+	 * Writes the job and the tile to render.
+	 *
+	 * @param out The stream to the worker.
+	 * @param tile The tile.
+	 * @throws IOException If the stream fails.
+	 */
+	private void writeJob(DataOutputStream out, int[] tile) throws IOException{
+		out.writeInt(fractalType);
+		out.writeDouble(power);
+		out.writeUTF(formula == null ? "" : formula.toString());
+		out.writeInt(max);
+		out.writeBoolean(c != null);
+		out.writeDouble(c == null ? 0 : c.getReal());
+		out.writeDouble(c == null ? 0 : c.getImaginary());
+		out.writeDouble(xLower);
+		out.writeDouble(xUpper);
+		out.writeDouble(yLower);
+		out.writeDouble(yUpper);
+		out.writeInt(width);
+		out.writeInt(height);
+		for(int i = 0; i < 4; i++){
+			out.writeInt(tile[i]);
+		}
+	}
+
+	/**
+	 * Reads a finished tile from a worker into the image.
+	 *
+	 * @param in The stream from the worker.
+	 * @param tile The tile the worker was given.
+	 * @throws IOException If the stream fails or the worker sent back a different tile.
+	 */
+	private void receive(DataInputStream in, int[] tile) throws IOException{
+		for(int i = 0; i < 4; i++){
+			if(in.readInt() != tile[i]){
+				throw new IOException("Worker sent back the wrong tile");
+			}
+		}
+		byte[] compressed = new byte[in.readInt()];
+		in.readFully(compressed);
+		unpack(compressed, tile);
+	}
+
+	/**
+	 * Puts the iterations and escape values of a finished tile into the image.
+	 *
+	 * @param compressed The tile as deflated by {@link #renderTile(int[])}.
+	 * @param tile The x, y, width and height of the tile.
+	 * @throws IOException If the data is cut short or corrupt.
+	 */
+	private void unpack(byte[] compressed, int[] tile) throws IOException{
+		DataInputStream data = new DataInputStream(new BufferedInputStream(new InflaterInputStream(
+				new ByteArrayInputStream(compressed))));
+		for(int y = tile[1]; y < tile[1] + tile[3]; y++){
+			int previous = 0;
+			for(int x = tile[0]; x < tile[0] + tile[2]; x++){
+				previous += data.readInt();
+				iterations[y*width + x] = previous;
+			}
+		}
+		for(int y = tile[1]; y < tile[1] + tile[3]; y++){
+			for(int x = tile[0]; x < tile[0] + tile[2]; x++){
+				escape[y*width + x] = data.readFloat();
+			}
+		}
+	}
+
+	/**
+	 * Connects to a coordinator and renders the tiles it hands out until it says to stop.
+	 * A custom formula is only compiled again when it differs from the last tile's.
+	 *
+	 * @param host The host the coordinator is running on.
+	 * @param port The port the coordinator is listening on.
+	 * @throws IOException If the connection fails or the formula can't be compiled.
+	 */
+	public static void work(String host, int port) throws IOException{
+		Socket socket = null;
+		for(int attempt = 1; socket == null; attempt++){
+			try {
+				socket = new Socket(host, port);
+			} catch (ConnectException e) {
+				if(attempt == CONNECT_ATTEMPTS){
+					throw e;
+				}
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException interrupted) {
+					throw e;
+				}
+			}
+		}
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			Formula formula = null;
+			while(in.readInt() == TILE){
+				int fractalType = in.readInt();
+				double power = in.readDouble();
+				String text = in.readUTF();
+				if(fractalType == Kernel.CUSTOM && (formula == null || !formula.toString().equals(text))){
+					try {
+						formula = Formula.compile(text);
+					} catch (IllegalArgumentException e) {
+						throw new IOException("Can't compile the formula " + text, e);
+					}
+				}
+				int max = in.readInt();
+				boolean julia = in.readBoolean();
+				Complex c = new Complex(in.readDouble(), in.readDouble());
+				RenderFarm job = new RenderFarm(fractalType, power, fractalType == Kernel.CUSTOM ? formula : null, max, julia ? c : null, in.readDouble(), in.readDouble(),
+						in.readDouble(), in.readDouble(), in.readInt(), in.readInt());
+				int[] tile = new int[4];
+				for(int i = 0; i < 4; i++){
+					tile[i] = in.readInt();
+					out.writeInt(tile[i]);
+				}
+				byte[] compressed = job.renderTile(tile);
+				out.writeInt(compressed.length);
+				out.write(compressed);
+				out.flush();
+			}
+		} catch (EOFException e) {
+			//the coordinator finished and closed the connection before saying to stop
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Iterates one tile of the image, handing its rows to the render scheduler, and
+	 * compresses the result. Iterations are sent as the difference from the pixel to
+	 * the left, as neighbouring pixels usually have similar iterations and small
+	 * numbers deflate far better.
+	 *
+	 * @param tile The x, y, width and height of the tile.
+	 * @return The deflated iterations followed by the escape values, row by row.
+	 * @throws IOException Never, as the data is written to memory.
+	 */
+	private byte[] renderTile(int[] tile) throws IOException{
+		final int tileX = tile[0];
+		final int tileY = tile[1];
+		final int tileWidth = tile[2];
+		final int[] tileIterations = new int[tileWidth*tile[3]];
+		final float[] tileEscape = new float[tileWidth*tile[3]];
+		final double pixelX = (xUpper - xLower)/width;
+		final double pixelY = (yUpper - yLower)/height;
+		final boolean fast = Kernel.fastPower(pixelX, pixelY);
+		List<Runnable> rows = new ArrayList<Runnable>();
+		for(int row = 0; row < tile[3]; row++){
+			final int y = row;
+			rows.add(new Runnable(){
+				@Override
+				public void run() {
+					double imaginary = yUpper - (tileY + y + 0.5)*pixelY;
+					for(int x = 0; x < tileWidth; x++){
+						double real = xLower + (tileX + x + 0.5)*pixelX;
+						int index = y*tileWidth + x;
+						tileIterations[index] = c == null ? Kernel.mandelbrot(fractalType, power, formula, fast, real, imaginary, max, tileEscape, index)
+								: Kernel.julia(fractalType, power, formula, fast, real, imaginary, c, max, tileEscape, index);
+					}
+				}
+			});
+		}
+		RenderScheduler.get().run(RenderScheduler.EXPORT, rows, true);
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream data = new DataOutputStream(new BufferedOutputStream(
+				new DeflaterOutputStream(bytes, new Deflater(Deflater.BEST_SPEED))));
+		for(int y = 0; y < tile[3]; y++){
+			int previous = 0;
+			for(int x = 0; x < tileWidth; x++){
+				data.writeInt(tileIterations[y*tileWidth + x] - previous);
+				previous = tileIterations[y*tileWidth + x];
+			}
+		}
+		for(int i = 0; i < tileEscape.length; i++){
+			data.writeFloat(tileEscape[i]);
+		}
+		data.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Colours the finished image.
+	 *
+	 * @param palette The palette to colour with.
+	 * @param smooth Whether to colour smoothly or in bands.
+	 * @return The coloured image.
+	 */
+	public BufferedImage paint(Palette palette, boolean smooth){
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		double degree = Kernel.degree(fractalType, power, formula);
+		palette.paint(iterations, escape, max, degree, smooth, null, pixels);
+		return image;
+	}
+
+	/**
+	 * Runs a coordinator, a worker or a coordinator with local workers, depending on the
+	 * first argument. See the class description for the arguments.
+	 *
+	 * @param args The command line arguments.
+	 * @throws IOException If the render fails.
+	 */
+	public static void main(String[] args) throws IOException{
+		if(args.length == 3 && args[0].equals("worker")){
+			work(args[1], Integer.parseInt(args[2]));
+			return;
+		}
+		int first = args.length > 0 && args[0].equals("local") ? 2 : 1;
+		int fractalType = args.length >= first + 11 ? Integer.parseInt(args[first + 4]) : -1;
+		//the formula of the custom type comes last
+		int length = fractalType == Kernel.CUSTOM ? args.length - 1 : args.length;
+		if(length < first + 11 || !(args[0].equals("coordinator") || args[0].equals("local"))){
+			System.err.println("Usage: java RenderFarm coordinator port file width height type power max xLower xUpper yLower yUpper [cReal cImaginary] [formula]");
+			System.err.println("       java RenderFarm worker host port");
+			System.err.println("       java RenderFarm local workers port file width height type power max xLower xUpper yLower yUpper [cReal cImaginary] [formula]");
+			System.exit(1);
+		}
+		int port = Integer.parseInt(args[first]);
+		File file = new File(args[first + 1]);
+		Formula formula = fractalType == Kernel.CUSTOM ? Formula.compile(args[args.length - 1]) : null;
+		Complex c = length >= first + 13 ? new Complex(Double.parseDouble(args[first + 11]), Double.parseDouble(args[first + 12])) : null;
+		RenderFarm job = new RenderFarm(fractalType, Double.parseDouble(args[first + 5]), formula, Integer.parseInt(args[first + 6]), c,
+				Double.parseDouble(args[first + 7]), Double.parseDouble(args[first + 8]), Double.parseDouble(args[first + 9]),
+				Double.parseDouble(args[first + 10]), Integer.parseInt(args[first + 2]), Integer.parseInt(args[first + 3]));
+
+		List<Process> workers = new ArrayList<Process>();
+		if(args[0].equals("local")){
+			String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+			for(int i = 0; i < Integer.parseInt(args[1]); i++){
+				ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+						"RenderFarm", "worker", "localhost", Integer.toString(port));
+				builder.inheritIO();
+				workers.add(builder.start());
+			}
+		}
+		long start = System.currentTimeMillis();
+		try {
+			job.coordinate(port);
+		} finally {
+			for(Process worker : workers){
+				worker.destroy();
+			}
+		}
+		ImageIO.write(job.paint(Palette.fire(), true), "png", file);
+		System.out.println("Rendered " + file + " in " + (System.currentTimeMillis() - start) + "ms");
+	}
+}
@@ -0,0 +1,176 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+
+/**
+ * The one pool of threads every image is rendered on, shared by the main view, the Julia
+ * set and exports so they don't fight over the processors. Work is handed in as tiles,
+ * and whenever a thread is free it takes the next tile of the most important kind of work
+ * waiting, so a long export gives way to the main view between tiles. Each kind of work has
+ * a bounded queue, and handing in more tiles than fit waits until there is room.
+ *
+ * @author Daniel
+ *
+ */
+public class RenderScheduler {
+
+	/**
+	 * The priority of the main view, which the user is navigating.
+	 */
+	public static final int INTERACTIVE = 0;
+	/**
+	 * The priority of the Julia set window.
+	 */
+	public static final int PREVIEW = 1;
+	/**
+	 * The priority of images and videos being saved.
+	 */
+	public static final int EXPORT = 2;
+	/**
+	 * The number of tiles each priority can have waiting.
+	 */
+	private static final int CAPACITY = 256;
+
+	/**
+	 * The scheduler shared by the whole program.
+	 */
+	private static RenderScheduler shared;
+
+	/**
+	 * The tiles waiting to be rendered, one queue for each priority with the most important first.
+	 */
+	private List<ArrayDeque<Runnable>> queues;
+
+	/**
+	 * Creates a scheduler and starts the given number of threads.
+	 *
+	 * @param threads The number of threads to render with.
+	 */
+	public RenderScheduler(int threads){
+		queues = new ArrayList<ArrayDeque<Runnable>>();
+		for(int p = INTERACTIVE; p <= EXPORT; p++){
+			queues.add(new ArrayDeque<Runnable>());
+		}
+		for(int t = 0; t < threads; t++){
+			Thread worker = new Thread(new Runnable(){
+				/*
+				 * Renders the most important tile waiting, over and over.
+				 */
+				@Override
+				public void run() {
+					while(true){
+						try {
+							take().run();
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				}
+			}, "Render " + t);
+			worker.setDaemon(true);
+			worker.start();
+		}
+	}
+
+	/**
+	 * Returns the scheduler shared by the whole program, with one thread for each processor.
+	 *
+	 * @return The shared scheduler.
+	 */
+	public static synchronized RenderScheduler get(){
+		if(shared == null){
+			shared = new RenderScheduler(Runtime.getRuntime().availableProcessors());
+		}
+		return shared;
+	}
+
+	/**
+	 * Renders every tile and waits for them all to finish. Tiles can be rendered in any
+	 * order and at the same time as each other. If the work isn't parallel the tiles are
+	 * just rendered in turn on the calling thread. If the calling thread is interrupted
+	 * it stops waiting and keeps its interrupted status.
+	 *
+	 * @param priority The priority of the work, {@link #INTERACTIVE}, {@link #PREVIEW} or {@link #EXPORT}.
+	 * @param tiles The tiles to render.
+	 * @param parallel Whether to share the tiles out between the scheduler's threads.
+	 * @throws RuntimeException If a tile threw one, once every tile has finished.
+	 */
+	public void run(int priority, List<Runnable> tiles, boolean parallel){
+		if(!parallel){
+			for(Runnable tile : tiles){
+				tile.run();
+			}
+			return;
+		}
+		final CountDownLatch done = new CountDownLatch(tiles.size());
+		final RuntimeException[] failure = new RuntimeException[1];
+		try {
+			for(final Runnable tile : tiles){
+				submit(priority, new Runnable(){
+					/*
+					 * Renders the tile and counts it as done whatever happens.
+					 */
+					@Override
+					public void run() {
+						try {
+							tile.run();
+						} catch (RuntimeException e) {
+							synchronized(failure){
+								failure[0] = e;
+							}
+						} finally {
+							done.countDown();
+						}
+					}
+				});
+			}
+			done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		}
+		synchronized(failure){
+			if(failure[0] != null){
+				throw failure[0];
+			}
+		}
+	}
+
+	/**
+	 * Queues a tile, waiting until there is room in the queue of its priority.
+	 *
+	 * @param priority The priority of the tile.
+	 * @param tile The tile.
+	 * @throws InterruptedException If interrupted while waiting for room.
+	 */
+	private synchronized void submit(int priority, Runnable tile) throws InterruptedException{
+		ArrayDeque<Runnable> queue = queues.get(priority);
+		while(queue.size() >= CAPACITY){
+			wait();
+		}
+		queue.add(tile);
+		notifyAll();
+	}
+
+	/**
+	 * Takes the next tile of the most important work waiting, waiting until there is one.
+	 *
+	 * @return The tile.
+	 * @throws InterruptedException If interrupted while waiting.
+	 */
+	private synchronized Runnable take() throws InterruptedException{
+		while(true){
+			for(ArrayDeque<Runnable> queue : queues){
+				Runnable tile = queue.poll();
+				if(tile != null){
+					//a queue which was full has room again
+					notifyAll();
+					return tile;
+				}
+			}
+			wait();
+		}
+	}
+}
@@ -0,0 +1,188 @@
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Anti-aliases an image which has already been iterated once per pixel. Only pixels
+ * whose iterations differ strongly from one of their neighbours are sampled again,
+ * at jittered points spread over a grid inside the pixel, and their colour is the
+ * average of the colours of those samples. The samples are kept so the image can be
+ * recoloured without iterating them again.
+ *
+ * @author Daniel
+ *
+ */
+public class Supersampler {
+
+	/**
+	 * The number of samples across and down each pixel which is sampled again.
+	 */
+	private static final int GRID = 4;
+	/**
+	 * The number of samples taken for each pixel which is sampled again.
+	 */
+	private static final int SAMPLES = GRID*GRID;
+	/**
+	 * The number of edge pixels in each tile handed to the render scheduler.
+	 */
+	private static final int TILE = 64;
+	/**
+	 * The difference in iterations between neighbouring pixels above which
+	 * a pixel is sampled again.
+	 */
+	private static final int THRESHOLD = 2;
+
+	/**
+	 * Iterates a single point of an image.
+	 *
+	 * @author Daniel
+	 *
+	 */
+	public interface Sampler {
+		/**
+		 * Iterates the point at the given position on the image, where whole numbers
+		 * are the positions the pixels were first iterated at.
+		 *
+		 * @param x The position across the image in pixels.
+		 * @param y The position down the image in pixels.
+		 * @param escape The buffer to store the square of the modulus in.
+		 * @param index The index to store it at.
+		 * @return The number of iterations.
+		 */
+		int sample(double x, double y, float[] escape, int index);
+	}
+
+	/**
+	 * The indices of the pixels which are sampled again.
+	 */
+	private int[] edges;
+	/**
+	 * The width of the image.
+	 */
+	private int width;
+	/**
+	 * The number of iterations for each extra sample, SAMPLES for each edge pixel in turn.
+	 */
+	private int[] sampleIterations;
+	/**
+	 * The square of the modulus of each extra sample once it escaped.
+	 */
+	private float[] sampleEscape;
+
+	/**
+	 * Finds the pixels of the image which need sampling again, those with a neighbour
+	 * whose number of iterations is more than the threshold away or where one of them
+	 * is inside the set and the other isn't.
+	 *
+	 * @param iterations The number of iterations for each pixel.
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @param max The maximum number of iterations.
+	 */
+	public Supersampler(int[] iterations, int width, int height, int max){
+		this.width = width;
+		int[] found = new int[iterations.length];
+		int count = 0;
+		for(int y = 0; y < height; y++){
+			for(int x = 0; x < width; x++){
+				int index = y*width + x;
+				int centre = iterations[index];
+				boolean edge = false;
+				for(int dy = -1; dy <= 1 && !edge; dy++){
+					for(int dx = -1; dx <= 1 && !edge; dx++){
+						int nx = x + dx;
+						int ny = y + dy;
+						if(nx >= 0 && nx < width && ny >= 0 && ny < height){
+							int neighbour = iterations[ny*width + nx];
+							edge = Math.abs(neighbour - centre) > THRESHOLD || ((neighbour == max) != (centre == max));
+						}
+					}
+				}
+				if(edge){
+					found[count++] = index;
+				}
+			}
+		}
+		edges = new int[count];
+		System.arraycopy(found, 0, edges, 0, count);
+	}
+
+	/**
+	 * Returns the number of pixels which are sampled again.
+	 *
+	 * @return The number of edge pixels.
+	 */
+	public int getEdgeCount(){
+		return edges.length;
+	}
+
+	/**
+	 * Takes the extra samples for every edge pixel, handing them to the render scheduler
+	 * in tiles. The jitter of each sample only depends on the pixel and sample number, so
+	 * sampling the same image always gives the same result.
+	 *
+	 * @param sampler Iterates a point of the image.
+	 * @param priority The priority of the work in the render scheduler.
+	 * @param parallel Whether to use every thread of the scheduler or just this one.
+	 */
+	public void sample(final Sampler sampler, int priority, boolean parallel){
+		sampleIterations = new int[edges.length*SAMPLES];
+		sampleEscape = new float[edges.length*SAMPLES];
+		List<Runnable> tiles = new ArrayList<Runnable>();
+		for(int t = 0; t < edges.length; t += TILE){
+			final int first = t;
+			final int limit = Math.min(edges.length, t + TILE);
+			tiles.add(new Runnable(){
+				/*
+				 * Samples every edge pixel in this tile.
+				 */
+				@Override
+				public void run() {
+					for(int e = first; e < limit; e++){
+						int x = edges[e] % width;
+						int y = edges[e] / width;
+						long seed = edges[e]*0x9E3779B97F4A7C15L;
+						for(int s = 0; s < SAMPLES; s++){
+							seed = seed*6364136223846793005L + 1442695040888963407L;
+							double jitterX = ((seed >>> 40) & 0xFFFF)/65536.0;
+							double jitterY = ((seed >>> 16) & 0xFFFF)/65536.0;
+							//a jittered point within the sample's square of the grid, centred on the pixel
+							double sampleX = x - 0.5 + (s % GRID + jitterX)/GRID;
+							double sampleY = y - 0.5 + (s / GRID + jitterY)/GRID;
+							int index = e*SAMPLES + s;
+							sampleIterations[index] = sampler.sample(sampleX, sampleY, sampleEscape, index);
+						}
+					}
+				}
+			});
+		}
+		RenderScheduler.get().run(priority, tiles, parallel);
+	}
+
+	/**
+	 * Colours every edge pixel of an image with the average colour of its samples.
+	 * The rest of the image should already have been coloured with the same options.
+	 *
+	 * @param palette The palette to colour with.
+	 * @param max The maximum number of iterations.
+	 * @param degree The power z is raised to by the formula being drawn.
+	 * @param smooth Whether to colour smoothly or in bands.
+	 * @param histogram The histogram of the iterations, or null to colour by cycling.
+	 * @param pixels The packed RGB values of the image to colour.
+	 */
+	public void paint(Palette palette, int max, double degree, boolean smooth, Histogram histogram, int[] pixels){
+		int[] colours = new int[sampleIterations.length];
+		palette.paint(sampleIterations, sampleEscape, max, degree, smooth, histogram, colours);
+		for(int e = 0; e < edges.length; e++){
+			int red = 0;
+			int green = 0;
+			int blue = 0;
+			for(int s = e*SAMPLES; s < (e + 1)*SAMPLES; s++){
+				red += (colours[s] >> 16) & 0xFF;
+				green += (colours[s] >> 8) & 0xFF;
+				blue += colours[s] & 0xFF;
+			}
+			pixels[edges[e]] = ((red/SAMPLES) << 16) | ((green/SAMPLES) << 8) | (blue/SAMPLES);
+		}
+	}
+}
@@ -0,0 +1,197 @@
+/**
+ * Works out which pixels of an image are mirror images of other pixels, so that
+ * only the unique part of a symmetric fractal has to be iterated. Pixels are only
+ * treated as mirrored when the value of the mirrored pixel is exactly the negative
+ * of the original, so the number of iterations copied across is always identical
+ * to the number that would have been calculated.
+ *
+ * @author Daniel
+ *
+ */
+public class Symmetry {
+
+	/**
+	 * For each column, the column holding the negated real value, or -1 if there isn't one.
+	 */
+	private int[] mirrorX;
+	/**
+	 * For each row, the row holding the negated imaginary value, or -1 if there isn't one.
+	 */
+	private int[] mirrorY;
+	/**
+	 * Holds whether the image is symmetric about the real axis.
+	 */
+	private boolean realAxis;
+	/**
+	 * Holds whether the image is symmetric about the origin (z and -z).
+	 */
+	private boolean origin;
+	/**
+	 * The width of the image.
+	 */
+	private int width;
+	/**
+	 * The height of the image.
+	 */
+	private int height;
+
+	/**
+	 * Creates the symmetry for an image, finding the mirrored row and column for every
+	 * row and column using the same pixel to number conversion the panels use.
+	 *
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @param middleXCo The X coordinate of the centre of the image.
+	 * @param middleYCo The Y coordinate of the centre of the image.
+	 * @param pixelValueX The numerical value of each pixel across.
+	 * @param pixelValueY The numerical value of each pixel down.
+	 * @param middleXVal The numerical value of the centre of the image across.
+	 * @param middleYVal The numerical value of the centre of the image down.
+	 * @param realAxis Whether the set is symmetric about the real axis.
+	 * @param origin Whether the set is symmetric about the origin.
+	 */
+	public Symmetry(int width, int height, int middleXCo, int middleYCo, double pixelValueX, double pixelValueY,
+			double middleXVal, double middleYVal, boolean realAxis, boolean origin){
+		this.width = width;
+		this.height = height;
+		this.realAxis = realAxis;
+		this.origin = origin;
+		mirrorX = new int[width];
+		mirrorY = new int[height];
+		long offsetX = Math.round(2*middleXVal/pixelValueX);
+		long offsetY = Math.round(2*middleYVal/pixelValueY);
+		for(int x = 0; x < width; x++){
+			long partner = 2*middleXCo - x - offsetX;
+			mirrorX[x] = -1;
+			if(origin && partner >= 0 && partner < width){
+				double value = ((x-middleXCo)*pixelValueX)+middleXVal;
+				double mirrored = ((partner-middleXCo)*pixelValueX)+middleXVal;
+				if(mirrored == -value){
+					mirrorX[x] = (int) partner;
+				}
+			}
+		}
+		for(int y = 0; y < height; y++){
+			long partner = 2*middleYCo - y + offsetY;
+			mirrorY[y] = -1;
+			if((realAxis || origin) && partner >= 0 && partner < height){
+				double value = ((middleYCo-y)*pixelValueY)+middleYVal;
+				double mirrored = ((middleYCo-partner)*pixelValueY)+middleYVal;
+				if(mirrored == -value){
+					mirrorY[y] = (int) partner;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Creates the symmetry for a Mandelbrot style image. Every formula apart from the
+	 * burning ship is symmetric about the real axis, apart from a Multibrot set with a
+	 * power which isn't a whole number, as arg z can jump by 2pi across the negative real axis.
+	 * A formula entered by the user is symmetric if {@link Formula#isSymmetric()} says so.
+	 *
+	 * @param fractalType An int representation of the fractal type.
+	 * @param power The power used by a Multibrot set of type {@link Kernel#MULTIBROT}.
+	 * @param formula The formula used by a fractal of type {@link Kernel#CUSTOM}, or null for any other type.
+	 * @see #Symmetry(int, int, int, int, double, double, double, double, boolean, boolean)
+	 * @return The symmetry of the image.
+	 */
+	public static Symmetry mandelbrot(int fractalType, double power, Formula formula, int width, int height, int middleXCo, int middleYCo,
+			double pixelValueX, double pixelValueY, double middleXVal, double middleYVal){
+		boolean realAxis = fractalType != 1 && (fractalType != Kernel.MULTIBROT || Kernel.isInteger(power))
+				&& (fractalType != Kernel.CUSTOM || formula.isSymmetric());
+		return new Symmetry(width, height, middleXCo, middleYCo, pixelValueX, pixelValueY, middleXVal, middleYVal, realAxis, false);
+	}
+
+	/**
+	 * Creates the symmetry for a Julia set image. Formulas of even degree (including the
+	 * burning ship and tricorn) give the same result for z and -z. A real constant makes
+	 * the set symmetric about the real axis, as does the burning ship formula for any constant.
+	 * Multibrot sets with a power which isn't a whole number aren't treated as symmetric,
+	 * and a formula entered by the user is only symmetric about the real axis, if at all.
+	 *
+	 * @param fractalType An int representation of the fractal type.
+	 * @param power The power used by a Multibrot set of type {@link Kernel#MULTIBROT}.
+	 * @param formula The formula used by a fractal of type {@link Kernel#CUSTOM}, or null for any other type.
+	 * @param c The base complex number of the Julia set.
+	 * @see #Symmetry(int, int, int, int, double, double, double, double, boolean, boolean)
+	 * @return The symmetry of the image.
+	 */
+	public static Symmetry julia(int fractalType, double power, Formula formula, Complex c, int width, int height, int middleXCo, int middleYCo,
+			double pixelValueX, double pixelValueY){
+		boolean integer = fractalType != Kernel.MULTIBROT || Kernel.isInteger(power);
+		boolean custom = fractalType == Kernel.CUSTOM;
+		boolean evenPower = fractalType == Kernel.MULTIBROT && integer && ((long) power) % 2 == 0;
+		boolean origin = fractalType == 0 || fractalType == 1 || fractalType == 2 || fractalType == 4 || fractalType == 6 || evenPower;
+		boolean realAxis = fractalType == 1 || (c.getImaginary() == 0 && integer && (!custom || formula.isSymmetric()));
+		return new Symmetry(width, height, middleXCo, middleYCo, pixelValueX, pixelValueY, 0, 0, realAxis, origin);
+	}
+
+	/**
+	 * Checks whether the given pixel is a mirror image of another pixel, meaning it
+	 * doesn't need to be iterated.
+	 *
+	 * @param x The x coordinate of the pixel.
+	 * @param y The y coordinate of the pixel.
+	 * @return True if the pixel will be copied from its mirror image.
+	 */
+	public boolean isMirrored(int x, int y){
+		return source(x, y) >= 0;
+	}
+
+	/**
+	 * Finds the index of the pixel the given pixel is a mirror image of.
+	 *
+	 * @param x The x coordinate of the pixel.
+	 * @param y The y coordinate of the pixel.
+	 * @return The index of the mirrored pixel, or -1 if the pixel has to be iterated.
+	 */
+	private int source(int x, int y){
+		int partnerY = mirrorY[y];
+		if(partnerY < 0){
+			return -1;
+		}
+		if(realAxis && partnerY < y){
+			return partnerY*width + x;
+		}
+		int partnerX = mirrorX[x];
+		if(origin && partnerX >= 0 && (partnerY < y || (partnerY == y && partnerX < x))){
+			return partnerY*width + partnerX;
+		}
+		return -1;
+	}
+
+	/**
+	 * Fills in every mirrored pixel of the given buffer from the pixel it is a mirror
+	 * image of. Should be called once all the other pixels have been iterated.
+	 *
+	 * @param buffer The buffer, one value per pixel going across the image first.
+	 */
+	public void fill(int[] buffer){
+		for(int y = 0; y < height; y++){
+			for(int x = 0; x < width; x++){
+				int source = source(x, y);
+				if(source >= 0){
+					buffer[y*width + x] = buffer[source];
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fills in every mirrored pixel of the given buffer from the pixel it is a mirror
+	 * image of. Should be called once all the other pixels have been iterated.
+	 *
+	 * @param buffer The buffer, one value per pixel going across the image first.
+	 */
+	public void fill(float[] buffer){
+		for(int y = 0; y < height; y++){
+			for(int x = 0; x < width; x++){
+				int source = source(x, y);
+				if(source >= 0){
+					buffer[y*width + x] = buffer[source];
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,189 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import javax.imageio.ImageIO;
+import javax.swing.SwingUtilities;
+
+
+/**
+ * A cache of small Julia set images, kept in memory and on disk. Thumbnails which
+ * aren't cached yet are rendered one at a time on the render scheduler as export work,
+ * handed over by a background thread, so they never hold up the main fractal or the
+ * full sized Julia set.
+ *
+ * @author Daniel
+ *
+ */
+public class Thumbnails {
+
+	/**
+	 * The width and height of each thumbnail.
+	 */
+	public static final int SIZE = 100;
+
+	/**
+	 * The directory the thumbnails are saved in.
+	 */
+	private File directory;
+	/**
+	 * The thumbnails already loaded or rendered, by file name.
+	 */
+	private Map<String, BufferedImage> images;
+	/**
+	 * The file names of the thumbnails waiting to be rendered, so they are only queued once.
+	 */
+	private Map<String, Boolean> pending;
+	/**
+	 * The thumbnails waiting to be rendered by the background thread.
+	 */
+	private LinkedBlockingQueue<Runnable> queue;
+
+	/**
+	 * Creates the cache and starts the background thread which renders thumbnails.
+	 *
+	 * @param directory The directory to save the thumbnails in.
+	 */
+	public Thumbnails(File directory){
+		this.directory = directory;
+		images = new ConcurrentHashMap<String, BufferedImage>();
+		pending = new ConcurrentHashMap<String, Boolean>();
+		queue = new LinkedBlockingQueue<Runnable>();
+		Thread renderer = new Thread(new Runnable(){
+			/*
+			 * Renders each queued thumbnail in turn.
+			 */
+			@Override
+			public void run() {
+				while(true){
+					try {
+						queue.take().run();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+			}
+		}, "Thumbnail renderer");
+		renderer.setDaemon(true);
+		renderer.start();
+	}
+
+	/**
+	 * Returns the thumbnail of a Julia set if it is in memory or on disk. If it isn't,
+	 * it is queued to be rendered in the background and the given callback is run on
+	 * the event dispatch thread once it is ready.
+	 *
+	 * @param c The base complex number of the Julia set.
+	 * @param fractalType An int representation of the fractal type.
+	 * @param power The power used by a Multibrot set of type {@link Kernel#MULTIBROT}.
+	 * @param formula The formula used if the fractal type is {@link Kernel#CUSTOM}.
+	 * @param ready Run once a thumbnail which wasn't cached has been rendered.
+	 * @return The thumbnail, or null if it has to be rendered first.
+	 */
+	public BufferedImage get(final Complex c, final int fractalType, final double power, final Formula formula, final Runnable ready){
+		final String name = name(c, fractalType, power, formula);
+		BufferedImage image = images.get(name);
+		if(image != null){
+			return image;
+		}
+		final File file = new File(directory, name);
+		if(file.exists()){
+			try {
+				image = ImageIO.read(file);
+			} catch (IOException e) {
+				image = null;
+			}
+			if(image != null){
+				images.put(name, image);
+				return image;
+			}
+		}
+		if(pending.put(name, Boolean.TRUE) == null){
+			queue.add(new Runnable(){
+				/*
+				 * Renders the thumbnail, saves it and lets the caller know it's ready.
+				 */
+				@Override
+				public void run() {
+					BufferedImage thumbnail = render(c, fractalType, power, formula, SIZE);
+					images.put(name, thumbnail);
+					pending.remove(name);
+					try {
+						directory.mkdirs();
+						ImageIO.write(thumbnail, "png", file);
+					} catch (IOException e) {
+						//the thumbnail is still kept in memory
+					}
+					SwingUtilities.invokeLater(ready);
+				}
+			});
+		}
+		return null;
+	}
+
+	/**
+	 * Renders a square image of a Julia set, showing the same area of the plane as the
+	 * Julia panel, a row at a time on the render scheduler as export work.
+	 *
+	 * @param c The base complex number of the Julia set.
+	 * @param fractalType An int representation of the fractal type.
+	 * @param power The power used by a Multibrot set of type {@link Kernel#MULTIBROT}.
+	 * @param formula The formula used if the fractal type is {@link Kernel#CUSTOM}.
+	 * @param size The width and height of the image.
+	 * @return The rendered image.
+	 */
+	public static BufferedImage render(final Complex c, final int fractalType, final double power, final Formula formula, final int size){
+		final int max = 100;
+		final double pixelValueX = 4.0/size;
+		final double pixelValueY = 3.2/size;
+		final boolean fast = Kernel.fastPower(pixelValueX, pixelValueY);
+		final int middle = size/2 + 1;
+		final int[] iterations = new int[size*size];
+		final float[] escape = new float[size*size];
+		List<Runnable> rows = new ArrayList<Runnable>();
+		for(int row = 0; row < size; row++){
+			final int y = row;
+			rows.add(new Runnable(){
+				@Override
+				public void run() {
+					for(int x = 0; x < size; x++){
+						int index = y*size + x;
+						double real = (x-middle)*pixelValueX;
+						double imaginary = (middle-y)*pixelValueY;
+						iterations[index] = Kernel.julia(fractalType, power, formula, fast, real, imaginary, c, max, escape, index);
+					}
+				}
+			});
+		}
+		RenderScheduler.get().run(RenderScheduler.EXPORT, rows, true);
+		BufferedImage image = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+		int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+		double degree = Kernel.degree(fractalType, power, formula);
+		Palette.fire().paint(iterations, escape, max, degree, false, null, pixels);
+		return image;
+	}
+
+	/**
+	 * Works out the file name of a thumbnail from the exact bits of the complex number,
+	 * so no two favourites can share a thumbnail. A custom formula is named by a hash of
+	 * its text, so each formula has thumbnails of its own.
+	 *
+	 * @param c The base complex number of the Julia set.
+	 * @param fractalType An int representation of the fractal type.
+	 * @param power The power used by a Multibrot set of type {@link Kernel#MULTIBROT}.
+	 * @param formula The formula used if the fractal type is {@link Kernel#CUSTOM}.
+	 * @return The file name.
+	 */
+	private static String name(Complex c, int fractalType, double power, Formula formula){
+		String type = fractalType == Kernel.MULTIBROT ? fractalType + "p" + Long.toHexString(Double.doubleToLongBits(power))
+				: fractalType == Kernel.CUSTOM ? fractalType + "f" + Integer.toHexString(formula.toString().hashCode()) : "" + fractalType;
+		return "julia" + type + "_" + Long.toHexString(Double.doubleToLongBits(c.getReal()))
+				+ "_" + Long.toHexString(Double.doubleToLongBits(c.getImaginary())) + ".png";
+	}
+}
@@ -0,0 +1,510 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+
+/**
+ * A headless web server which serves the fractals as a slippy map, so they can be
+ * browsed without the Swing program. Tiles are requested as
+ * <code>/{formula}/{z}/{x}/{y}.png</code>, where the formula is one of the names in
+ * {@link #FORMULAS}, optionally starting with <code>julia-</code> and followed by
+ * <code>?c=real,imaginary</code> for a Julia set. Zoom level 0 is a single tile four
+ * units wide, and every level doubles the number of tiles across and down.
+ * <p>
+ * Finished tiles are kept in memory, requests for a tile which is already being
+ * rendered wait for that render instead of starting another, and only one tile per
+ * processor is rendered at a time. <code>/stats</code> shows how many tiles were
+ * rendered and served, and <code>/</code> is a page to browse the tiles with.
+ * <p>
+ * Run from the command line as
+ * <pre>
+ * java TileServer serve port
+ * java TileServer load host:port requests concurrency
+ * </pre>
+ * where load mode requests random tiles from a running server and reports how fast
+ * they came back.
+ *
+ * @author Daniel
+ *
+ */
+public class TileServer {
+
+	/**
+	 * The names of the formulas, by fractal type.
+	 */
+	public static final String[] FORMULAS = {"mandelbrot", "burningship", "tricorn", "multibrot3", "multibrot4", "multibrot5", "multibrot6"};
+	/**
+	 * The width and height of each tile in pixels.
+	 */
+	public static final int TILE_SIZE = 256;
+	/**
+	 * The width and height of the plane covered by zoom level 0.
+	 */
+	private static final double SPAN = 4.0;
+	/**
+	 * The deepest zoom level served, past which doubles run out of precision.
+	 */
+	private static final int MAX_ZOOM = 40;
+	/**
+	 * The number of tiles kept in memory.
+	 */
+	private static final int CACHE_SIZE = 4096;
+	/**
+	 * How long a request waits for a free renderer before giving up, in seconds.
+	 */
+	private static final int QUEUE_TIMEOUT = 30;
+
+	/**
+	 * The finished tiles by path, least recently used first.
+	 */
+	private Map<String, byte[]> cache;
+	/**
+	 * The tiles being rendered by path, so other requests for them can wait for the same render.
+	 */
+	private ConcurrentHashMap<String, FutureTask<byte[]>> rendering;
+	/**
+	 * Limits how many tiles are rendered at once.
+	 */
+	private Semaphore renderers;
+	/**
+	 * The number of tiles rendered.
+	 */
+	private AtomicInteger rendered;
+	/**
+	 * The number of requests answered from memory.
+	 */
+	private AtomicInteger cached;
+	/**
+	 * The number of requests which waited for a render started by another request.
+	 */
+	private AtomicInteger coalesced;
+	/**
+	 * The web server.
+	 */
+	private HttpServer server;
+
+	/**
+	 * Creates a tile server which renders the given number of tiles at once.
+	 *
+	 * @param renders The number of tiles which can be rendered at once.
+	 */
+	@SuppressWarnings("serial")
+	public TileServer(int renders){
+		cache = new LinkedHashMap<String, byte[]>(16, 0.75f, true){
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+				return size() > CACHE_SIZE;
+			}
+		};
+		rendering = new ConcurrentHashMap<String, FutureTask<byte[]>>();
+		renderers = new Semaphore(renders);
+		rendered = new AtomicInteger();
+		cached = new AtomicInteger();
+		coalesced = new AtomicInteger();
+	}
+
+	/**
+	 * Starts serving on the given port. Requests are handled by a fixed pool of threads,
+	 * twice as many as can render at once so cached tiles are still served while every
+	 * renderer is busy.
+	 *
+	 * @param port The port to listen on.
+	 * @throws IOException If the port couldn't be listened on.
+	 */
+	public void start(int port) throws IOException{
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		server.createContext("/", new HttpHandler(){
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					respond(exchange);
+				} finally {
+					exchange.close();
+				}
+			}
+		});
+		ExecutorService handlers = Executors.newFixedThreadPool(2*renderers.availablePermits());
+		server.setExecutor(handlers);
+		server.start();
+	}
+
+	/**
+	 * Stops serving.
+	 */
+	public void stop(){
+		server.stop(0);
+		((ExecutorService) server.getExecutor()).shutdown();
+	}
+
+	/**
+	 * Answers a single request.
+	 *
+	 * @param exchange The request and its response.
+	 * @throws IOException If the response couldn't be sent.
+	 */
+	private void respond(HttpExchange exchange) throws IOException{
+		String path = exchange.getRequestURI().getPath();
+		if(path.equals("/")){
+			send(exchange, 200, "text/html", page().getBytes("UTF-8"));
+			return;
+		}
+		if(path.equals("/stats")){
+			String stats = "rendered " + rendered.get() + "\ncached " + cached.get() + "\ncoalesced " + coalesced.get() + "\n";
+			send(exchange, 200, "text/plain", stats.getBytes("UTF-8"));
+			return;
+		}
+		final Tile tile = Tile.parse(path, exchange.getRequestURI().getQuery());
+		if(tile == null){
+			send(exchange, 404, "text/plain", "No such tile\n".getBytes("UTF-8"));
+			return;
+		}
+		try {
+			send(exchange, 200, "image/png", tile(tile));
+		} catch (IOException e) {
+			send(exchange, 503, "text/plain", (e.getMessage() + "\n").getBytes("UTF-8"));
+		}
+	}
+
+	/**
+	 * Returns the png of a tile, from memory if it has been rendered before. If another
+	 * request is already rendering it, this waits for that render instead. Another request
+	 * can finish the tile between the cache being checked here and this request starting
+	 * to render it, so the cache is checked again first.
+	 *
+	 * @param tile The tile.
+	 * @return The png image.
+	 * @throws IOException If the tile couldn't be rendered in time.
+	 */
+	private byte[] tile(final Tile tile) throws IOException{
+		final String key = tile.key();
+		byte[] png = fromCache(key);
+		if(png != null){
+			return png;
+		}
+		FutureTask<byte[]> task = new FutureTask<byte[]>(new Callable<byte[]>(){
+			@Override
+			public byte[] call() throws Exception {
+				byte[] png = fromCache(key);
+				return png != null ? png : render(tile);
+			}
+		});
+		FutureTask<byte[]> existing = rendering.putIfAbsent(key, task);
+		if(existing != null){
+			coalesced.incrementAndGet();
+			return result(existing);
+		}
+		try {
+			task.run();
+			png = result(task);
+			//cached before it stops being rendering, so a request which missed the cache
+			//either waits for this render or finds the tile when it checks the cache again
+			synchronized(cache){
+				cache.put(key, png);
+			}
+			return png;
+		} finally {
+			rendering.remove(key);
+		}
+	}
+
+	/**
+	 * Returns the png of a tile from memory, counting it as served from the cache.
+	 *
+	 * @param key The key of the tile.
+	 * @return The png image, or null if it isn't in memory.
+	 */
+	private byte[] fromCache(String key){
+		byte[] png;
+		synchronized(cache){
+			png = cache.get(key);
+		}
+		if(png != null){
+			cached.incrementAndGet();
+		}
+		return png;
+	}
+
+	/**
+	 * Waits for a tile being rendered.
+	 *
+	 * @param task The render of the tile.
+	 * @return The png image.
+	 * @throws IOException If the render failed.
+	 */
+	private static byte[] result(FutureTask<byte[]> task) throws IOException{
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted");
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+		}
+	}
+
+	/**
+	 * Renders a tile once a renderer is free, and encodes it as a png.
+	 *
+	 * @param tile The tile.
+	 * @return The png image.
+	 * @throws IOException If no renderer was free in time.
+	 * @throws InterruptedException If interrupted while waiting for a renderer.
+	 */
+	private byte[] render(Tile tile) throws IOException, InterruptedException{
+		if(!renderers.tryAcquire(QUEUE_TIMEOUT, TimeUnit.SECONDS)){
+			throw new IOException("Too busy");
+		}
+		try {
+			BufferedImage image = tile.render();
+			ByteArrayOutputStream png = new ByteArrayOutputStream();
+			ImageIO.write(image, "png", png);
+			rendered.incrementAndGet();
+			return png.toByteArray();
+		} finally {
+			renderers.release();
+		}
+	}
+
+	/**
+	 * Sends a response.
+	 *
+	 * @param exchange The request and its response.
+	 * @param status The http status code.
+	 * @param type The content type.
+	 * @param body The body of the response.
+	 * @throws IOException If the response couldn't be sent.
+	 */
+	private static void send(HttpExchange exchange, int status, String type, byte[] body) throws IOException{
+		exchange.getResponseHeaders().set("Content-Type", type);
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(body);
+		out.close();
+	}
+
+	/**
+	 * Returns a page which shows the Mandelbrot set as a map to browse.
+	 *
+	 * @return The html of the page.
+	 */
+	private static String page(){
+		return "<!DOCTYPE html><html><head><title>Fractals</title>"
+				+ "<link rel=\"stylesheet\" href=\"https://unpkg.com/leaflet@1.9.4/dist/leaflet.css\"/>"
+				+ "<script src=\"https://unpkg.com/leaflet@1.9.4/dist/leaflet.js\"></script></head>"
+				+ "<body style=\"margin:0\"><div id=\"map\" style=\"height:100vh\"></div><script>"
+				+ "var map = L.map('map', {crs: L.CRS.Simple, minZoom: 0, maxZoom: " + MAX_ZOOM + "}).setView([-128, 128], 1);"
+				+ "L.tileLayer('/mandelbrot/{z}/{x}/{y}.png', {tileSize: " + TILE_SIZE + ", noWrap: true, maxZoom: " + MAX_ZOOM + "}).addTo(map);"
+				+ "</script></body></html>";
+	}
+
+	/**
+	 * A single tile of the map.
+	 *
+	 * @author Daniel
+	 *
+	 */
+	private static class Tile {
+		/**
+		 * An int representation of the fractal type.
+		 */
+		int fractalType;
+		/**
+		 * The base complex number of the Julia set, or null for the Mandelbrot set.
+		 */
+		Complex c;
+		/**
+		 * The zoom level and position of the tile.
+		 */
+		int z, x, y;
+
+		/**
+		 * Reads a tile from the path and query of a request.
+		 *
+		 * @param path The path of the request.
+		 * @param query The query of the request, or null.
+		 * @return The tile, or null if the request isn't for a valid tile.
+		 */
+		static Tile parse(String path, String query){
+			String[] parts = path.split("/");
+			if(parts.length != 5 || !parts[4].endsWith(".png")){
+				return null;
+			}
+			Tile tile = new Tile();
+			String formula = parts[1];
+			if(formula.startsWith("julia-")){
+				formula = formula.substring("julia-".length());
+				if(query == null || !query.startsWith("c=")){
+					return null;
+				}
+				String[] c = query.substring(2).split(",");
+				try {
+					tile.c = new Complex(Double.parseDouble(c[0]), Double.parseDouble(c[1]));
+				} catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+					return null;
+				}
+			}
+			tile.fractalType = -1;
+			for(int i = 0; i < FORMULAS.length; i++){
+				if(FORMULAS[i].equals(formula)){
+					tile.fractalType = i;
+				}
+			}
+			try {
+				tile.z = Integer.parseInt(parts[2]);
+				tile.x = Integer.parseInt(parts[3]);
+				tile.y = Integer.parseInt(parts[4].substring(0, parts[4].length() - ".png".length()));
+			} catch (NumberFormatException e) {
+				return null;
+			}
+			if(tile.fractalType < 0 || tile.z < 0 || tile.z > MAX_ZOOM || tile.x < 0 || tile.y < 0
+					|| tile.x >= 1L << tile.z || tile.y >= 1L << tile.z){
+				return null;
+			}
+			return tile;
+		}
+
+		/**
+		 * Returns the key the tile is cached under, the same for every request of it.
+		 *
+		 * @return The key.
+		 */
+		String key(){
+			String julia = c == null ? "" : Long.toHexString(Double.doubleToLongBits(c.getReal())) + ","
+					+ Long.toHexString(Double.doubleToLongBits(c.getImaginary())) + "/";
+			return julia + fractalType + "/" + z + "/" + x + "/" + y;
+		}
+
+		/**
+		 * Renders the tile. The Mandelbrot set is centred on -0.5 so the whole set fits at
+		 * zoom level 0, and the maximum number of iterations goes up as it zooms in.
+		 *
+		 * @return The image of the tile.
+		 */
+		BufferedImage render(){
+			int max = 100 + 50*z;
+			double size = SPAN/(1L << z);
+			double pixel = size/TILE_SIZE;
+			boolean fast = Kernel.fastPower(pixel, pixel);
+			double left = (c == null && fractalType == 0 ? -0.5 : 0) - SPAN/2 + x*size;
+			double top = SPAN/2 - y*size;
+			int[] iterations = new int[TILE_SIZE*TILE_SIZE];
+			float[] escape = new float[TILE_SIZE*TILE_SIZE];
+			for(int row = 0; row < TILE_SIZE; row++){
+				double imaginary = top - (row + 0.5)*pixel;
+				for(int column = 0; column < TILE_SIZE; column++){
+					double real = left + (column + 0.5)*pixel;
+					int index = row*TILE_SIZE + column;
+					iterations[index] = c == null ? Kernel.mandelbrot(fractalType, 2, null, fast, real, imaginary, max, escape, index)
+							: Kernel.julia(fractalType, 2, null, fast, real, imaginary, c, max, escape, index);
+				}
+			}
+			BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+			int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+			Palette.fire().paint(iterations, escape, max, Kernel.degree(fractalType, 2, null), true, null, pixels);
+			return image;
+		}
+	}
+
+	/**
+	 * Requests random tiles from a running server from several threads at once, and
+	 * prints how many came back each second and how long they took. Tiles are picked
+	 * from the first few zoom levels so some are asked for more than once.
+	 *
+	 * @param address The host and port of the server.
+	 * @param requests The number of tiles to request.
+	 * @param concurrency The number of requests to have open at once.
+	 * @throws InterruptedException If interrupted while waiting for the requests.
+	 */
+	public static void load(final String address, final int requests, int concurrency) throws InterruptedException{
+		final AtomicInteger next = new AtomicInteger();
+		final AtomicInteger failed = new AtomicInteger();
+		final AtomicLong latency = new AtomicLong();
+		final AtomicLong slowest = new AtomicLong();
+		Thread[] clients = new Thread[concurrency];
+		long start = System.nanoTime();
+		for(int t = 0; t < concurrency; t++){
+			final Random random = new Random(t);
+			clients[t] = new Thread(new Runnable(){
+				@Override
+				public void run() {
+					byte[] buffer = new byte[8192];
+					while(next.getAndIncrement() < requests){
+						int z = random.nextInt(6);
+						String path = "/" + FORMULAS[random.nextInt(3)] + "/" + z + "/" + random.nextInt(1 << z) + "/" + random.nextInt(1 << z) + ".png";
+						long sent = System.nanoTime();
+						try {
+							HttpURLConnection connection = (HttpURLConnection) new URL("http://" + address + path).openConnection();
+							if(connection.getResponseCode() != 200){
+								failed.incrementAndGet();
+							}
+							InputStream in = connection.getResponseCode() == 200 ? connection.getInputStream() : connection.getErrorStream();
+							while(in.read(buffer) >= 0){
+							}
+							in.close();
+						} catch (IOException e) {
+							failed.incrementAndGet();
+						}
+						long took = System.nanoTime() - sent;
+						latency.addAndGet(took);
+						long previous = slowest.get();
+						while(took > previous && !slowest.compareAndSet(previous, took)){
+							previous = slowest.get();
+						}
+					}
+				}
+			});
+			clients[t].start();
+		}
+		for(Thread client : clients){
+			client.join();
+		}
+		double seconds = (System.nanoTime() - start)/1e9;
+		System.out.printf("%d requests in %.2fs, %.1f per second, %.1fms average, %.1fms slowest, %d failed%n",
+				requests, seconds, requests/seconds, latency.get()/1e6/requests, slowest.get()/1e6, failed.get());
+	}
+
+	/**
+	 * Runs the server or the load test, depending on the first argument. See the class
+	 * description for the arguments.
+	 *
+	 * @param args The command line arguments.
+	 * @throws Exception If the server couldn't start.
+	 */
+	public static void main(String[] args) throws Exception{
+		if(args.length == 2 && args[0].equals("serve")){
+			new TileServer(Runtime.getRuntime().availableProcessors()).start(Integer.parseInt(args[1]));
+			System.out.println("Serving tiles on port " + args[1]);
+		}else if(args.length == 4 && args[0].equals("load")){
+			load(args[1], Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+		}else{
+			System.err.println("Usage: java TileServer serve port");
+			System.err.println("       java TileServer load host:port requests concurrency");
+			System.exit(1);
+		}
+	}
+}
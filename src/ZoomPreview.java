@@ -0,0 +1,227 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * Renders a low resolution preview of the area under the zoom box while the user is
+ * still dragging it, on the render scheduler below the main view in priority. A
+ * background thread waits for each new box and hands its rows to the scheduler. Only
+ * the latest box is rendered, and a render is abandoned as soon as the box changes,
+ * so once the mouse is released the preview is usually already waiting.
+ *
+ * @author Daniel
+ *
+ */
+public class ZoomPreview {
+
+	/**
+	 * The settings of the preview waiting to be rendered, or null if there isn't one.
+	 */
+	private Request waiting;
+	/**
+	 * The number of the latest request, so renders of older boxes know to stop.
+	 */
+	private volatile int generation;
+	/**
+	 * The box the finished preview was rendered for.
+	 */
+	private Rectangle readyBox;
+	/**
+	 * The finished preview, or null if the latest box hasn't been rendered yet.
+	 */
+	private BufferedImage ready;
+
+	/**
+	 * Creates the preview renderer and starts its background thread.
+	 */
+	public ZoomPreview(){
+		Thread renderer = new Thread(new Runnable(){
+			/*
+			 * Waits for each new box and renders it.
+			 */
+			@Override
+			public void run() {
+				while(true){
+					Request request;
+					synchronized(ZoomPreview.this){
+						while(waiting == null){
+							try {
+								ZoomPreview.this.wait();
+							} catch (InterruptedException e) {
+								return;
+							}
+						}
+						request = waiting;
+						waiting = null;
+					}
+					render(request);
+				}
+			}
+		}, "Zoom preview");
+		renderer.setDaemon(true);
+		renderer.start();
+	}
+
+	/**
+	 * Asks for a preview of a new zoom box, abandoning any render of an older box.
+	 *
+	 * @param box The zoom box on screen.
+	 * @param xLower The lower bound of the real axis under the box.
+	 * @param xUpper The upper bound of the real axis under the box.
+	 * @param yLower The lower bound of the imaginary axis under the box.
+	 * @param yUpper The upper bound of the imaginary axis under the box.
+	 * @param fractalType An int representation of the fractal type.
+	 * @param power The power used by a Multibrot set of type {@link Kernel#MULTIBROT}.
+	 * @param formula The formula used by a fractal of type {@link Kernel#CUSTOM}, or null for any other type.
+	 * @param max The maximum number of iterations.
+	 * @param palette The palette to colour with.
+	 * @param smooth Whether to colour smoothly or in bands.
+	 * @param equalised Whether to spread the colours over the histogram of the preview.
+	 * @param width The width of the preview.
+	 * @param height The height of the preview.
+	 */
+	public synchronized void request(Rectangle box, double xLower, double xUpper, double yLower, double yUpper, int fractalType,
+			double power, Formula formula, int max, Palette palette, boolean smooth, boolean equalised, int width, int height){
+		Request request = new Request();
+		request.box = box;
+		request.xLower = xLower;
+		request.xUpper = xUpper;
+		request.yLower = yLower;
+		request.yUpper = yUpper;
+		request.fractalType = fractalType;
+		request.power = power;
+		request.formula = formula;
+		request.max = max;
+		request.palette = palette;
+		request.smooth = smooth;
+		request.equalised = equalised;
+		request.width = Math.max(1, width);
+		request.height = Math.max(1, height);
+		request.generation = ++generation;
+		ready = null;
+		waiting = request;
+		notifyAll();
+	}
+
+	/**
+	 * Returns the finished preview if it was rendered for the given box, and forgets it.
+	 *
+	 * @param box The zoom box the mouse was released on.
+	 * @return The preview, or null if it isn't ready or was for a different box.
+	 */
+	public synchronized BufferedImage take(Rectangle box){
+		BufferedImage preview = box.equals(readyBox) ? ready : null;
+		cancel();
+		return preview;
+	}
+
+	/**
+	 * Abandons any preview being rendered or waiting to be rendered.
+	 */
+	public synchronized void cancel(){
+		generation++;
+		waiting = null;
+		ready = null;
+		readyBox = null;
+	}
+
+	/**
+	 * Renders a preview a row at a time on the render scheduler, skipping the rows left
+	 * if a newer box has been asked for.
+	 *
+	 * @param request The settings of the preview.
+	 */
+	private void render(final Request request){
+		final int width = request.width;
+		int height = request.height;
+		final double pixelX = (request.xUpper - request.xLower)/width;
+		final double pixelY = (request.yUpper - request.yLower)/height;
+		final boolean fast = Kernel.fastPower(pixelX, pixelY);
+		final int[] iterations = new int[width*height];
+		final float[] escape = new float[width*height];
+		List<Runnable> rows = new ArrayList<Runnable>();
+		for(int row = 0; row < height; row++){
+			final int y = row;
+			rows.add(new Runnable(){
+				@Override
+				public void run() {
+					if(request.generation != generation){
+						return;
+					}
+					for(int x = 0; x < width; x++){
+						int index = y*width + x;
+						iterations[index] = Kernel.mandelbrot(request.fractalType, request.power, request.formula, fast, request.xLower + (x + 0.5)*pixelX,
+								request.yUpper - (y + 0.5)*pixelY, request.max, escape, index);
+					}
+				}
+			});
+		}
+		RenderScheduler.get().run(RenderScheduler.PREVIEW, rows, true);
+		if(request.generation != generation){
+			return;
+		}
+		BufferedImage preview = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+		int[] pixels = ((DataBufferInt) preview.getRaster().getDataBuffer()).getData();
+		Histogram histogram = request.equalised ? new Histogram(iterations, request.max, RenderScheduler.PREVIEW, false) : null;
+		request.palette.paint(iterations, escape, request.max, Kernel.degree(request.fractalType, request.power, request.formula),
+				request.smooth, histogram, pixels);
+		synchronized(this){
+			if(request.generation == generation){
+				ready = preview;
+				readyBox = request.box;
+			}
+		}
+	}
+
+	/**
+	 * The settings of a single preview.
+	 *
+	 * @author Daniel
+	 *
+	 */
+	private static class Request {
+		/**
+		 * The zoom box on screen.
+		 */
+		Rectangle box;
+		/**
+		 * The bounds of the plane under the box.
+		 */
+		double xLower, xUpper, yLower, yUpper;
+		/**
+		 * An int representation of the fractal type.
+		 */
+		int fractalType;
+		/**
+		 * The power used by a Multibrot set of type {@link Kernel#MULTIBROT}.
+		 */
+		double power;
+		/**
+		 * The formula used by a fractal of type {@link Kernel#CUSTOM}, or null for any other type.
+		 */
+		Formula formula;
+		/**
+		 * The maximum number of iterations.
+		 */
+		int max;
+		/**
+		 * The palette to colour with.
+		 */
+		Palette palette;
+		/**
+		 * Whether to colour smoothly and whether to equalise the colours.
+		 */
+		boolean smooth, equalised;
+		/**
+		 * The size of the preview.
+		 */
+		int width, height;
+		/**
+		 * The number of the request.
+		 */
+		int generation;
+	}
+}